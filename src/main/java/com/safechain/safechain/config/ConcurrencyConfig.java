@@ -0,0 +1,93 @@
+package com.safechain.safechain.config;
+
+import com.safechain.safechain.util.ConcurrencyLimitingDataSource;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * How requests share the database.
+ * <p>
+ * On Java 21, {@code spring.threads.virtual.enabled} moves request handling
+ * and async work onto virtual threads, so slow clients stop tying up a fixed
+ * thread pool. What they still compete for is the JDBC pool, which
+ * {@code db.limiter.*} guards with a {@link ConcurrencyLimitingDataSource}.
+ * Requests matching {@code db.limiter.bulk-paths} run in its bulk lane.
+ */
+@Slf4j
+@Configuration
+public class ConcurrencyConfig {
+
+    public ConcurrencyConfig(@Value("${spring.threads.virtual.enabled}") boolean virtualThreads) {
+        if (virtualThreads && Runtime.version().feature() < 21) {
+            log.warn("spring.threads.virtual.enabled needs Java 21 or later; running on Java {} with platform threads",
+                    Runtime.version().feature());
+        }
+    }
+
+    /**
+     * Wrap the connection pool in a limiter when {@code db.limiter.enabled} is set
+     */
+    @Bean
+    public static BeanPostProcessor dataSourceLimiter(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof DataSource dataSource) || bean instanceof ConcurrencyLimitingDataSource
+                        || !environment.getRequiredProperty("db.limiter.enabled", Boolean.class)) {
+                    return bean;
+                }
+                return new ConcurrencyLimitingDataSource(dataSource,
+                        environment.getRequiredProperty("db.limiter.max-concurrency", Integer.class),
+                        environment.getRequiredProperty("db.limiter.bulk-max-concurrency", Integer.class),
+                        environment.getRequiredProperty("db.limiter.acquire-timeout", Duration.class));
+            }
+        };
+    }
+
+    /**
+     * Run transfers in the limiter's bulk lane. Ordered ahead of Spring Security,
+     * so the user lookup during authentication counts too
+     */
+    @Bean
+    public FilterRegistrationBean<OncePerRequestFilter> bulkRequestFilter(
+            @Value("${db.limiter.bulk-paths}") List<String> bulkPaths) {
+        List<PathPattern> patterns = bulkPaths.stream().map(PathPatternParser.defaultInstance::parse).toList();
+        OncePerRequestFilter filter = new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                            FilterChain filterChain) throws ServletException, IOException {
+                PathContainer path = PathContainer.parsePath(request.getRequestURI()
+                        .substring(request.getContextPath().length()));
+                if (patterns.stream().noneMatch(pattern -> pattern.matches(path))) {
+                    filterChain.doFilter(request, response);
+                    return;
+                }
+                try (ConcurrencyLimitingDataSource.Scope scope = ConcurrencyLimitingDataSource.bulk()) {
+                    filterChain.doFilter(request, response);
+                }
+            }
+        };
+        FilterRegistrationBean<OncePerRequestFilter> registration = new FilterRegistrationBean<>(filter);
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
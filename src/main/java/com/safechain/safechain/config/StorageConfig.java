@@ -0,0 +1,35 @@
+package com.safechain.safechain.config;
+
+import com.safechain.safechain.storage.LocalStorageBackend;
+import com.safechain.safechain.storage.MultiVolumeStorageBackend;
+import com.safechain.safechain.storage.StorageBackend;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+@Configuration
+public class StorageConfig {
+
+    /**
+     * Blob storage selected by {@code storage.backend}: {@code local} keeps
+     * everything under {@code file.upload-dir}/blobs, {@code multi-volume}
+     * spreads blobs over the directories listed in {@code storage.volumes}
+     */
+    @Bean
+    public StorageBackend storageBackend(@Value("${storage.backend}") String backend,
+                                         @Value("${file.upload-dir}") String uploadDir,
+                                         @Value("${storage.volumes:}") List<String> volumes,
+                                         @Value("${storage.volume-reserve}") DataSize volumeReserve) {
+        return switch (backend) {
+            case "local" -> new LocalStorageBackend(Paths.get(uploadDir, "blobs"));
+            case "multi-volume" -> new MultiVolumeStorageBackend(
+                    volumes.stream().map(volume -> new LocalStorageBackend(Paths.get(volume))).toList(),
+                    volumeReserve.toBytes());
+            default -> throw new IllegalStateException("Unknown storage.backend: " + backend);
+        };
+    }
+}
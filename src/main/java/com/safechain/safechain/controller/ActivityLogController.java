@@ -1,14 +1,17 @@
 package com.safechain.safechain.controller;
 
 import com.safechain.safechain.dto.ActivityLogResponse;
+import com.safechain.safechain.dto.CursorPage;
 import com.safechain.safechain.service.ActivityLogService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.List;
+import java.time.LocalDateTime;
 
 @RestController
 @RequestMapping("/api/activity")
@@ -18,12 +21,16 @@ public class ActivityLogController {
     private final ActivityLogService activityLogService;
 
     /**
-     * Get current user's activity logs
-     * GET /api/activity/my
+     * Get current user's activity logs, keyset paginated, optionally within a time window
+     * GET /api/activity/my?cursor=&limit=&from=&to=
      */
     @GetMapping("/my")
-    public ResponseEntity<List<ActivityLogResponse>> getMyActivityLogs() {
-        List<ActivityLogResponse> logs = activityLogService.getMyLogs();
+    public ResponseEntity<CursorPage<ActivityLogResponse>> getMyActivityLogs(
+            @RequestParam(required = false) Long cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        CursorPage<ActivityLogResponse> logs = activityLogService.getMyLogs(cursor, limit, from, to);
         return ResponseEntity.ok(logs);
     }
 }
@@ -1,13 +1,31 @@
 package com.safechain.safechain.controller;
 
+import com.safechain.safechain.dto.AuditVerificationReport;
+import com.safechain.safechain.dto.CacheStatsResponse;
+import com.safechain.safechain.dto.CursorPage;
+import com.safechain.safechain.dto.SetQuotaRequest;
+import com.safechain.safechain.dto.StorageGcReport;
+import com.safechain.safechain.dto.StorageGcStatusResponse;
+import com.safechain.safechain.dto.StorageScrubStatusResponse;
+import com.safechain.safechain.dto.StorageUsageResponse;
 import com.safechain.safechain.dto.UserResponse;
 import com.safechain.safechain.dto.ActivityLogResponse;
+import com.safechain.safechain.entity.ActivityLog;
 import com.safechain.safechain.service.AdminService;
 import com.safechain.safechain.service.ActivityLogService;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -19,13 +37,14 @@ public class AdminController {
     private final ActivityLogService activityLogService;
     
     /**
-     * Get all users (admin only)
-     * GET /api/admin/users
+     * Get all users (admin only), keyset paginated
+     * GET /api/admin/users?cursor=&limit=
      */
     @GetMapping("/users")
-    public ResponseEntity<List<UserResponse>> getAllUsers() {
+    public ResponseEntity<CursorPage<UserResponse>> getAllUsers(@RequestParam(required = false) Long cursor,
+                                                                @RequestParam(required = false) Integer limit) {
         try {
-            List<UserResponse> users = adminService.getAllUsers();
+            CursorPage<UserResponse> users = adminService.getAllUsers(cursor, limit);
             return ResponseEntity.ok(users);
         } catch (Exception e) {
             throw new RuntimeException("Failed to get users: " + e.getMessage());
@@ -33,19 +52,197 @@ public class AdminController {
     }
     
     /**
-     * Get all activity logs (admin only)
-     * GET /api/admin/logs
+     * Get all activity logs (admin only), keyset paginated, optionally within a time window
+     * GET /api/admin/logs?cursor=&limit=&from=&to=
      */
     @GetMapping("/logs")
-    public ResponseEntity<List<ActivityLogResponse>> getAllLogs() {
+    public ResponseEntity<CursorPage<ActivityLogResponse>> getAllLogs(
+            @RequestParam(required = false) Long cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
         try {
-            List<ActivityLogResponse> logs = activityLogService.getAllLogs();
+            CursorPage<ActivityLogResponse> logs = activityLogService.getAllLogs(cursor, limit, from, to);
             return ResponseEntity.ok(logs);
         } catch (Exception e) {
             throw new RuntimeException("Failed to get logs: " + e.getMessage());
         }
     }
 
+    /**
+     * Stream activity logs as NDJSON or CSV (admin only), optionally filtered
+     * GET /api/admin/logs/export?format=ndjson|csv&from=&to=&eventType=&userId=
+     */
+    @GetMapping("/logs/export")
+    public ResponseEntity<StreamingResponseBody> exportLogs(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) ActivityLog.EventType eventType,
+            @RequestParam(required = false) Long userId) {
+        try {
+            ActivityLogService.ExportFormat exportFormat = ActivityLogService.ExportFormat.valueOf(format.toUpperCase());
+            StreamingResponseBody body = activityLogService.exportLogs(from, to, eventType, userId, exportFormat);
+            boolean csv = exportFormat == ActivityLogService.ExportFormat.CSV;
+            return ResponseEntity.ok()
+                    .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                            : MediaType.APPLICATION_NDJSON)
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=\"activity-logs." + (csv ? "csv" : "ndjson") + "\"")
+                    .body(body);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to export logs: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Verify the tamper-evident activity-log chains (admin only): incrementally
+     * from the last verified checkpoint, or one whole day
+     * POST /api/admin/logs/verify?day=2025-01-31
+     */
+    @PostMapping("/logs/verify")
+    public ResponseEntity<AuditVerificationReport> verifyLogs(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate day) {
+        try {
+            return ResponseEntity.ok(activityLogService.verifyLogs(day));
+        } catch (Exception e) {
+            throw new RuntimeException("Log verification failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get in-process cache statistics (admin only)
+     * GET /api/admin/cache-stats
+     */
+    @GetMapping("/cache-stats")
+    public ResponseEntity<List<CacheStatsResponse>> getCacheStats() {
+        try {
+            List<CacheStatsResponse> stats = adminService.getCacheStats();
+            return ResponseEntity.ok(stats);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get cache stats: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get storage garbage collector status (admin only)
+     * GET /api/admin/storage/gc
+     */
+    @GetMapping("/storage/gc")
+    public ResponseEntity<StorageGcStatusResponse> getStorageGcStatus() {
+        try {
+            return ResponseEntity.ok(adminService.getStorageGcStatus());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get storage GC status: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run storage garbage collection now, optionally reconciling storage against the database (admin only)
+     * POST /api/admin/storage/gc?reconcile=false
+     */
+    @PostMapping("/storage/gc")
+    public ResponseEntity<StorageGcReport> runStorageGc(@RequestParam(defaultValue = "false") boolean reconcile) {
+        try {
+            return ResponseEntity.ok(adminService.runStorageGc(reconcile));
+        } catch (Exception e) {
+            throw new RuntimeException("Storage GC failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get storage scrubber status and corrupt blobs (admin only)
+     * GET /api/admin/storage/scrub
+     */
+    @GetMapping("/storage/scrub")
+    public ResponseEntity<StorageScrubStatusResponse> getStorageScrubStatus() {
+        try {
+            return ResponseEntity.ok(adminService.getStorageScrubStatus());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get storage scrub status: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Start verifying the blobs most overdue for an integrity check (admin only); poll GET for the outcome
+     * POST /api/admin/storage/scrub
+     */
+    @PostMapping("/storage/scrub")
+    public ResponseEntity<StorageScrubStatusResponse> runStorageScrub() {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(adminService.runStorageScrub());
+        } catch (Exception e) {
+            throw new RuntimeException("Storage scrub failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get per-user storage usage and quotas (admin only), keyset paginated
+     * GET /api/admin/storage/usage/users?cursor=&limit=
+     */
+    @GetMapping("/storage/usage/users")
+    public ResponseEntity<CursorPage<StorageUsageResponse>> getUserStorageUsage(
+            @RequestParam(required = false) Long cursor, @RequestParam(required = false) Integer limit) {
+        try {
+            return ResponseEntity.ok(adminService.getUserStorageUsage(cursor, limit));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get storage usage: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get per-group storage usage and quotas (admin only), keyset paginated
+     * GET /api/admin/storage/usage/groups?cursor=&limit=
+     */
+    @GetMapping("/storage/usage/groups")
+    public ResponseEntity<CursorPage<StorageUsageResponse>> getGroupStorageUsage(
+            @RequestParam(required = false) Long cursor, @RequestParam(required = false) Integer limit) {
+        try {
+            return ResponseEntity.ok(adminService.getGroupStorageUsage(cursor, limit));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get storage usage: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuild storage usage counters from the files table (admin only)
+     * POST /api/admin/storage/usage/recalculate
+     */
+    @PostMapping("/storage/usage/recalculate")
+    public ResponseEntity<String> recalculateStorageUsage() {
+        try {
+            return ResponseEntity.ok(adminService.recalculateStorageUsage());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to recalculate storage usage: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Set a user's storage quota; a null quota restores the default (admin only)
+     * PUT /api/admin/users/{id}/quota
+     */
+    @PutMapping("/users/{id}/quota")
+    public ResponseEntity<String> setUserQuota(@PathVariable Long id, @Valid @RequestBody SetQuotaRequest request) {
+        try {
+            return ResponseEntity.ok(adminService.setUserQuota(id, request.getQuotaBytes()));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to set quota: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Set a group's storage quota; a null quota removes the limit (admin only)
+     * PUT /api/admin/groups/{id}/quota
+     */
+    @PutMapping("/groups/{id}/quota")
+    public ResponseEntity<String> setGroupQuota(@PathVariable Long id, @Valid @RequestBody SetQuotaRequest request) {
+        try {
+            return ResponseEntity.ok(adminService.setGroupQuota(id, request.getQuotaBytes()));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to set quota: " + e.getMessage());
+        }
+    }
+
     /**
      * Delete a user (admin only)
      * DELETE /api/admin/users/{id}
@@ -1,24 +1,32 @@
 package com.safechain.safechain.controller;
 
+import com.safechain.safechain.dto.BatchDeleteRequest;
+import com.safechain.safechain.dto.BatchDeleteResponse;
+import com.safechain.safechain.dto.BatchShareRequest;
+import com.safechain.safechain.dto.BatchShareResponse;
+import com.safechain.safechain.dto.CursorPage;
 import com.safechain.safechain.dto.FileResponse;
+import com.safechain.safechain.dto.FileSearchRequest;
 import com.safechain.safechain.dto.ShareFileRequest;
 import com.safechain.safechain.dto.ShareInfoResponse;
+import com.safechain.safechain.dto.ShareWithGroupRequest;
+import com.safechain.safechain.dto.StorageUsageResponse;
 import com.safechain.safechain.dto.UnshareFileRequest;
-import com.safechain.safechain.entity.File;
+import com.safechain.safechain.dto.UnshareGroupRequest;
+import com.safechain.safechain.service.FileDownloadCache;
+import com.safechain.safechain.service.FileDownloadService;
+import com.safechain.safechain.service.FileSearchService;
 import com.safechain.safechain.service.FileService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
 
 @RestController
@@ -27,6 +35,8 @@ import java.util.List;
 public class FileController {
 
     private final FileService fileService;
+    private final FileDownloadService fileDownloadService;
+    private final FileSearchService fileSearchService;
 
     /**
      * Upload a file
@@ -43,47 +53,78 @@ public class FileController {
     }
 
     /**
-     * Get user's uploaded files
-     * GET /api/files/my
+     * Upload a file as the raw request body, streamed straight to storage
+     * PUT /api/files/upload/stream?fileName=report.pdf
+     */
+    @PutMapping("/upload/stream")
+    public ResponseEntity<FileResponse> uploadFileStream(@RequestParam("fileName") String fileName,
+                                                         HttpServletRequest request) {
+        String contentType = request.getContentType() != null
+                ? request.getContentType()
+                : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        try {
+            FileResponse response = fileService.uploadStream(
+                    request.getInputStream(), fileName, contentType, request.getContentLengthLong());
+            return ResponseEntity.ok(response);
+        } catch (IOException e) {
+            throw new RuntimeException("File upload failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get user's uploaded files, keyset paginated
+     * GET /api/files/my?cursor=&limit=
      */
     @GetMapping("/my")
-    public ResponseEntity<List<FileResponse>> getMyFiles() {
-        List<FileResponse> files = fileService.getMyFiles();
+    public ResponseEntity<CursorPage<FileResponse>> getMyFiles(@RequestParam(required = false) Long cursor,
+                                                               @RequestParam(required = false) Integer limit) {
+        CursorPage<FileResponse> files = fileService.getMyFiles(cursor, limit);
         return ResponseEntity.ok(files);
     }
 
     /**
-     * Get files shared with user
-     * GET /api/files/shared-with-me
+     * Get files shared with user, keyset paginated
+     * GET /api/files/shared-with-me?cursor=&limit=
      */
     @GetMapping("/shared-with-me")
-    public ResponseEntity<List<FileResponse>> getSharedFiles() {
-        List<FileResponse> files = fileService.getSharedFiles();
+    public ResponseEntity<CursorPage<FileResponse>> getSharedFiles(@RequestParam(required = false) Long cursor,
+                                                                   @RequestParam(required = false) Integer limit) {
+        CursorPage<FileResponse> files = fileService.getSharedFiles(cursor, limit);
+        return ResponseEntity.ok(files);
+    }
+
+    /**
+     * Get the user's storage usage and quota
+     * GET /api/files/usage
+     */
+    @GetMapping("/usage")
+    public ResponseEntity<StorageUsageResponse> getMyUsage() {
+        return ResponseEntity.ok(fileService.getMyUsage());
+    }
+
+    /**
+     * Search files the user can access, keyset paginated
+     * GET /api/files/search?q=&name=&type=&minSize=&maxSize=&uploader=&from=&to=&cursor=&limit=
+     */
+    @GetMapping("/search")
+    public ResponseEntity<CursorPage<FileResponse>> searchFiles(FileSearchRequest request,
+                                                                @RequestParam(required = false) Long cursor,
+                                                                @RequestParam(required = false) Integer limit) {
+        CursorPage<FileResponse> files = fileSearchService.search(request, cursor, limit);
         return ResponseEntity.ok(files);
     }
 
     /**
-     * Download a file
+     * Download a file, with support for Range and conditional requests
      * GET /api/files/{id}/download
      */
     @GetMapping("/{id}/download")
-    public ResponseEntity<Resource> downloadFile(@PathVariable Long id) {
+    public void downloadFile(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) {
         try {
-            File file = fileService.downloadFile(id);
-
-            Path filePath = Paths.get(file.getFilePath());
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (!resource.exists()) {
-                throw new RuntimeException("File not found on disk");
+            FileDownloadCache.Download file = fileService.downloadFile(id);
+            if (fileDownloadService.write(file, request, response)) {
+                fileService.recordDownload(file);
             }
-
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(file.getFileType()))
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename=\"" + file.getFileName() + "\"")
-                    .body(resource);
-
         } catch (Exception e) {
             throw new RuntimeException("File download failed: " + e.getMessage());
         }
@@ -103,6 +144,59 @@ public class FileController {
         }
     }
 
+    /**
+     * Share a file with every member of a group
+     * POST /api/files/share/group
+     */
+    @PostMapping("/share/group")
+    public ResponseEntity<String> shareWithGroup(@Valid @RequestBody ShareWithGroupRequest request) {
+        try {
+            String message = fileService.shareWithGroup(request);
+            return ResponseEntity.ok(message);
+        } catch (Exception e) {
+            throw new RuntimeException("File sharing failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Share several files with several users in one call
+     * POST /api/files/share/batch
+     */
+    @PostMapping("/share/batch")
+    public ResponseEntity<BatchShareResponse> shareFiles(@Valid @RequestBody BatchShareRequest request) {
+        try {
+            return ResponseEntity.ok(fileService.shareFiles(request));
+        } catch (Exception e) {
+            throw new RuntimeException("File sharing failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Revoke several users' access to several files in one call
+     * POST /api/files/unshare/batch
+     */
+    @PostMapping("/unshare/batch")
+    public ResponseEntity<BatchShareResponse> unshareFiles(@Valid @RequestBody BatchShareRequest request) {
+        try {
+            return ResponseEntity.ok(fileService.unshareFiles(request));
+        } catch (Exception e) {
+            throw new RuntimeException("File unsharing failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete several files in one call (own files, or any file for admins)
+     * POST /api/files/delete/batch
+     */
+    @PostMapping("/delete/batch")
+    public ResponseEntity<BatchDeleteResponse> deleteFiles(@Valid @RequestBody BatchDeleteRequest request) {
+        try {
+            return ResponseEntity.ok(fileService.deleteFiles(request));
+        } catch (Exception e) {
+            throw new RuntimeException("File deletion failed: " + e.getMessage());
+        }
+    }
+
     /**
      * Delete a file (owner or admin)
      * DELETE /api/files/{id}
@@ -137,4 +231,15 @@ public class FileController {
         String message = fileService.unshareFile(id, request.getUserEmail());
         return ResponseEntity.ok(message);
     }
+
+    /**
+     * Revoke a group's access to a file (owner-only)
+     * POST /api/files/{id}/unshare/group
+     */
+    @PostMapping("/{id}/unshare/group")
+    public ResponseEntity<String> unshareFromGroup(@PathVariable Long id,
+                                                   @Valid @RequestBody UnshareGroupRequest request) {
+        String message = fileService.unshareFromGroup(id, request.getGroupId());
+        return ResponseEntity.ok(message);
+    }
 }
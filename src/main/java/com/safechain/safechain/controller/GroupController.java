@@ -0,0 +1,76 @@
+package com.safechain.safechain.controller;
+
+import com.safechain.safechain.dto.AddGroupMemberRequest;
+import com.safechain.safechain.dto.CreateGroupRequest;
+import com.safechain.safechain.dto.GroupMemberResponse;
+import com.safechain.safechain.dto.GroupResponse;
+import com.safechain.safechain.service.GroupService;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/groups")
+@RequiredArgsConstructor
+public class GroupController {
+
+    private final GroupService groupService;
+
+    /**
+     * Create a group owned by the current user
+     * POST /api/groups
+     */
+    @PostMapping
+    public ResponseEntity<GroupResponse> createGroup(@Valid @RequestBody CreateGroupRequest request) {
+        return ResponseEntity.ok(groupService.createGroup(request));
+    }
+
+    /**
+     * List groups the current user belongs to
+     * GET /api/groups/my
+     */
+    @GetMapping("/my")
+    public ResponseEntity<List<GroupResponse>> getMyGroups() {
+        return ResponseEntity.ok(groupService.getMyGroups());
+    }
+
+    /**
+     * List a group's members
+     * GET /api/groups/{id}/members
+     */
+    @GetMapping("/{id}/members")
+    public ResponseEntity<List<GroupMemberResponse>> listMembers(@PathVariable Long id) {
+        return ResponseEntity.ok(groupService.listMembers(id));
+    }
+
+    /**
+     * Add a user to a group (group owner or admin)
+     * POST /api/groups/{id}/members
+     */
+    @PostMapping("/{id}/members")
+    public ResponseEntity<String> addMember(@PathVariable Long id,
+                                            @Valid @RequestBody AddGroupMemberRequest request) {
+        return ResponseEntity.ok(groupService.addMember(id, request));
+    }
+
+    /**
+     * Remove a member from a group (group owner, admin, or the member themselves)
+     * DELETE /api/groups/{id}/members/{userId}
+     */
+    @DeleteMapping("/{id}/members/{userId}")
+    public ResponseEntity<String> removeMember(@PathVariable Long id, @PathVariable Long userId) {
+        return ResponseEntity.ok(groupService.removeMember(id, userId));
+    }
+
+    /**
+     * Delete a group and everything shared with it (group owner or admin)
+     * DELETE /api/groups/{id}
+     */
+    @DeleteMapping("/{id}")
+    public ResponseEntity<String> deleteGroup(@PathVariable Long id) {
+        return ResponseEntity.ok(groupService.deleteGroup(id));
+    }
+}
@@ -0,0 +1,85 @@
+package com.safechain.safechain.controller;
+
+import com.safechain.safechain.dto.CreateUploadSessionRequest;
+import com.safechain.safechain.dto.FileResponse;
+import com.safechain.safechain.dto.UploadSessionResponse;
+import com.safechain.safechain.service.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/api/files/uploads")
+@RequiredArgsConstructor
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+
+    /**
+     * Open a resumable upload session
+     * POST /api/files/uploads
+     */
+    @PostMapping
+    public ResponseEntity<UploadSessionResponse> createSession(@Valid @RequestBody CreateUploadSessionRequest request) {
+        try {
+            return ResponseEntity.ok(uploadSessionService.createSession(request));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create upload session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get session state, including which chunks have been received
+     * GET /api/files/uploads/{sessionId}
+     */
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<UploadSessionResponse> getSession(@PathVariable String sessionId) {
+        return ResponseEntity.ok(uploadSessionService.getSession(sessionId));
+    }
+
+    /**
+     * Upload one chunk as the raw request body; chunks may arrive in any order
+     * PUT /api/files/uploads/{sessionId}/chunks/{index}
+     */
+    @PutMapping("/{sessionId}/chunks/{index}")
+    public ResponseEntity<Void> uploadChunk(@PathVariable String sessionId,
+                                            @PathVariable int index,
+                                            HttpServletRequest request) {
+        try {
+            uploadSessionService.writeChunk(sessionId, index, request.getInputStream());
+            return ResponseEntity.noContent().build();
+        } catch (IOException e) {
+            throw new RuntimeException("Chunk upload failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Assemble all chunks into a file
+     * POST /api/files/uploads/{sessionId}/commit
+     */
+    @PostMapping("/{sessionId}/commit")
+    public ResponseEntity<FileResponse> commit(@PathVariable String sessionId) {
+        try {
+            return ResponseEntity.ok(uploadSessionService.commit(sessionId));
+        } catch (IOException e) {
+            throw new RuntimeException("Upload commit failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abort an upload session
+     * DELETE /api/files/uploads/{sessionId}
+     */
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<String> abort(@PathVariable String sessionId) {
+        try {
+            return ResponseEntity.ok(uploadSessionService.abort(sessionId));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to abort upload session: " + e.getMessage());
+        }
+    }
+}
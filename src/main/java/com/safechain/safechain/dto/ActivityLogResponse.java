@@ -1,5 +1,6 @@
 package com.safechain.safechain.dto;
 
+import com.safechain.safechain.entity.ActivityLog;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -18,4 +19,10 @@ public class ActivityLogResponse {
     private String fileName;
     private String details;
     private LocalDateTime createdAt;
+
+    // Used by constructor-projection queries, which select the enum itself
+    public ActivityLogResponse(Long id, ActivityLog.EventType eventType, Long userId, String userName,
+                               Long fileId, String fileName, String details, LocalDateTime createdAt) {
+        this(id, eventType.name(), userId, userName, fileId, fileName, details, createdAt);
+    }
 }
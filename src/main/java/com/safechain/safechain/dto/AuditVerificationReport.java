@@ -0,0 +1,30 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Outcome of verifying the activity-log hash chains
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditVerificationReport {
+
+    // The day verified in full, or null for an incremental run
+    private LocalDate day;
+    private boolean valid;
+    private long checkpointsVerified;
+
+    // Checkpoints that passed without a MAC, which only happens while no master key is configured
+    private long unsignedCheckpoints;
+    private long recordsVerified;
+
+    // First problems found, as "day/shard seq range: reason"
+    private List<String> failures;
+    private long durationMillis;
+}
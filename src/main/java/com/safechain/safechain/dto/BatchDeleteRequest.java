@@ -0,0 +1,16 @@
+package com.safechain.safechain.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchDeleteRequest {
+
+    @NotEmpty(message = "At least one file ID is required")
+    @Size(max = 10000, message = "At most 10000 files can be deleted per request")
+    private List<@NotNull(message = "File ID is required") Long> fileIds;
+}
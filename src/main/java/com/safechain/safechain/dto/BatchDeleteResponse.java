@@ -0,0 +1,17 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchDeleteResponse {
+
+    private int deleted;
+    private List<Long> deletedFileIds;
+    private List<Long> skippedFileIds;
+}
@@ -0,0 +1,19 @@
+package com.safechain.safechain.dto;
+
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchShareRequest {
+
+    @NotEmpty(message = "At least one file ID is required")
+    private List<@NotNull(message = "File ID is required") Long> fileIds;
+
+    @NotEmpty(message = "At least one email is required")
+    private List<@NotBlank(message = "Email is required") @Email(message = "Email should be valid") String> userEmails;
+}
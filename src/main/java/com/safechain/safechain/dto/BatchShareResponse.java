@@ -0,0 +1,17 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchShareResponse {
+
+    private int succeeded;
+    private int failed;
+    private List<BatchShareResult> results;
+}
@@ -0,0 +1,26 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one (file, recipient) pair in a batch share or unshare
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchShareResult {
+
+    public enum Status {
+        SHARED, UNSHARED, ALREADY_SHARED, NOT_SHARED, FILE_NOT_FOUND, NOT_OWNER, USER_NOT_FOUND;
+
+        public boolean isSuccess() {
+            return this == SHARED || this == UNSHARED;
+        }
+    }
+
+    private Long fileId;
+    private String userEmail;
+    private Status status;
+}
@@ -0,0 +1,24 @@
+package com.safechain.safechain.dto;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheStatsResponse {
+
+    private String name;
+    private Long hits;
+    private Long misses;
+    private Double hitRate;
+    private Long evictions;
+    private Long size;
+
+    public static CacheStatsResponse of(String name, CacheStats stats, long size) {
+        return new CacheStatsResponse(name, stats.hitCount(), stats.missCount(), stats.hitRate(),
+                stats.evictionCount(), size);
+    }
+}
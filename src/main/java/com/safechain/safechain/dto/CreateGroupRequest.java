@@ -0,0 +1,13 @@
+package com.safechain.safechain.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+@Data
+public class CreateGroupRequest {
+
+    @NotBlank(message = "Group name is required")
+    @Size(max = 100, message = "Group name must be at most 100 characters")
+    private String name;
+}
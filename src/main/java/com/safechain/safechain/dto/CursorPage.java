@@ -0,0 +1,62 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a keyset-paginated listing. Items are ordered by descending id;
+ * pass {@code nextCursor} back as {@code cursor} to fetch the following page.
+ * A null {@code nextCursor} means there is nothing more.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+
+    private List<T> items;
+    private Long nextCursor;
+
+    /**
+     * Clamp a requested page size to the allowed range
+     * @param limit requested page size, or null for the default
+     * @return int - page size to use
+     */
+    public static int clampLimit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    /**
+     * Turn a cursor into the exclusive upper id bound for the next query
+     * @param cursor cursor from the previous page, or null for the first page
+     * @return long - ids strictly below this value belong to the page
+     */
+    public static long upperBound(Long cursor) {
+        return cursor != null ? cursor : Long.MAX_VALUE;
+    }
+
+    /**
+     * Build a page from rows fetched with {@code limit + 1}, the extra row
+     * only signalling that another page exists
+     * @param rows  rows in descending id order, at most limit + 1 of them
+     * @param limit the page size
+     * @param idOf  extracts the keyset id from a row
+     * @return CursorPage<T> - the page
+     */
+    public static <T> CursorPage<T> of(List<T> rows, int limit, Function<T, Long> idOf) {
+        if (rows.size() <= limit) {
+            return new CursorPage<>(rows, null);
+        }
+        List<T> items = rows.subList(0, limit);
+        return new CursorPage<>(items, idOf.apply(items.get(limit - 1)));
+    }
+}
@@ -0,0 +1,39 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+
+/**
+ * Filters for file search. Every field is optional and the ones given are
+ * combined with AND.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileSearchRequest {
+
+    // Words that must all prefix-match the file name, or all occur in its extracted text
+    private String q;
+
+    // Case-insensitive substring of the file name
+    private String name;
+
+    // MIME type or type prefix, e.g. "application/pdf" or "image/"
+    private String type;
+
+    private Long minSize;
+    private Long maxSize;
+
+    // Uploader's email
+    private String uploader;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime from;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime to;
+}
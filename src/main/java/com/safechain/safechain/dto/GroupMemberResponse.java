@@ -0,0 +1,18 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupMemberResponse {
+
+    private Long userId;
+    private String userEmail;
+    private String userFullName;
+    private LocalDateTime addedAt;
+}
@@ -0,0 +1,18 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupResponse {
+
+    private Long id;
+    private String name;
+    private String ownerEmail;
+    private LocalDateTime createdAt;
+}
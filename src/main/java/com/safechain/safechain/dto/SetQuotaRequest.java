@@ -0,0 +1,16 @@
+package com.safechain.safechain.dto;
+
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SetQuotaRequest {
+
+    // Limit in bytes; null restores the default (users) or removes the limit (groups)
+    @PositiveOrZero(message = "Quota cannot be negative")
+    private Long quotaBytes;
+}
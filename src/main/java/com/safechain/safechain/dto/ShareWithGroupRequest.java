@@ -0,0 +1,14 @@
+package com.safechain.safechain.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+@Data
+public class ShareWithGroupRequest {
+
+    @NotNull(message = "File ID is required")
+    private Long fileId;
+
+    @NotNull(message = "Group ID is required")
+    private Long groupId;
+}
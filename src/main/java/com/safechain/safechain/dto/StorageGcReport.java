@@ -0,0 +1,24 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * What one storage garbage collection pass reclaimed
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageGcReport {
+
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private long filesPurged;
+    private long blobsReclaimed;
+    private long orphansRemoved;
+    private long bytesReclaimed;
+    private long failures;
+}
@@ -0,0 +1,19 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageGcStatusResponse {
+
+    private StorageGcReport lastRun;
+    private long pendingFiles;
+    private long pendingBlobs;
+    private long totalFilesPurged;
+    private long totalBlobsReclaimed;
+    private long totalOrphansRemoved;
+    private long totalBytesReclaimed;
+}
@@ -0,0 +1,28 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * What one storage scrub pass verified and found
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageScrubReport {
+
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private long blobsVerified;
+    private long bytesVerified;
+
+    // Blobs from before chunk hashing, checked against their digest and given chunk hashes
+    private long blobsHashed;
+    private long blobsCorrupt;
+
+    // Blobs that could not be read for reasons other than their content, retried on the next pass
+    private long failures;
+}
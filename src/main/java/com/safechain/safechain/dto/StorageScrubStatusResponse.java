@@ -0,0 +1,25 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageScrubStatusResponse {
+
+    // A pass is queued or running on the scrubber thread
+    private boolean scrubbing;
+    private StorageScrubReport lastRun;
+    private long pendingBlobs;
+    private long unhashedBlobs;
+    private long corruptBlobs;
+
+    // First corrupt blobs, as "digest: reason"
+    private List<String> corrupt;
+    private long totalBlobsVerified;
+    private long totalBytesVerified;
+}
@@ -0,0 +1,18 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageUsageResponse {
+
+    private Long id;
+    // Email for users, group name for groups
+    private String name;
+    private long usedBytes;
+    // Effective limit; null when there is none
+    private Long quotaBytes;
+}
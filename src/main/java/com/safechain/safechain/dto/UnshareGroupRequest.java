@@ -0,0 +1,11 @@
+package com.safechain.safechain.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+@Data
+public class UnshareGroupRequest {
+
+    @NotNull(message = "Group ID is required")
+    private Long groupId;
+}
@@ -0,0 +1,20 @@
+package com.safechain.safechain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSessionResponse {
+
+    private String sessionId;
+    private String fileName;
+    private Long totalSize;
+    private Long chunkSize;
+    private Integer totalChunks;
+    private List<Integer> receivedChunks;
+}
@@ -8,6 +8,9 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
+// Partitioning and indexes are managed by ActivityLogPartitionManager,
+// because Hibernate's schema update cannot see them on a partitioned table.
+// The hash-chain columns (chain_day, chain_shard, chain_seq, row_hash) are managed by ActivityLogChain
 @Table(name = "activity_logs")
 @Data
 @NoArgsConstructor
@@ -27,13 +30,20 @@ public class ActivityLog {
     private EventType eventType;
 
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "user_id", nullable = false)
+    @JoinColumn(name = "user_id", nullable = false, foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private User user;
 
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "file_id")
+    @JoinColumn(name = "file_id", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private File file;
 
+    // Raw ids stay readable once the user or file row has been purged
+    @Column(name = "user_id", insertable = false, updatable = false)
+    private Long userId;
+
+    @Column(name = "file_id", insertable = false, updatable = false)
+    private Long fileId;
+
     @Column(length = 500)
     private String details;
 
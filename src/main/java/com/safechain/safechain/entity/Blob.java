@@ -0,0 +1,70 @@
+package com.safechain.safechain.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Content-addressed blob on disk, keyed by the SHA-256 digest of its bytes.
+ * Every {@link File} row pointing at the same content shares one blob;
+ * {@code refCount} tracks how many of them are still alive. {@code size} is
+ * the length of the original content, {@code storedSize} what it takes on
+ * disk after the codec and encryption are applied. The full-text columns
+ * {@code content_vector} and {@code indexed_at} are managed by FileSearchIndexer,
+ * the chunk hashes and scrub state by BlobIntegrityService.
+ */
+@Entity
+@Table(name = "blobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Blob {
+
+    public enum Codec {
+        IDENTITY, GZIP
+    }
+
+    @Id
+    @Column(length = 64)
+    private String digest;
+
+    // Layout path inside the storage backend; an absolute path on blobs from before the backend SPI
+    @Column(nullable = false, length = 500)
+    private String path;
+
+    @Column(nullable = false)
+    private Long size;
+
+    // Null on blobs stored before compression existed, which are all IDENTITY
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private Codec codec;
+
+    @Column(name = "stored_size")
+    private Long storedSize;
+
+    // Where each gzip block starts in the encoded bytes; see BlockGzip. Null on IDENTITY blobs
+    // and on gzip blobs stored before block encoding, which are decoded from the start
+    @Column(name = "block_size")
+    private Integer blockSize;
+
+    @Column(name = "block_offsets")
+    private byte[] blockOffsets;
+
+    // Master key the data key is wrapped with; null on blobs stored in plaintext
+    @Column(name = "key_id", length = 16)
+    private String keyId;
+
+    // The blob's own AES-256 data key, wrapped by the master key
+    @Column(name = "wrapped_key")
+    private byte[] wrappedKey;
+
+    @Column(name = "ref_count", nullable = false)
+    private Long refCount;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+}
@@ -4,11 +4,18 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.SQLRestriction;
 
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "files")
+@Table(name = "files", indexes = {
+        @Index(name = "idx_files_uploaded_by_id", columnList = "uploaded_by, id"),
+        @Index(name = "idx_files_deleted_at", columnList = "deleted_at"),
+        @Index(name = "idx_files_content_hash", columnList = "content_hash")
+})
+// Deleted files stay invisible to the application until the storage GC purges them
+@SQLRestriction("deleted_at IS NULL")
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -30,6 +37,17 @@ public class File {
     @Column(nullable = false)
     private Long fileSize;
 
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // How the bytes at filePath are encoded; fileSize is always the decoded length
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private Blob.Codec codec;
+
+    @Column(name = "stored_size")
+    private Long storedSize;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "uploaded_by", nullable = false)
     private User uploadedBy;
@@ -37,6 +55,9 @@ public class File {
     @Column(name = "upload_date")
     private LocalDateTime uploadDate;
 
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt;
+
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
@@ -8,7 +8,10 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "file_shares")
+@Table(name = "file_shares", indexes = {
+        @Index(name = "idx_file_shares_recipient_file", columnList = "shared_with_user_id, file_id"),
+        @Index(name = "idx_file_shares_file_recipient", columnList = "file_id, shared_with_user_id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -0,0 +1,46 @@
+package com.safechain.safechain.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A file shared with every member of a group. One row covers the whole
+ * group, so sharing costs the same whatever the group's size.
+ */
+@Entity
+@Table(name = "group_file_shares",
+        uniqueConstraints = @UniqueConstraint(name = "uk_group_file_shares_file_group", columnNames = {"file_id", "group_id"}),
+        indexes = @Index(name = "idx_group_file_shares_group_file", columnList = "group_id, file_id"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupShare {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "file_id", nullable = false)
+    private File file;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "group_id", nullable = false)
+    private UserGroup group;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "shared_by_user_id", nullable = false)
+    private User sharedByUser;
+
+    @Column(name = "shared_date")
+    private LocalDateTime sharedDate;
+
+    @PrePersist
+    protected void onCreate() {
+        sharedDate = LocalDateTime.now();
+    }
+}
@@ -36,6 +36,14 @@ public class User implements UserDetails {
     @Column(nullable = false)
     private Role role = Role.USER;
     
+    // Running total of fileSize over the user's live files, only ever changed by QuotaService's atomic updates
+    @Column(name = "storage_used", updatable = false)
+    private Long storageUsed = 0L;
+    
+    // Null means quota.user-default applies
+    @Column(name = "storage_quota", updatable = false)
+    private Long storageQuota;
+    
     @Column(name = "created_at")
     private LocalDateTime createdAt;
     
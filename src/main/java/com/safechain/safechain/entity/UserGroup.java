@@ -0,0 +1,46 @@
+package com.safechain.safechain.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A named team of users that files can be shared with as a whole
+ */
+@Entity
+@Table(name = "user_groups")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserGroup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, length = 100)
+    private String name;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private User owner;
+
+    // Combined storage_used of the members, only ever changed by QuotaService's atomic updates
+    @Column(name = "storage_used", updatable = false)
+    private Long storageUsed = 0L;
+
+    // Null means no group limit
+    @Column(name = "storage_quota", updatable = false)
+    private Long storageQuota;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
@@ -1,15 +1,86 @@
 package com.safechain.safechain.repository;
 
+import com.safechain.safechain.dto.ActivityLogResponse;
 import com.safechain.safechain.entity.ActivityLog;
 import com.safechain.safechain.entity.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ActivityLogRepository extends JpaRepository<ActivityLog, Long> {
     List<ActivityLog> findByUser(User user);
-}
 
+    /**
+     * Keyset page of a user's activity, newest first, projected straight
+     * into the response DTO in a single statement. The created_at window
+     * lets PostgreSQL skip monthly partitions outside it
+     * @param userId   the acting user's ID
+     * @param cursor   only logs with an ID below this are returned
+     * @param from     inclusive lower bound on createdAt
+     * @param to       exclusive upper bound on createdAt
+     * @param pageable page size (page number is always 0)
+     * @return List<ActivityLogResponse> - logs in descending ID order
+     */
+    @Query("SELECT new com.safechain.safechain.dto.ActivityLogResponse(" +
+            "l.id, l.eventType, l.userId, u.fullName, l.fileId, f.fileName, l.details, l.createdAt) " +
+            "FROM ActivityLog l LEFT JOIN l.user u LEFT JOIN l.file f " +
+            "WHERE l.userId = :userId AND l.id < :cursor AND l.createdAt >= :from AND l.createdAt < :to " +
+            "ORDER BY l.id DESC")
+    List<ActivityLogResponse> findPageByUser(@Param("userId") Long userId, @Param("cursor") Long cursor,
+                                             @Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+                                             Pageable pageable);
+
+    /**
+     * Keyset page of all activity, newest first, projected straight into
+     * the response DTO in a single statement. The created_at window lets
+     * PostgreSQL skip monthly partitions outside it
+     * @param cursor   only logs with an ID below this are returned
+     * @param from     inclusive lower bound on createdAt
+     * @param to       exclusive upper bound on createdAt
+     * @param pageable page size (page number is always 0)
+     * @return List<ActivityLogResponse> - logs in descending ID order
+     */
+    @Query("SELECT new com.safechain.safechain.dto.ActivityLogResponse(" +
+            "l.id, l.eventType, l.userId, u.fullName, l.fileId, f.fileName, l.details, l.createdAt) " +
+            "FROM ActivityLog l LEFT JOIN l.user u LEFT JOIN l.file f " +
+            "WHERE l.id < :cursor AND l.createdAt >= :from AND l.createdAt < :to ORDER BY l.id DESC")
+    List<ActivityLogResponse> findPage(@Param("cursor") Long cursor, @Param("from") LocalDateTime from,
+                                       @Param("to") LocalDateTime to, Pageable pageable);
 
+    /**
+     * Stream every log matching the filters in ascending ID order, fetched
+     * from a server-side cursor so memory stays flat however many rows
+     * match. Only partitions overlapping the created_at window are read.
+     * Must be consumed inside a (read-only) transaction and closed
+     * @param from      inclusive lower bound on createdAt
+     * @param to        exclusive upper bound on createdAt
+     * @param eventType event type to keep, or null for all
+     * @param userId    acting user to keep, or null for all
+     * @return Stream<ActivityLogResponse> - matching logs, oldest first
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    @Query("SELECT new com.safechain.safechain.dto.ActivityLogResponse(" +
+            "l.id, l.eventType, l.userId, u.fullName, l.fileId, f.fileName, l.details, l.createdAt) " +
+            "FROM ActivityLog l LEFT JOIN l.user u LEFT JOIN l.file f " +
+            "WHERE l.createdAt >= :from AND l.createdAt < :to " +
+            "AND (CAST(:eventType AS String) IS NULL OR l.eventType = :eventType) " +
+            "AND (CAST(:userId AS Long) IS NULL OR l.userId = :userId) " +
+            "ORDER BY l.id")
+    Stream<ActivityLogResponse> streamForExport(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+                                                @Param("eventType") ActivityLog.EventType eventType,
+                                                @Param("userId") Long userId);
+}
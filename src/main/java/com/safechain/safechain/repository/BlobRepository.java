@@ -0,0 +1,71 @@
+package com.safechain.safechain.repository;
+
+import com.safechain.safechain.entity.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface BlobRepository extends JpaRepository<Blob, String> {
+
+    /**
+     * Register one more reference to a blob, creating its row on first use.
+     * Runs as a single upsert so concurrent uploads of identical content
+     * never race on the primary key. An existing row keeps its codec, block
+     * index and key.
+     *
+     * @param digest       hex SHA-256 of the content
+     * @param path         layout path of the blob inside its storage backend
+     * @param size         size of the original content in bytes
+     * @param storedSize   size of the blob on disk in bytes
+     * @param codec        name of the {@link com.safechain.safechain.entity.Blob.Codec} the blob is stored with
+     * @param blockSize    content bytes per gzip block, or null unless the blob is block-encoded
+     * @param blockOffsets encoded offset of each gzip block, or null unless the blob is block-encoded
+     * @param keyId        master key the data key is wrapped with, or null for plaintext
+     * @param wrappedKey   wrapped data key, or null for plaintext
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO blobs (digest, path, size, stored_size, codec, block_size, block_offsets, " +
+            "key_id, wrapped_key, ref_count, created_at) " +
+            "VALUES (:digest, :path, :size, :storedSize, :codec, :blockSize, :blockOffsets, " +
+            ":keyId, :wrappedKey, 1, now()) " +
+            "ON CONFLICT (digest) DO UPDATE SET ref_count = blobs.ref_count + 1",
+            nativeQuery = true)
+    void acquire(@Param("digest") String digest, @Param("path") String path, @Param("size") long size,
+                 @Param("storedSize") long storedSize, @Param("codec") String codec,
+                 @Param("blockSize") Integer blockSize, @Param("blockOffsets") byte[] blockOffsets,
+                 @Param("keyId") String keyId, @Param("wrappedKey") byte[] wrappedKey);
+
+    /**
+     * Store a blob's chunk hashes unless it already has them. The columns are
+     * created by {@link com.safechain.safechain.service.BlobIntegrityService}
+     *
+     * @param digest     hex SHA-256 of the content
+     * @param chunkSize  bytes per chunk
+     * @param hashes     packed SHA-256 of each chunk
+     * @param merkleRoot Merkle root over the chunk hashes
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE blobs SET chunk_size = :chunkSize, chunk_hashes = :hashes, merkle_root = :merkleRoot " +
+            "WHERE digest = :digest AND chunk_hashes IS NULL",
+            nativeQuery = true)
+    void recordChunkTree(@Param("digest") String digest, @Param("chunkSize") int chunkSize,
+                         @Param("hashes") byte[] hashes, @Param("merkleRoot") byte[] merkleRoot);
+
+    /**
+     * Drop one reference to a blob. A blob whose count reaches zero keeps its
+     * row and content until the storage GC sweeps it
+     *
+     * @param digest hex SHA-256 of the content
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE blobs SET ref_count = ref_count - 1 WHERE digest = :digest AND ref_count > 0",
+            nativeQuery = true)
+    void release(@Param("digest") String digest);
+}
@@ -1,11 +1,15 @@
 package com.safechain.safechain.repository;
 
+import com.safechain.safechain.dto.FileResponse;
 import com.safechain.safechain.entity.File;
 import com.safechain.safechain.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -19,6 +23,21 @@ public interface FileRepository extends JpaRepository<File, Long> {
      */
     List<File> findByUploadedBy(User uploadedBy);
     
+    /**
+     * Keyset page of files uploaded by a user, newest first, projected
+     * straight into the response DTO in a single statement
+     * @param userId   the uploader's ID
+     * @param cursor   only files with an ID below this are returned
+     * @param pageable page size (page number is always 0)
+     * @return List<FileResponse> - files in descending ID order
+     */
+    @Query("SELECT new com.safechain.safechain.dto.FileResponse(" +
+           "f.id, f.fileName, f.fileType, f.fileSize, u.fullName, f.uploadDate) " +
+           "FROM File f JOIN f.uploadedBy u " +
+           "WHERE u.id = :userId AND f.id < :cursor ORDER BY f.id DESC")
+    List<FileResponse> findPageByUploader(@Param("userId") Long userId, @Param("cursor") Long cursor,
+                                          Pageable pageable);
+    
     /**
      * Find files shared with a specific user
      * @param userId the user ID to find shared files for
@@ -27,13 +46,51 @@ public interface FileRepository extends JpaRepository<File, Long> {
     @Query("SELECT fs.file FROM FileShare fs WHERE fs.sharedWithUser.id = :userId")
     List<File> findFilesSharedWithUser(@Param("userId") Long userId);
     
+    /**
+     * Keyset page of files shared with a user directly or through any of
+     * their groups, newest first, projected straight into the response DTO in
+     * a single statement. Each branch of the union takes at most one page
+     * from its own index, so the cost does not grow with the number of shares.
+     * The branches skip deleted files themselves: their shares outlive them
+     * until the storage GC runs, and would otherwise use up a branch's page
+     * and end the listing early
+     * @param userId the user ID to find shared files for
+     * @param cursor only files with an ID below this are returned
+     * @param limit  page size
+     * @return List<FileResponse> - files in descending ID order, each once
+     */
+    @Query("SELECT new com.safechain.safechain.dto.FileResponse(" +
+           "f.id, f.fileName, f.fileType, f.fileSize, u.fullName, f.uploadDate) " +
+           "FROM File f JOIN f.uploadedBy u WHERE f.id IN (" +
+           "(SELECT sf.id FROM FileShare fs JOIN fs.file sf " +
+           " WHERE fs.sharedWithUser.id = :userId AND sf.id < :cursor AND sf.deletedAt IS NULL " +
+           " ORDER BY sf.id DESC LIMIT :limit) " +
+           "UNION " +
+           "(SELECT gf.id FROM GroupShare gs JOIN gs.file gf JOIN GroupMember m ON m.group = gs.group " +
+           " WHERE m.user.id = :userId AND gf.id < :cursor AND gf.deletedAt IS NULL " +
+           " ORDER BY gf.id DESC LIMIT :limit)) " +
+           "ORDER BY f.id DESC LIMIT :limit")
+    List<FileResponse> findPageSharedWithUser(@Param("userId") Long userId, @Param("cursor") Long cursor,
+                                              @Param("limit") int limit);
+    
     /**
      * Find files that a user has access to (own files + shared files)
      * @param userId the user ID
      * @return List<File> - list of accessible files
      */
     @Query("SELECT f FROM File f WHERE f.uploadedBy.id = :userId " +
-           "UNION " +
-           "SELECT fs.file FROM FileShare fs WHERE fs.sharedWithUser.id = :userId")
+           "OR f.id IN (SELECT fs.file.id FROM FileShare fs WHERE fs.sharedWithUser.id = :userId)")
     List<File> findAccessibleFilesForUser(@Param("userId") Long userId);
+
+    /**
+     * Mark a file deleted. It disappears from every query at once and its
+     * storage is reclaimed later by the storage GC
+     * @param fileId the file ID
+     * @return int - 1 if the file was marked, 0 if it was already deleted
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE files SET deleted_at = now(), updated_at = now() " +
+           "WHERE id = :fileId AND deleted_at IS NULL", nativeQuery = true)
+    int markDeleted(@Param("fileId") Long fileId);
 }
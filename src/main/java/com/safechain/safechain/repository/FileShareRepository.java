@@ -1,13 +1,17 @@
 package com.safechain.safechain.repository;
 
+import com.safechain.safechain.dto.ShareInfoResponse;
 import com.safechain.safechain.entity.File;
 import com.safechain.safechain.entity.FileShare;
 import com.safechain.safechain.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -47,9 +51,55 @@ public interface FileShareRepository extends JpaRepository<FileShare, Long> {
      */
     List<FileShare> findByFile(File file);
 
+    /**
+     * List who a file is shared with, projected straight into the response DTO
+     * 
+     * @param fileId the file ID
+     * @return List<ShareInfoResponse> - one entry per share, oldest first
+     */
+    @Query("SELECT new com.safechain.safechain.dto.ShareInfoResponse(" +
+            "w.id, w.email, w.fullName, b.email, fs.sharedDate) " +
+            "FROM FileShare fs JOIN fs.sharedWithUser w JOIN fs.sharedByUser b " +
+            "WHERE fs.file.id = :fileId ORDER BY fs.id")
+    List<ShareInfoResponse> findShareInfoByFileId(@Param("fileId") Long fileId);
+
+    /**
+     * Find which of the given (file, recipient) combinations are already shared
+     *
+     * @param fileIds the file IDs
+     * @param userIds the recipient user IDs
+     * @return List<Object[]> - {fileId, userId} for every existing share among them
+     */
+    @Query("SELECT fs.file.id, fs.sharedWithUser.id FROM FileShare fs " +
+            "WHERE fs.file.id IN :fileIds AND fs.sharedWithUser.id IN :userIds")
+    List<Object[]> findSharedPairs(@Param("fileIds") Collection<Long> fileIds,
+                                   @Param("userIds") Collection<Long> userIds);
+
+    /**
+     * Delete every share of the given files with the given recipients in one statement
+     *
+     * @param fileIds the file IDs
+     * @param userIds the recipient user IDs
+     * @return int - number of shares removed
+     */
+    @Modifying
+    @Query("DELETE FROM FileShare fs WHERE fs.file.id IN :fileIds AND fs.sharedWithUser.id IN :userIds")
+    int deleteSharedPairs(@Param("fileIds") Collection<Long> fileIds,
+                          @Param("userIds") Collection<Long> userIds);
+
+    /**
+     * Delete every share a user received or made
+     * @param userId the user ID
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileShare fs WHERE fs.sharedWithUser.id = :userId OR fs.sharedByUser.id = :userId")
+    void deleteByUserId(@Param("userId") Long userId);
+
     /**
      * Delete all shares for a file
      */
+    @Transactional
     void deleteByFile(File file);
 
     /**
@@ -0,0 +1,78 @@
+package com.safechain.safechain.repository;
+
+import com.safechain.safechain.dto.GroupMemberResponse;
+import com.safechain.safechain.entity.GroupMember;
+import com.safechain.safechain.entity.UserGroup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface GroupMemberRepository extends JpaRepository<GroupMember, Long> {
+
+    /**
+     * IDs of every group a user belongs to
+     * @param userId the user ID
+     * @return List<Long> - group IDs
+     */
+    @Query("SELECT m.group.id FROM GroupMember m WHERE m.user.id = :userId")
+    List<Long> findGroupIdsByUserId(@Param("userId") Long userId);
+
+    /**
+     * IDs of every member of a group
+     * @param groupId the group ID
+     * @return List<Long> - user IDs
+     */
+    @Query("SELECT m.user.id FROM GroupMember m WHERE m.group.id = :groupId")
+    List<Long> findUserIdsByGroupId(@Param("groupId") Long groupId);
+
+    /**
+     * IDs of every member of the groups a user owns
+     * @param ownerId the owner's ID
+     * @return List<Long> - user IDs, possibly repeated
+     */
+    @Query("SELECT m.user.id FROM GroupMember m WHERE m.group.owner.id = :ownerId")
+    List<Long> findUserIdsInGroupsOwnedBy(@Param("ownerId") Long ownerId);
+
+    /**
+     * Find one membership
+     * @param groupId the group ID
+     * @param userId  the user ID
+     * @return Optional<GroupMember> - the membership if the user is in the group
+     */
+    @Query("SELECT m FROM GroupMember m WHERE m.group.id = :groupId AND m.user.id = :userId")
+    Optional<GroupMember> findMembership(@Param("groupId") Long groupId, @Param("userId") Long userId);
+
+    /**
+     * List a group's members, projected straight into the response DTO
+     * @param groupId the group ID
+     * @return List<GroupMemberResponse> - members in the order they joined
+     */
+    @Query("SELECT new com.safechain.safechain.dto.GroupMemberResponse(u.id, u.email, u.fullName, m.addedAt) " +
+           "FROM GroupMember m JOIN m.user u WHERE m.group.id = :groupId ORDER BY m.id")
+    List<GroupMemberResponse> findMemberInfoByGroupId(@Param("groupId") Long groupId);
+
+    /**
+     * Remove a user from every group, and empty the groups they own
+     * @param userId the user ID
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM GroupMember m WHERE m.user.id = :userId " +
+           "OR m.group.id IN (SELECT g.id FROM UserGroup g WHERE g.owner.id = :userId)")
+    void deleteByUserOrGroupOwner(@Param("userId") Long userId);
+
+    /**
+     * Remove every membership of a group
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM GroupMember m WHERE m.group = :group")
+    void deleteByGroup(@Param("group") UserGroup group);
+}
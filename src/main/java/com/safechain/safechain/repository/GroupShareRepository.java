@@ -0,0 +1,54 @@
+package com.safechain.safechain.repository;
+
+import com.safechain.safechain.entity.GroupShare;
+import com.safechain.safechain.entity.UserGroup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Optional;
+
+@Repository
+public interface GroupShareRepository extends JpaRepository<GroupShare, Long> {
+
+    /**
+     * Find the share of a file with a group
+     * @param fileId  the file ID
+     * @param groupId the group ID
+     * @return Optional<GroupShare> - the share if it exists
+     */
+    @Query("SELECT gs FROM GroupShare gs WHERE gs.file.id = :fileId AND gs.group.id = :groupId")
+    Optional<GroupShare> findShare(@Param("fileId") Long fileId, @Param("groupId") Long groupId);
+
+    /**
+     * Check if a file is shared with any of the given groups
+     * @param fileId   the file ID
+     * @param groupIds the groups to check, typically a user's memberships
+     * @return boolean - true if at least one of the groups has the file
+     */
+    @Query("SELECT CASE WHEN COUNT(gs) > 0 THEN true ELSE false END " +
+           "FROM GroupShare gs WHERE gs.file.id = :fileId AND gs.group.id IN :groupIds")
+    boolean isSharedWithAnyGroup(@Param("fileId") Long fileId, @Param("groupIds") Collection<Long> groupIds);
+
+    /**
+     * Delete every group share a user made or that targets a group they own
+     * @param userId the user ID
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM GroupShare gs WHERE gs.sharedByUser.id = :userId " +
+           "OR gs.group.id IN (SELECT g.id FROM UserGroup g WHERE g.owner.id = :userId)")
+    void deleteBySharerOrGroupOwner(@Param("userId") Long userId);
+
+    /**
+     * Delete all shares with a group
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM GroupShare gs WHERE gs.group = :group")
+    void deleteByGroup(@Param("group") UserGroup group);
+}
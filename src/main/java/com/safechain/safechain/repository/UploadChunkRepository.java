@@ -0,0 +1,50 @@
+package com.safechain.safechain.repository;
+
+import com.safechain.safechain.entity.UploadChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface UploadChunkRepository extends JpaRepository<UploadChunk, Long> {
+
+    /**
+     * Record that a chunk has been written; re-sending the same chunk is a no-op
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO upload_chunks (session_id, chunk_index, size) " +
+            "VALUES (:sessionId, :chunkIndex, :size) " +
+            "ON CONFLICT (session_id, chunk_index) DO NOTHING",
+            nativeQuery = true)
+    void markReceived(@Param("sessionId") String sessionId,
+                      @Param("chunkIndex") int chunkIndex,
+                      @Param("size") long size);
+
+    /**
+     * List the indexes of chunks received so far for a session
+     * @param sessionId the upload session ID
+     * @return List<Integer> - received chunk indexes in ascending order
+     */
+    @Query("SELECT c.chunkIndex FROM UploadChunk c WHERE c.session.id = :sessionId ORDER BY c.chunkIndex")
+    List<Integer> findReceivedIndexes(@Param("sessionId") String sessionId);
+
+    /**
+     * Count chunks received so far for a session
+     */
+    @Query("SELECT COUNT(c) FROM UploadChunk c WHERE c.session.id = :sessionId")
+    long countReceived(@Param("sessionId") String sessionId);
+
+    /**
+     * Delete all chunk records for a session
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UploadChunk c WHERE c.session.id = :sessionId")
+    void deleteBySessionId(@Param("sessionId") String sessionId);
+}
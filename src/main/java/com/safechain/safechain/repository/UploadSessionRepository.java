@@ -0,0 +1,29 @@
+package com.safechain.safechain.repository;
+
+import com.safechain.safechain.entity.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    /**
+     * Find sessions that were opened before a cutoff
+     * @param cutoff sessions created before this instant are returned
+     * @return List<UploadSession> - stale sessions
+     */
+    List<UploadSession> findByCreatedAtBefore(LocalDateTime cutoff);
+
+    /**
+     * Find every session a user has open
+     * @param userId the user ID
+     * @return List<UploadSession> - the user's sessions
+     */
+    @Query("SELECT s FROM UploadSession s WHERE s.user.id = :userId")
+    List<UploadSession> findByUserId(@Param("userId") Long userId);
+}
@@ -0,0 +1,42 @@
+package com.safechain.safechain.repository;
+
+import com.safechain.safechain.dto.GroupResponse;
+import com.safechain.safechain.entity.UserGroup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface UserGroupRepository extends JpaRepository<UserGroup, Long> {
+
+    /**
+     * Check if a group name is taken
+     * @param name the group name
+     * @return boolean - true if a group with this name exists
+     */
+    boolean existsByName(String name);
+
+    /**
+     * Groups a user belongs to, projected straight into the response DTO
+     * @param userId the member's ID
+     * @return List<GroupResponse> - groups ordered by name
+     */
+    @Query("SELECT new com.safechain.safechain.dto.GroupResponse(g.id, g.name, o.email, g.createdAt) " +
+           "FROM GroupMember m JOIN m.group g JOIN g.owner o " +
+           "WHERE m.user.id = :userId ORDER BY g.name")
+    List<GroupResponse> findGroupsOfUser(@Param("userId") Long userId);
+
+    /**
+     * Delete every group a user owns; their memberships and shares must be gone already
+     * @param ownerId the owner's ID
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UserGroup g WHERE g.owner.id = :ownerId")
+    void deleteByOwnerId(@Param("ownerId") Long ownerId);
+}
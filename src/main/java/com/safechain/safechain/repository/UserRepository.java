@@ -1,9 +1,12 @@
 package com.safechain.safechain.repository;
 
 import com.safechain.safechain.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -15,6 +18,13 @@ public interface UserRepository extends JpaRepository<User, Long> {
      * @return Optional<User> - user if found, empty if not
      */
     Optional<User> findByEmail(String email);
+
+    /**
+     * Find all users with any of the given emails in one query
+     * @param emails the emails to look up
+     * @return List<User> - users found; unknown emails are simply absent
+     */
+    List<User> findByEmailIn(Collection<String> emails);
     
     /**
      * Check if user exists by email
@@ -22,4 +32,12 @@ public interface UserRepository extends JpaRepository<User, Long> {
      * @return boolean - true if exists, false otherwise
      */
     boolean existsByEmail(String email);
+    
+    /**
+     * Keyset page of users, newest first
+     * @param cursor   only users with an ID below this are returned
+     * @param pageable page size (page number is always 0)
+     * @return List<User> - users in descending ID order
+     */
+    List<User> findByIdLessThanOrderByIdDesc(Long cursor, Pageable pageable);
 }
@@ -0,0 +1,124 @@
+package com.safechain.safechain.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.safechain.safechain.dto.CacheStatsResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded, expiring cache of file access decisions keyed by (fileId, userId),
+ * so repeated downloads skip the share lookup. Entries are invalidated
+ * explicitly whenever shares, files or users change; the TTL only bounds
+ * staleness for changes made outside this application.
+ * <p>
+ * Forgetting everything about a file or a user does not scan the cache.
+ * Files and users hash onto a fixed set of generation counters, every key
+ * carries the generations it was computed under, and invalidation bumps a
+ * counter: older keys can no longer be looked up and age out with the TTL
+ * and size bound. Ids sharing a counter lose their entries together, which
+ * costs a reload and never a stale answer. Other caches can tie their
+ * entries to the same counters through {@link #fileGeneration}.
+ */
+@Component
+public class FileAccessCache {
+
+    private static final int GENERATION_STRIPES = 4096;
+
+    private final Cache<Key, Boolean> decisions;
+    private final AtomicLongArray fileGenerations = new AtomicLongArray(GENERATION_STRIPES);
+    private final AtomicLongArray userGenerations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public FileAccessCache(@Value("${file.access-cache.max-size}") long maxSize,
+                           @Value("${file.access-cache.ttl}") Duration ttl) {
+        this.decisions = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Check whether a user may read a file, computing the decision on a miss
+     *
+     * @param fileId the file ID
+     * @param userId the user ID
+     * @param loader computes the decision when it is not cached
+     * @return boolean - true if the user has access
+     */
+    public boolean isAllowed(Long fileId, Long userId, BooleanSupplier loader) {
+        // Generations are read before the decision is computed, so one invalidated meanwhile is never found again
+        return decisions.get(keyOf(fileId, userId), key -> loader.getAsBoolean());
+    }
+
+    /**
+     * @param fileId the file ID
+     * @return long - changes whenever the file's entries are invalidated
+     */
+    public long fileGeneration(Long fileId) {
+        return fileGenerations.get(stripe(fileId));
+    }
+
+    /**
+     * Forget the decision for one user on one file
+     */
+    public void invalidate(Long fileId, Long userId) {
+        decisions.invalidate(keyOf(fileId, userId));
+    }
+
+    /**
+     * Forget all decisions for a file
+     */
+    public void invalidateFile(Long fileId) {
+        fileGenerations.incrementAndGet(stripe(fileId));
+    }
+
+    /**
+     * Forget all decisions for several files
+     */
+    public void invalidateFiles(Collection<Long> fileIds) {
+        for (Long fileId : fileIds) {
+            invalidateFile(fileId);
+        }
+    }
+
+    /**
+     * Forget all decisions for a user
+     */
+    public void invalidateUser(Long userId) {
+        userGenerations.incrementAndGet(stripe(userId));
+    }
+
+    /**
+     * Forget all decisions for several users
+     */
+    public void invalidateUsers(Collection<Long> userIds) {
+        for (Long userId : userIds) {
+            invalidateUser(userId);
+        }
+    }
+
+    /**
+     * @return CacheStatsResponse - hit/miss counters for this cache
+     */
+    public CacheStatsResponse stats() {
+        return CacheStatsResponse.of("file-access", decisions.stats(), decisions.estimatedSize());
+    }
+
+    private Key keyOf(Long fileId, Long userId) {
+        return new Key(fileId, userId, fileGeneration(fileId), userGenerations.get(stripe(userId)));
+    }
+
+    private static int stripe(Long id) {
+        // Ids are sequential, so their low bits spread them evenly
+        return Long.hashCode(id) & (GENERATION_STRIPES - 1);
+    }
+
+    private record Key(Long fileId, Long userId, long fileGeneration, long userGeneration) {
+    }
+}
@@ -0,0 +1,55 @@
+package com.safechain.safechain.security;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.safechain.safechain.dto.CacheStatsResponse;
+import com.safechain.safechain.repository.GroupMemberRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Bounded, expiring cache of the groups each user belongs to, so access
+ * checks can test group shares without reloading memberships. Entries are
+ * invalidated explicitly whenever a membership changes; the TTL only bounds
+ * staleness for changes made outside this application.
+ */
+@Component
+public class GroupMembershipCache {
+
+    private final LoadingCache<Long, Set<Long>> memberships;
+
+    public GroupMembershipCache(GroupMemberRepository groupMemberRepository,
+                                @Value("${group.membership-cache.max-size}") long maxSize,
+                                @Value("${group.membership-cache.ttl}") Duration ttl) {
+        this.memberships = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build(userId -> Set.copyOf(groupMemberRepository.findGroupIdsByUserId(userId)));
+    }
+
+    /**
+     * @param userId the user ID
+     * @return Set<Long> - IDs of the groups the user is a member of
+     */
+    public Set<Long> groupsOf(Long userId) {
+        return memberships.get(userId);
+    }
+
+    /**
+     * Forget a user's memberships
+     */
+    public void invalidate(Long userId) {
+        memberships.invalidate(userId);
+    }
+
+    /**
+     * @return CacheStatsResponse - hit/miss counters for this cache
+     */
+    public CacheStatsResponse stats() {
+        return CacheStatsResponse.of("group-membership", memberships.stats(), memberships.estimatedSize());
+    }
+}
@@ -0,0 +1,121 @@
+package com.safechain.safechain.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.safechain.safechain.dto.CacheStatsResponse;
+import com.safechain.safechain.service.CustomUserDetailsService;
+import com.safechain.safechain.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Caches what the JWT filter needs on every request: tokens whose signature
+ * has already been verified (until they expire) and the user details behind
+ * them, so an authenticated request costs a map lookup instead of a token
+ * parse plus a users-table SELECT.
+ */
+@Component
+public class PrincipalCache {
+
+    private final JwtUtil jwtUtil;
+    private final CustomUserDetailsService userDetailsService;
+    private final Cache<String, VerifiedToken> tokens;
+    private final Cache<String, UserDetails> users;
+
+    public PrincipalCache(JwtUtil jwtUtil,
+                          CustomUserDetailsService userDetailsService,
+                          @Value("${jwt.cache.max-size}") long maxSize,
+                          @Value("${jwt.cache.user-ttl}") Duration userTtl) {
+        this.jwtUtil = jwtUtil;
+        this.userDetailsService = userDetailsService;
+        this.tokens = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(Expiry.creating((String key, VerifiedToken token) ->
+                        Duration.between(Instant.now(), token.expiresAt())))
+                .recordStats()
+                .build();
+        this.users = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(userTtl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get the subject of a token, verifying it only if it has not been seen before
+     *
+     * @param token the raw JWT
+     * @return String - the username, or null if the token is invalid or expired
+     */
+    public String verifiedUsername(String token) {
+        String key = fingerprint(token);
+        VerifiedToken cached = tokens.getIfPresent(key);
+        if (cached != null && cached.expiresAt().isAfter(Instant.now())) {
+            return cached.username();
+        }
+
+        // A single parse checks the signature and expiry and yields both claims we keep
+        Claims claims = jwtUtil.parseVerified(token).orElse(null);
+        if (claims == null) {
+            return null;
+        }
+        if (claims.getExpiration() == null) {
+            return claims.getSubject();
+        }
+        VerifiedToken verified = new VerifiedToken(claims.getSubject(), claims.getExpiration().toInstant());
+        tokens.put(key, verified);
+        return verified.username();
+    }
+
+    /**
+     * Load user details, from the cache when possible
+     *
+     * @param username the user's email
+     * @return UserDetails - the user
+     */
+    public UserDetails loadUser(String username) {
+        return users.get(username, userDetailsService::loadUserByUsername);
+    }
+
+    /**
+     * Drop a cached user, e.g. after deletion or a role change
+     *
+     * @param username the user's email
+     */
+    public void evictUser(String username) {
+        users.invalidate(username);
+    }
+
+    /**
+     * @return List<CacheStatsResponse> - hit/miss counters for the token and user caches
+     */
+    public List<CacheStatsResponse> stats() {
+        return List.of(
+                CacheStatsResponse.of("jwt-token", tokens.stats(), tokens.estimatedSize()),
+                CacheStatsResponse.of("user-details", users.stats(), users.estimatedSize()));
+    }
+
+    // Key on a digest so the cache never holds usable bearer tokens
+    private static String fingerprint(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record VerifiedToken(String username, Instant expiresAt) {
+    }
+}
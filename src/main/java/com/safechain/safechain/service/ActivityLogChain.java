@@ -0,0 +1,517 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.dto.AuditVerificationReport;
+import com.safechain.safechain.util.MerkleRoot;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Makes {@code activity_logs} tamper-evident.
+ * <p>
+ * Every row carries {@code row_hash}, a SHA-256 over its content and the
+ * hash of the row before it in its chain. There is one chain per day and
+ * shard, and each writing thread sticks to one shard, so writers only
+ * contend on a chain head when they share a shard, and a day's chains live
+ * in one monthly partition and go with it under retention. The head of each
+ * chain (last sequence number and hash) is a row in
+ * {@code activity_log_chains}, locked and advanced in the transaction that
+ * inserts the rows.
+ * <p>
+ * A periodic checkpoint seals what each chain gained since its last one:
+ * the Merkle root of those row hashes, the last hash, and a hash linking it
+ * to the previous checkpoint, authenticated with an HMAC keyed from the
+ * master key so that rewriting history needs more than database access.
+ * With a master key configured, a checkpoint without a MAC fails
+ * verification; without one, checkpoints are unsigned and only the hashes
+ * protect them, which is logged and reported.
+ * Verification recomputes only checkpoints not yet verified, plus the rows
+ * written since the last checkpoint, or everything recorded on one day.
+ * Rows written before chaining existed have no chain and are not covered.
+ */
+@Slf4j
+@Service
+public class ActivityLogChain implements SmartLifecycle {
+
+    private static final byte[] GENESIS = new byte[32];
+    private static final int MAX_REPORTED_FAILURES = 100;
+
+    private static final String ROWS_SQL = "SELECT chain_seq, event_type, user_id, file_id, details, created_at, "
+            + "row_hash FROM activity_logs WHERE chain_day = ? AND chain_shard = ? AND chain_seq > ? AND chain_seq <= ? "
+            + "AND created_at >= ? AND created_at < ? ORDER BY chain_seq";
+
+    // Chains with rows past their last checkpoint, with that checkpoint
+    private static final String OPEN_CHAINS_SQL = "SELECT h.chain_day, h.shard, h.seq, h.hash, "
+            + "COALESCE(c.to_seq, 0) AS checkpointed, c.last_row_hash, c.checkpoint_hash FROM activity_log_chains h "
+            + "LEFT JOIN LATERAL (SELECT to_seq, last_row_hash, checkpoint_hash FROM activity_log_checkpoints "
+            + "WHERE chain_day = h.chain_day AND shard = h.shard ORDER BY to_seq DESC LIMIT 1) c ON true "
+            + "WHERE h.seq > COALESCE(c.to_seq, 0)";
+
+    private static final String CHECKPOINT_COLUMNS = "chain_day, shard, from_seq, to_seq, last_row_hash, "
+            + "merkle_root, checkpoint_hash, key_id, mac";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MasterKeyService masterKeyService;
+    private final int shards;
+
+    private volatile boolean running;
+    private volatile boolean warnedUnsigned;
+
+    public ActivityLogChain(JdbcTemplate jdbcTemplate,
+                            DataSource dataSource,
+                            PlatformTransactionManager transactionManager,
+                            MasterKeyService masterKeyService,
+                            @Value("${activity-log.chain.shards}") int shards) {
+        this.jdbcTemplate = jdbcTemplate;
+        // Long chains are read through a cursor rather than materialized
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate.setFetchSize(1000);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.masterKeyService = masterKeyService;
+        this.shards = shards;
+    }
+
+    /**
+     * Place events in their chains and advance the chain heads. Must run in
+     * the transaction that inserts the returned rows
+     *
+     * @param events the events about to be inserted
+     * @return List<Link> - the events with their chain positions and hashes
+     */
+    public List<Link> link(List<ActivityLogWriter.Event> events) {
+        short shard = (short) Math.floorMod(Thread.currentThread().getId(), shards);
+
+        // Heads are locked in day order, so two writers on one shard cannot deadlock
+        Map<LocalDate, List<ActivityLogWriter.Event>> byDay = new TreeMap<>();
+        for (ActivityLogWriter.Event event : events) {
+            byDay.computeIfAbsent(event.createdAt().toLocalDate(), day -> new ArrayList<>()).add(event);
+        }
+
+        List<Link> links = new ArrayList<>(events.size());
+        for (Map.Entry<LocalDate, List<ActivityLogWriter.Event>> entry : byDay.entrySet()) {
+            LocalDate day = entry.getKey();
+            Head head = jdbcTemplate.queryForObject("INSERT INTO activity_log_chains (chain_day, shard, seq, hash) "
+                            + "VALUES (?, ?, 0, ?) ON CONFLICT (chain_day, shard) "
+                            + "DO UPDATE SET seq = activity_log_chains.seq RETURNING seq, hash",
+                    (rs, rowNum) -> new Head(rs.getLong("seq"), rs.getBytes("hash")),
+                    Date.valueOf(day), shard, GENESIS);
+
+            long seq = head.seq();
+            byte[] hash = head.hash();
+            for (ActivityLogWriter.Event event : entry.getValue()) {
+                seq++;
+                hash = rowHash(hash, day, shard, seq, event.eventType().name(), event.userId(), event.fileId(),
+                        event.details(), event.createdAt());
+                links.add(new Link(event, day, shard, seq, hash));
+            }
+            jdbcTemplate.update("UPDATE activity_log_chains SET seq = ?, hash = ? WHERE chain_day = ? AND shard = ?",
+                    seq, hash, Date.valueOf(day), shard);
+        }
+        return links;
+    }
+
+    /**
+     * Seal every chain that grew since its last checkpoint. One instance at a time
+     */
+    @Scheduled(fixedDelayString = "${activity-log.checkpoint.interval}")
+    public void checkpoint() {
+        if (!running) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            Boolean locked = jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(hashtext('activity_log_checkpoint'))",
+                    Boolean.class);
+            if (!Boolean.TRUE.equals(locked)) {
+                return;
+            }
+            List<OpenChain> chains = jdbcTemplate.query(OPEN_CHAINS_SQL, ActivityLogChain::openChain);
+            for (OpenChain chain : chains) {
+                // Rows up to the head committed with it, so the range is complete
+                Range range = walk(chain.day(), chain.shard(), chain.checkpointed(), chain.headSeq(), chain.lastRowHash());
+                if (range.failure() != null) {
+                    log.error("Not checkpointing activity log chain {}/{}: {}", chain.day(), chain.shard(), range.failure());
+                    continue;
+                }
+                insertCheckpoint(chain, range);
+            }
+        });
+    }
+
+    /**
+     * Verify chains against their checkpoints. Without a day, only what has
+     * not been verified yet: checkpoints added since the last run and rows
+     * past the last checkpoint. With a day, everything recorded on it
+     *
+     * @param day the day to verify in full, or null to verify incrementally
+     * @return AuditVerificationReport - what was checked and what failed
+     */
+    public AuditVerificationReport verify(LocalDate day) {
+        long started = System.nanoTime();
+        AuditVerificationReport report = new AuditVerificationReport(day, true, 0, 0, 0, new ArrayList<>(), 0);
+
+        List<Checkpoint> checkpoints = jdbcTemplate.query("SELECT id, " + CHECKPOINT_COLUMNS
+                        + " FROM activity_log_checkpoints WHERE " + (day == null ? "verified_at IS NULL" : "chain_day = ?")
+                        + " ORDER BY chain_day, shard, to_seq",
+                ActivityLogChain::checkpointRow, day == null ? new Object[0] : new Object[]{Date.valueOf(day)});
+        List<Long> verified = new ArrayList<>();
+        for (Checkpoint checkpoint : checkpoints) {
+            String failure = verifyCheckpoint(checkpoint, report);
+            if (failure == null) {
+                verified.add(checkpoint.id());
+            } else {
+                fail(report, checkpoint.day() + "/" + checkpoint.shard() + " seq " + checkpoint.fromSeq() + "-"
+                        + checkpoint.toSeq() + ": " + failure);
+            }
+        }
+        if (!verified.isEmpty()) {
+            jdbcTemplate.update("UPDATE activity_log_checkpoints SET verified_at = now() WHERE id = ANY(?)",
+                    (Object) verified.toArray(Long[]::new));
+        }
+
+        // Rows not sealed by a checkpoint yet can still be checked against each other and the head
+        String openChains = day == null ? OPEN_CHAINS_SQL : OPEN_CHAINS_SQL + " AND h.chain_day = ?";
+        for (OpenChain chain : jdbcTemplate.query(openChains, ActivityLogChain::openChain,
+                day == null ? new Object[0] : new Object[]{Date.valueOf(day)})) {
+            Range range = walk(chain.day(), chain.shard(), chain.checkpointed(), chain.headSeq(), chain.lastRowHash());
+            report.setRecordsVerified(report.getRecordsVerified() + range.rows());
+            String failure = range.failure();
+            if (failure == null && !Arrays.equals(range.lastHash(), chain.headHash())) {
+                failure = "last row does not match the chain head";
+            }
+            if (failure != null) {
+                fail(report, chain.day() + "/" + chain.shard() + " after seq " + chain.checkpointed() + ": " + failure);
+            }
+        }
+
+        report.setDurationMillis((System.nanoTime() - started) / 1_000_000);
+        return report;
+    }
+
+    /**
+     * Forget chain heads and checkpoints for days whose rows retention has dropped
+     *
+     * @param cutoff first day still kept
+     */
+    public void forgetBefore(LocalDate cutoff) {
+        jdbcTemplate.update("DELETE FROM activity_log_checkpoints WHERE chain_day < ?", Date.valueOf(cutoff));
+        jdbcTemplate.update("DELETE FROM activity_log_chains WHERE chain_day < ?", Date.valueOf(cutoff));
+    }
+
+    private String verifyCheckpoint(Checkpoint checkpoint, AuditVerificationReport report) {
+        byte[] previousRowHash = GENESIS;
+        byte[] previousCheckpointHash = GENESIS;
+        if (checkpoint.fromSeq() > 1) {
+            List<Checkpoint> previous = jdbcTemplate.query("SELECT id, " + CHECKPOINT_COLUMNS
+                            + " FROM activity_log_checkpoints WHERE chain_day = ? AND shard = ? AND to_seq = ?",
+                    ActivityLogChain::checkpointRow,
+                    Date.valueOf(checkpoint.day()), checkpoint.shard(), checkpoint.fromSeq() - 1);
+            if (previous.isEmpty()) {
+                return "previous checkpoint is missing";
+            }
+            previousRowHash = previous.get(0).lastRowHash();
+            previousCheckpointHash = previous.get(0).checkpointHash();
+        }
+
+        Range range = walk(checkpoint.day(), checkpoint.shard(), checkpoint.fromSeq() - 1, checkpoint.toSeq(),
+                previousRowHash);
+        report.setRecordsVerified(report.getRecordsVerified() + range.rows());
+        String failure = check(checkpoint, previousCheckpointHash, range, masterKeyService);
+        if (failure != null) {
+            return failure;
+        }
+        report.setCheckpointsVerified(report.getCheckpointsVerified() + 1);
+        if (checkpoint.mac() == null) {
+            report.setUnsignedCheckpoints(report.getUnsignedCheckpoints() + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Check a checkpoint against the rows it seals and the checkpoint before it
+     *
+     * @param previousCheckpointHash hash of the previous checkpoint in the chain, or the genesis hash
+     * @param range                  the sealed rows, walked from the previous checkpoint's last row
+     * @return String - why the checkpoint fails, or null if it holds
+     */
+    static String check(Checkpoint checkpoint, byte[] previousCheckpointHash, Range range,
+                        MasterKeyService masterKeyService) {
+        if (range.failure() != null) {
+            return range.failure();
+        }
+        if (!Arrays.equals(range.lastHash(), checkpoint.lastRowHash())
+                || !Arrays.equals(range.merkleRoot(), checkpoint.merkleRoot())) {
+            return "rows do not match the checkpoint";
+        }
+        byte[] checkpointHash = checkpointHash(previousCheckpointHash, checkpoint.day(), checkpoint.shard(),
+                checkpoint.fromSeq(), checkpoint.toSeq(), checkpoint.lastRowHash(), checkpoint.merkleRoot());
+        if (!Arrays.equals(checkpointHash, checkpoint.checkpointHash())) {
+            return "checkpoint does not link to the previous one";
+        }
+        if (checkpoint.keyId() == null || checkpoint.mac() == null) {
+            // Otherwise stripping the MAC off a rewritten checkpoint would pass for one that never had it
+            return masterKeyService.getActiveKeyId() != null ? "checkpoint is not signed" : null;
+        }
+        try {
+            if (!MessageDigest.isEqual(masterKeyService.mac(checkpoint.keyId(), checkpointHash), checkpoint.mac())) {
+                return "checkpoint signature is invalid";
+            }
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    /**
+     * Recompute the hashes of a chain's rows in (after, to], starting from the hash of row {@code after}
+     */
+    private Range walk(LocalDate day, short shard, long after, long to, byte[] previousHash) {
+        RangeWalker walker = new RangeWalker(day, shard, after, previousHash);
+        transactionTemplate.executeWithoutResult(status -> streamingJdbcTemplate.query(ROWS_SQL,
+                rs -> {
+                    // A block, so the lambda is a RowCallbackHandler rather than a ResultSetExtractor
+                    walker.row(rs.getLong("chain_seq"), rs.getString("event_type"),
+                            rs.getObject("user_id", Long.class), rs.getObject("file_id", Long.class),
+                            rs.getString("details"), rs.getObject("created_at", LocalDateTime.class),
+                            rs.getBytes("row_hash"));
+                },
+                Date.valueOf(day), shard, after, to, day.atStartOfDay(), day.plusDays(1).atStartOfDay()));
+        return walker.range(to);
+    }
+
+    private void insertCheckpoint(OpenChain chain, Range range) {
+        byte[] previousCheckpointHash = chain.checkpointHash() != null ? chain.checkpointHash() : GENESIS;
+        byte[] checkpointHash = checkpointHash(previousCheckpointHash, chain.day(), chain.shard(),
+                chain.checkpointed() + 1, chain.headSeq(), range.lastHash(), range.merkleRoot());
+        String keyId = masterKeyService.getActiveKeyId();
+        if (keyId == null && !warnedUnsigned) {
+            warnedUnsigned = true;
+            log.warn("No master key is configured, so activity log checkpoints are not signed: "
+                    + "anyone able to write to the database can rewrite them along with the log");
+        }
+        byte[] mac;
+        try {
+            mac = keyId != null ? masterKeyService.mac(keyId, checkpointHash) : null;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        jdbcTemplate.update("INSERT INTO activity_log_checkpoints (" + CHECKPOINT_COLUMNS + ", created_at) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, now())",
+                Date.valueOf(chain.day()), chain.shard(), chain.checkpointed() + 1, chain.headSeq(),
+                range.lastHash(), range.merkleRoot(), checkpointHash, keyId, mac);
+    }
+
+    private static String missing(long from, long to) {
+        return from == to ? "row " + from + " is missing" : "rows " + from + "-" + to + " are missing";
+    }
+
+    private static void fail(AuditVerificationReport report, String failure) {
+        report.setValid(false);
+        if (report.getFailures().size() < MAX_REPORTED_FAILURES) {
+            report.getFailures().add(failure);
+        }
+    }
+
+    static byte[] rowHash(byte[] previousHash, LocalDate day, short shard, long seq, String eventType,
+                          Long userId, Long fileId, String details, LocalDateTime createdAt) {
+        MessageDigest digest = newDigest();
+        digest.update(previousHash);
+        digest.update(ByteBuffer.allocate(8 + 2 + 8 + 8 + 8 + 8 + 4)
+                .putLong(day.toEpochDay())
+                .putShort(shard)
+                .putLong(seq)
+                .putLong(userId != null ? userId : -1)
+                .putLong(fileId != null ? fileId : -1)
+                .putLong(createdAt.toEpochSecond(ZoneOffset.UTC))
+                .putInt(createdAt.getNano())
+                .array());
+        updateString(digest, eventType);
+        updateString(digest, details);
+        return digest.digest();
+    }
+
+    static byte[] checkpointHash(byte[] previousCheckpointHash, LocalDate day, short shard, long fromSeq,
+                                 long toSeq, byte[] lastRowHash, byte[] merkleRoot) {
+        MessageDigest digest = newDigest();
+        digest.update(previousCheckpointHash);
+        digest.update(ByteBuffer.allocate(8 + 2 + 8 + 8)
+                .putLong(day.toEpochDay()).putShort(shard).putLong(fromSeq).putLong(toSeq).array());
+        digest.update(lastRowHash);
+        digest.update(merkleRoot);
+        return digest.digest();
+    }
+
+    // Length-prefixed, so neighbouring fields cannot trade bytes
+    private static void updateString(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update(ByteBuffer.allocate(4).putInt(-1).array());
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static OpenChain openChain(ResultSet rs, int rowNum) throws SQLException {
+        byte[] lastRowHash = rs.getBytes("last_row_hash");
+        return new OpenChain(rs.getDate("chain_day").toLocalDate(), rs.getShort("shard"), rs.getLong("seq"),
+                rs.getBytes("hash"), rs.getLong("checkpointed"), lastRowHash != null ? lastRowHash : GENESIS,
+                rs.getBytes("checkpoint_hash"));
+    }
+
+    private static Checkpoint checkpointRow(ResultSet rs, int rowNum) throws SQLException {
+        return new Checkpoint(rs.getLong("id"), rs.getDate("chain_day").toLocalDate(), rs.getShort("shard"),
+                rs.getLong("from_seq"), rs.getLong("to_seq"), rs.getBytes("last_row_hash"),
+                rs.getBytes("merkle_root"), rs.getBytes("checkpoint_hash"), rs.getString("key_id"), rs.getBytes("mac"));
+    }
+
+    private void createSchema() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(hashtext('activity_log_chain'))", Object.class);
+            jdbcTemplate.execute("ALTER TABLE activity_logs ADD COLUMN IF NOT EXISTS chain_day date, "
+                    + "ADD COLUMN IF NOT EXISTS chain_shard smallint, ADD COLUMN IF NOT EXISTS chain_seq bigint, "
+                    + "ADD COLUMN IF NOT EXISTS row_hash bytea");
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS activity_log_chains (chain_day date NOT NULL, "
+                    + "shard smallint NOT NULL, seq bigint NOT NULL, hash bytea NOT NULL, PRIMARY KEY (chain_day, shard))");
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS activity_log_checkpoints (id bigserial PRIMARY KEY, "
+                    + "chain_day date NOT NULL, shard smallint NOT NULL, from_seq bigint NOT NULL, to_seq bigint NOT NULL, "
+                    + "last_row_hash bytea NOT NULL, merkle_root bytea NOT NULL, checkpoint_hash bytea NOT NULL, "
+                    + "key_id varchar(16), mac bytea, created_at timestamp NOT NULL, verified_at timestamp, "
+                    + "UNIQUE (chain_day, shard, to_seq))");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_activity_log_checkpoints_unverified "
+                    + "ON activity_log_checkpoints (chain_day, shard, to_seq) WHERE verified_at IS NULL");
+        });
+    }
+
+    @Override
+    public void start() {
+        createSchema();
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Before ActivityLogPartitionManager (phase -1), which indexes the chain columns, and the writer (phase 0)
+    @Override
+    public int getPhase() {
+        return -2;
+    }
+
+    /**
+     * An event placed in its chain
+     */
+    public record Link(ActivityLogWriter.Event event, LocalDate day, short shard, long seq, byte[] hash) {
+    }
+
+    private record Head(long seq, byte[] hash) {
+    }
+
+    private record OpenChain(LocalDate day, short shard, long headSeq, byte[] headHash, long checkpointed,
+                             byte[] lastRowHash, byte[] checkpointHash) {
+    }
+
+    record Checkpoint(long id, LocalDate day, short shard, long fromSeq, long toSeq, byte[] lastRowHash,
+                      byte[] merkleRoot, byte[] checkpointHash, String keyId, byte[] mac) {
+    }
+
+    record Range(long rows, byte[] lastHash, byte[] merkleRoot, String failure) {
+    }
+
+    /**
+     * Walks one chain's rows in sequence order, recomputing each hash from the
+     * one before and folding them into a Merkle root as it goes
+     */
+    static final class RangeWalker {
+
+        private final LocalDate day;
+        private final short shard;
+        private final MerkleRoot merkle = new MerkleRoot();
+        private long seq;
+        private byte[] hash;
+        private String failure;
+
+        private final long after;
+
+        RangeWalker(LocalDate day, short shard, long after, byte[] previousHash) {
+            this.day = day;
+            this.shard = shard;
+            this.after = after;
+            this.seq = after;
+            this.hash = previousHash;
+        }
+
+        /**
+         * Take the next row, as read in sequence order
+         */
+        void row(long rowSeq, String eventType, Long userId, Long fileId, String details, LocalDateTime createdAt,
+                 byte[] rowHash) {
+            if (failure != null) {
+                return;
+            }
+            if (rowSeq != seq + 1) {
+                failure = rowSeq <= seq ? "row " + rowSeq + " appears more than once" : missing(seq + 1, rowSeq - 1);
+                return;
+            }
+            byte[] expected = rowHash(hash, day, shard, rowSeq, eventType, userId, fileId, details, createdAt);
+            if (!Arrays.equals(expected, rowHash)) {
+                failure = "row " + rowSeq + " has been altered";
+                return;
+            }
+            seq = rowSeq;
+            hash = expected;
+            merkle.add(expected);
+        }
+
+        /**
+         * @param to the last row the walk should have reached
+         * @return Range - what was walked, failing if rows before {@code to} never came
+         */
+        Range range(long to) {
+            String result = failure;
+            if (result == null && seq != to) {
+                result = missing(seq + 1, to);
+            }
+            return new Range(seq - after, hash, merkle.root(), result);
+        }
+    }
+}
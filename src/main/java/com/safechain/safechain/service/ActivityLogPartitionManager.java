@@ -0,0 +1,234 @@
+package com.safechain.safechain.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps {@code activity_logs} range-partitioned by month on {@code created_at}.
+ * <p>
+ * On first start a plain table (as created by Hibernate) is converted in
+ * place: the existing table is renamed, a partitioned parent takes its name,
+ * and the old table is attached as one partition covering everything up to
+ * the end of the current month, so no rows are copied. After that, partitions
+ * are created a few months ahead and, when a retention is configured, whole
+ * partitions older than it are dropped instead of deleting rows. Maintenance
+ * runs at startup, before the activity-log writer starts, and then daily.
+ * The table's indexes are created here too, partitioned or not, because
+ * Hibernate's schema update cannot see them on a partitioned table. The
+ * table has no foreign keys: audit rows outlive the users and files they
+ * mention.
+ */
+@Slf4j
+@Service
+public class ActivityLogPartitionManager implements SmartLifecycle {
+
+    private static final String TABLE = "activity_logs";
+    private static final String LEGACY_TABLE = "activity_logs_legacy";
+    private static final String SEQUENCE = "activity_logs_id_seq";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ActivityLogChain activityLogChain;
+    private final boolean enabled;
+    private final int premakeMonths;
+    private final int retentionMonths;
+
+    private volatile boolean running;
+
+    public ActivityLogPartitionManager(JdbcTemplate jdbcTemplate,
+                                       PlatformTransactionManager transactionManager,
+                                       ActivityLogChain activityLogChain,
+                                       @Value("${activity-log.partitioning.enabled}") boolean enabled,
+                                       @Value("${activity-log.partitioning.premake-months}") int premakeMonths,
+                                       @Value("${activity-log.retention-months}") int retentionMonths) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.activityLogChain = activityLogChain;
+        this.enabled = enabled;
+        this.premakeMonths = premakeMonths;
+        this.retentionMonths = retentionMonths;
+    }
+
+    /**
+     * Convert the table if needed, create upcoming partitions and apply
+     * retention. Serialized across instances with an advisory lock.
+     */
+    @Scheduled(cron = "${activity-log.partitioning.maintenance-cron}")
+    public void maintain() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(hashtext(?))", Object.class, TABLE);
+            if (enabled) {
+                if (!isPartitioned()) {
+                    convertToPartitioned();
+                }
+                createUpcomingPartitions();
+                dropExpiredPartitions();
+            }
+            createIndexes();
+            dropForeignKeys();
+        });
+    }
+
+    private boolean isPartitioned() {
+        String kind = jdbcTemplate.queryForObject(
+                "SELECT c.relkind::text FROM pg_class c WHERE c.oid = to_regclass(?)", String.class, TABLE);
+        return "p".equals(kind);
+    }
+
+    private void convertToPartitioned() {
+        LocalDateTime legacyUpperBound = monthStart(LocalDate.now()).plusMonths(1);
+        Timestamp newest = jdbcTemplate.queryForObject("SELECT MAX(created_at) FROM " + TABLE, Timestamp.class);
+        if (newest != null && !newest.toLocalDateTime().isBefore(legacyUpperBound)) {
+            legacyUpperBound = monthStart(newest.toLocalDateTime().toLocalDate()).plusMonths(1);
+        }
+
+        jdbcTemplate.execute("LOCK TABLE " + TABLE + " IN ACCESS EXCLUSIVE MODE");
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME TO " + LEGACY_TABLE);
+        jdbcTemplate.execute("ALTER INDEX IF EXISTS idx_activity_logs_user_id RENAME TO activity_logs_legacy_user_id_idx");
+        jdbcTemplate.execute("ALTER INDEX IF EXISTS idx_activity_logs_created_at RENAME TO activity_logs_legacy_created_at_idx");
+        jdbcTemplate.execute("ALTER INDEX IF EXISTS idx_activity_logs_chain RENAME TO activity_logs_legacy_chain_idx");
+
+        // Partitions cannot own identity columns; ids come from a plain sequence on the parent instead
+        jdbcTemplate.execute("ALTER TABLE " + LEGACY_TABLE + " ALTER COLUMN id DROP IDENTITY IF EXISTS");
+        jdbcTemplate.execute("ALTER TABLE " + LEGACY_TABLE + " ALTER COLUMN id DROP DEFAULT");
+        jdbcTemplate.execute("DROP SEQUENCE IF EXISTS " + SEQUENCE);
+        // Unique constraints on a partitioned table must include the partition key
+        String legacyPrimaryKey = jdbcTemplate.queryForObject("SELECT conname FROM pg_constraint "
+                + "WHERE conrelid = to_regclass(?) AND contype = 'p'", String.class, LEGACY_TABLE);
+        jdbcTemplate.execute("ALTER TABLE " + LEGACY_TABLE + " DROP CONSTRAINT " + legacyPrimaryKey);
+        jdbcTemplate.execute("ALTER TABLE " + LEGACY_TABLE + " ADD PRIMARY KEY (id, created_at)");
+        jdbcTemplate.execute("CREATE SEQUENCE " + SEQUENCE);
+        jdbcTemplate.queryForObject("SELECT setval(?, COALESCE((SELECT MAX(id) FROM " + LEGACY_TABLE + "), 0) + 1, false)",
+                Long.class, SEQUENCE);
+
+        jdbcTemplate.execute("CREATE TABLE " + TABLE + " (LIKE " + LEGACY_TABLE + " INCLUDING CONSTRAINTS) "
+                + "PARTITION BY RANGE (created_at)");
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ALTER COLUMN id SET DEFAULT nextval('" + SEQUENCE + "')");
+        jdbcTemplate.execute("ALTER SEQUENCE " + SEQUENCE + " OWNED BY " + TABLE + ".id");
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD PRIMARY KEY (id, created_at)");
+        // Audit rows keep the IDs of users and files that have since been deleted
+        for (String foreignKey : jdbcTemplate.queryForList("SELECT conname FROM pg_constraint "
+                + "WHERE conrelid = to_regclass(?) AND contype = 'f'", String.class, LEGACY_TABLE)) {
+            jdbcTemplate.execute("ALTER TABLE " + LEGACY_TABLE + " DROP CONSTRAINT " + foreignKey);
+        }
+        createIndexes();
+
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + LEGACY_TABLE
+                + " FOR VALUES FROM (MINVALUE) TO ('" + legacyUpperBound.format(BOUND_FORMAT) + "')");
+        log.info("Converted {} to a partitioned table; existing rows kept in {} up to {}",
+                TABLE, LEGACY_TABLE, legacyUpperBound);
+    }
+
+    private void createIndexes() {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_activity_logs_user_id ON " + TABLE + " (user_id, id)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_activity_logs_created_at ON " + TABLE + " (created_at)");
+        // Walked by ActivityLogChain when checkpointing and verifying
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_activity_logs_chain ON " + TABLE
+                + " (chain_day, chain_shard, chain_seq)");
+    }
+
+    private void dropForeignKeys() {
+        for (String foreignKey : jdbcTemplate.queryForList("SELECT conname FROM pg_constraint "
+                + "WHERE conrelid = to_regclass(?) AND contype = 'f'", String.class, TABLE)) {
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP CONSTRAINT " + foreignKey);
+        }
+    }
+
+    private void createUpcomingPartitions() {
+        LocalDateTime start = monthStart(LocalDate.now());
+        for (Partition partition : partitions()) {
+            if (partition.upperBound().isAfter(start)) {
+                start = partition.upperBound();
+            }
+        }
+
+        LocalDateTime horizon = monthStart(LocalDate.now()).plusMonths(premakeMonths + 1L);
+        for (LocalDateTime from = start; from.isBefore(horizon); from = from.plusMonths(1)) {
+            LocalDateTime to = from.plusMonths(1);
+            String name = TABLE + "_p" + from.format(PARTITION_SUFFIX);
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + TABLE
+                    + " FOR VALUES FROM ('" + from.format(BOUND_FORMAT) + "') TO ('" + to.format(BOUND_FORMAT) + "')");
+        }
+    }
+
+    private void dropExpiredPartitions() {
+        if (retentionMonths <= 0) {
+            return;
+        }
+        LocalDateTime cutoff = monthStart(LocalDate.now()).minusMonths(retentionMonths);
+        LocalDateTime kept = null;
+        for (Partition partition : partitions()) {
+            if (!partition.upperBound().isAfter(cutoff)) {
+                jdbcTemplate.execute("DROP TABLE " + partition.name());
+                log.info("Dropped activity log partition {} (rows before {})", partition.name(), partition.upperBound());
+                kept = partition.upperBound();
+            }
+        }
+        if (kept != null) {
+            // Their rows are gone, so the chains they held can no longer be verified
+            activityLogChain.forgetBefore(kept.toLocalDate());
+        }
+    }
+
+    private List<Partition> partitions() {
+        List<Partition> partitions = new ArrayList<>();
+        jdbcTemplate.query("SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i "
+                        + "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass(?)",
+                rs -> {
+                    Matcher bound = UPPER_BOUND.matcher(rs.getString(2));
+                    if (bound.find()) {
+                        partitions.add(new Partition(rs.getString(1),
+                                LocalDateTime.parse(bound.group(1).replace(' ', 'T'))));
+                    }
+                }, TABLE);
+        partitions.sort((a, b) -> a.upperBound().compareTo(b.upperBound()));
+        return partitions;
+    }
+
+    private static LocalDateTime monthStart(LocalDate date) {
+        return date.withDayOfMonth(1).atStartOfDay();
+    }
+
+    @Override
+    public void start() {
+        maintain();
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Before ActivityLogWriter (phase 0), so the table is partitioned before any insert
+    @Override
+    public int getPhase() {
+        return -1;
+    }
+
+    private record Partition(String name, LocalDateTime upperBound) {
+    }
+}
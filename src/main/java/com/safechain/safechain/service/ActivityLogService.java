@@ -1,47 +1,189 @@
 package com.safechain.safechain.service;
 
 import com.safechain.safechain.dto.ActivityLogResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.safechain.safechain.dto.AuditVerificationReport;
+import com.safechain.safechain.dto.CursorPage;
 import com.safechain.safechain.entity.ActivityLog;
 import com.safechain.safechain.entity.User;
 import com.safechain.safechain.repository.ActivityLogRepository;
+import com.safechain.safechain.util.ConcurrencyLimitingDataSource;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class ActivityLogService {
 
+    // Stand-ins for a missing bound, only so the queries never bind a null timestamp, which Hibernate cannot
+    // type. They prune nothing: a query with either one reads every partition on that side
+    private static final LocalDateTime BEGINNING_OF_TIME = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime END_OF_TIME = LocalDateTime.of(9999, 12, 31, 0, 0);
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+    private static final String CSV_HEADER = "id,eventType,userId,userName,fileId,fileName,details,createdAt";
+
     private final ActivityLogRepository activityLogRepository;
     private final AuthService authService;
+    private final ObjectMapper objectMapper;
+    private final PlatformTransactionManager transactionManager;
+    private final ActivityLogChain activityLogChain;
+
+    @Value("${activity-log.listing.default-months}")
+    private int defaultListingMonths;
+
+    public enum ExportFormat {
+        NDJSON, CSV
+    }
+
+    public CursorPage<ActivityLogResponse> getAllLogs(Long cursor, Integer limit, LocalDateTime from,
+                                                      LocalDateTime to) {
+        requireAdmin();
+        int pageSize = CursorPage.clampLimit(limit);
+        List<ActivityLogResponse> logs = activityLogRepository.findPage(
+                CursorPage.upperBound(cursor), listingFrom(from), upperBound(to), PageRequest.of(0, pageSize + 1));
+        return CursorPage.of(logs, pageSize, ActivityLogResponse::getId);
+    }
+
+    public CursorPage<ActivityLogResponse> getMyLogs(Long cursor, Integer limit, LocalDateTime from,
+                                                     LocalDateTime to) {
+        User currentUser = authService.getCurrentUser();
+        int pageSize = CursorPage.clampLimit(limit);
+        List<ActivityLogResponse> logs = activityLogRepository.findPageByUser(currentUser.getId(),
+                CursorPage.upperBound(cursor), listingFrom(from), upperBound(to), PageRequest.of(0, pageSize + 1));
+        return CursorPage.of(logs, pageSize, ActivityLogResponse::getId);
+    }
+
+    /**
+     * Export activity logs matching the filters (admin only). The admin check
+     * runs now; rows are streamed later from a read-only transaction, one
+     * fetch-size window at a time, so memory does not grow with the export
+     *
+     * @param from      inclusive lower bound on createdAt, or null
+     * @param to        exclusive upper bound on createdAt, or null
+     * @param eventType event type to keep, or null for all
+     * @param userId    acting user to keep, or null for all
+     * @param format    NDJSON (one JSON object per line) or CSV
+     * @return StreamingResponseBody - writes the export to the response
+     */
+    public StreamingResponseBody exportLogs(LocalDateTime from, LocalDateTime to, ActivityLog.EventType eventType,
+                                            Long userId, ExportFormat format) {
+        requireAdmin();
+        return out -> {
+            TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+            transaction.setReadOnly(true);
+            // Runs on an async thread, outside the request filter that marks transfers
+            try (ConcurrencyLimitingDataSource.Scope scope = ConcurrencyLimitingDataSource.bulk()) {
+                transaction.executeWithoutResult(status -> {
+                    try (Stream<ActivityLogResponse> logs =
+                                 activityLogRepository.streamForExport(lowerBound(from), upperBound(to), eventType, userId)) {
+                        if (format == ExportFormat.CSV) {
+                            writeCsv(logs, out);
+                        } else {
+                            writeNdjson(logs, out);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    // Listings page on id alone, so without a lower bound every page would plan against every partition
+    private LocalDateTime listingFrom(LocalDateTime from) {
+        return from != null ? from : LocalDateTime.now().minusMonths(defaultListingMonths);
+    }
+
+    private static LocalDateTime lowerBound(LocalDateTime from) {
+        return from != null ? from : BEGINNING_OF_TIME;
+    }
+
+    private static LocalDateTime upperBound(LocalDateTime to) {
+        return to != null ? to : END_OF_TIME;
+    }
 
-    public List<ActivityLogResponse> getAllLogs() {
+    /**
+     * Verify the activity-log hash chains (admin only)
+     *
+     * @param day day to verify in full, or null for everything not verified yet
+     * @return AuditVerificationReport - what was checked and what failed
+     */
+    public AuditVerificationReport verifyLogs(LocalDate day) {
+        requireAdmin();
+        return activityLogChain.verify(day);
+    }
+
+    private void requireAdmin() {
         User currentUser = authService.getCurrentUser();
         if (currentUser.getRole() != User.Role.ADMIN) {
             throw new RuntimeException("Access denied. Admin role required.");
         }
-        return activityLogRepository.findAll().stream().map(this::toDto).collect(Collectors.toList());
     }
 
-    public List<ActivityLogResponse> getMyLogs() {
-        User currentUser = authService.getCurrentUser();
-        return activityLogRepository.findByUser(currentUser).stream().map(this::toDto).collect(Collectors.toList());
+    private void writeNdjson(Stream<ActivityLogResponse> logs, OutputStream target) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(ActivityLogResponse.class);
+        OutputStream out = new BufferedOutputStream(target, EXPORT_BUFFER_SIZE);
+        for (ActivityLogResponse log : (Iterable<ActivityLogResponse>) logs::iterator) {
+            out.write(writer.writeValueAsBytes(log));
+            out.write('\n');
+        }
+        out.flush();
     }
 
-    private ActivityLogResponse toDto(ActivityLog log) {
-        return new ActivityLogResponse(
-                log.getId(),
-                log.getEventType().name(),
-                log.getUser() != null ? log.getUser().getId() : null,
-                log.getUser() != null ? log.getUser().getFullName() : null,
-                log.getFile() != null ? log.getFile().getId() : null,
-                log.getFile() != null ? log.getFile().getFileName() : null,
-                log.getDetails(),
-                log.getCreatedAt()
-        );
+    private void writeCsv(Stream<ActivityLogResponse> logs, OutputStream target) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), EXPORT_BUFFER_SIZE);
+        out.write(CSV_HEADER);
+        out.write("\r\n");
+        for (ActivityLogResponse log : (Iterable<ActivityLogResponse>) logs::iterator) {
+            out.write(String.valueOf(log.getId()));
+            out.write(',');
+            out.write(log.getEventType());
+            out.write(',');
+            out.write(String.valueOf(log.getUserId()));
+            out.write(',');
+            out.write(csvField(log.getUserName()));
+            out.write(',');
+            out.write(log.getFileId() == null ? "" : String.valueOf(log.getFileId()));
+            out.write(',');
+            out.write(csvField(log.getFileName()));
+            out.write(',');
+            out.write(csvField(log.getDetails()));
+            out.write(',');
+            out.write(log.getCreatedAt() == null ? "" : log.getCreatedAt().toString());
+            out.write("\r\n");
+        }
+        out.flush();
     }
-}
-
 
+    // RFC 4180: quote fields containing separators, quotes or line breaks
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
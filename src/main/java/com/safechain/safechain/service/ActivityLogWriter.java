@@ -0,0 +1,279 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.entity.ActivityLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous audit pipeline. Request threads hand events to a bounded
+ * in-memory queue and return immediately; a background writer drains the
+ * queue and inserts rows in JDBC batches.
+ * <p>
+ * When the queue is full the configured overflow policy applies: BLOCK waits
+ * for space, CALLER_RUNS writes the event on the calling thread and DROP
+ * discards it. On graceful shutdown the writer stops after the web server,
+ * so everything queued by finished requests is flushed before the
+ * DataSource closes. Events still queued when the JVM dies abruptly are lost.
+ * <p>
+ * Every insert links its rows into the hash chains kept by
+ * {@link ActivityLogChain}, in the same transaction.
+ */
+@Slf4j
+@Service
+public class ActivityLogWriter implements SmartLifecycle {
+
+    public enum OverflowPolicy {
+        BLOCK, CALLER_RUNS, DROP
+    }
+
+    private static final String INSERT_SQL = "INSERT INTO activity_logs (event_type, user_id, file_id, details, "
+            + "created_at, chain_day, chain_shard, chain_seq, row_hash) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ActivityLogChain activityLogChain;
+    private final BlockingQueue<Event> queue;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration shutdownTimeout;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public ActivityLogWriter(JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             ActivityLogChain activityLogChain,
+                             @Value("${activity-log.queue-capacity}") int queueCapacity,
+                             @Value("${activity-log.batch-size}") int batchSize,
+                             @Value("${activity-log.flush-interval}") Duration flushInterval,
+                             @Value("${activity-log.shutdown-timeout}") Duration shutdownTimeout,
+                             @Value("${activity-log.overflow-policy}") OverflowPolicy overflowPolicy) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.activityLogChain = activityLogChain;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.shutdownTimeout = shutdownTimeout;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Record an audit event. Inside a transaction the event is queued only
+     * once the transaction commits, so rolled-back work leaves no trace.
+     *
+     * @param eventType what happened
+     * @param userId    the acting user
+     * @param fileId    the affected file, or null
+     * @param details   free-form description
+     */
+    public void record(ActivityLog.EventType eventType, Long userId, Long fileId, String details) {
+        Event event = Event.of(eventType, userId, fileId, details);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(event);
+                }
+            });
+        } else {
+            enqueue(event);
+        }
+    }
+
+    /**
+     * Write events immediately as JDBC batches on the caller's connection,
+     * bypassing the queue. Inside a transaction the rows commit or roll back
+     * with it, and a failure propagates to the caller. Meant for bulk
+     * operations whose thousands of events would otherwise swamp the queue.
+     *
+     * @param events the events to insert
+     */
+    public void writeNow(List<Event> events) {
+        if (!events.isEmpty()) {
+            insert(events);
+        }
+    }
+
+    /**
+     * @return long - number of events discarded by the DROP overflow policy
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void enqueue(Event event) {
+        if (running && queue.offer(event)) {
+            return;
+        }
+        if (!running) {
+            // Not started yet or already shut down: nothing will drain the queue
+            writeBatch(List.of(event));
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                try {
+                    queue.put(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    writeBatch(List.of(event));
+                }
+            }
+            case CALLER_RUNS -> writeBatch(List.of(event));
+            case DROP -> {
+                if (dropped.incrementAndGet() % 1000 == 1) {
+                    log.warn("Activity log queue full, dropped {} events so far", dropped.get());
+                }
+            }
+        }
+    }
+
+    private void drainLoop() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Event first = queue.poll(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                log.error("Activity log writer failed to flush {} events", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Event> batch) {
+        try {
+            insert(batch);
+        } catch (DataAccessException e) {
+            if (batch.size() == 1) {
+                writeSingle(batch.get(0));
+                return;
+            }
+            // One bad row fails the whole batch; retry one by one so the rest still land
+            for (Event event : batch) {
+                writeSingle(event);
+            }
+        }
+    }
+
+    private void insert(List<Event> events) {
+        // Joins the caller's transaction when there is one, so the chain heads move with its rows
+        transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.batchUpdate(INSERT_SQL, activityLogChain.link(events), batchSize, ActivityLogWriter::bind));
+    }
+
+    private static void bind(PreparedStatement ps, ActivityLogChain.Link link) throws SQLException {
+        Event event = link.event();
+        ps.setString(1, event.eventType().name());
+        ps.setLong(2, event.userId());
+        if (event.fileId() != null) {
+            ps.setLong(3, event.fileId());
+        } else {
+            ps.setNull(3, Types.BIGINT);
+        }
+        ps.setString(4, event.details());
+        // As a LocalDateTime, so the stored value is exactly the one hashed
+        ps.setObject(5, event.createdAt());
+        ps.setObject(6, link.day());
+        ps.setShort(7, link.shard());
+        ps.setLong(8, link.seq());
+        ps.setBytes(9, link.hash());
+    }
+
+    private void writeSingle(Event event) {
+        try {
+            insert(List.of(event));
+        } catch (DataIntegrityViolationException e) {
+            if (event.fileId() == null) {
+                log.error("Dropping activity log event {}: {}", event, e.getMessage());
+                return;
+            }
+            // The file was deleted before the event was flushed; keep the event without the link
+            writeSingle(new Event(event.eventType(), event.userId(), null, event.details(), event.createdAt()));
+        } catch (DataAccessException e) {
+            log.error("Dropping activity log event {}: {}", event, e.getMessage());
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        worker = new Thread(this::drainLoop, "activity-log-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            worker.join(shutdownTimeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Activity log writer stopped with {} events unflushed", queue.size());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Stop after the web server so requests still in flight can finish queuing events
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    /**
+     * One audit row waiting to be written
+     */
+    public record Event(ActivityLog.EventType eventType, Long userId, Long fileId,
+                        String details, LocalDateTime createdAt) {
+
+        /**
+         * @return Event - an event stamped with the current time
+         */
+        public static Event of(ActivityLog.EventType eventType, Long userId, Long fileId, String details) {
+            return new Event(eventType, userId, fileId, details, LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+        }
+    }
+}
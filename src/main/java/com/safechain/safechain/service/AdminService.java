@@ -1,11 +1,30 @@
 package com.safechain.safechain.service;
 
+import com.safechain.safechain.dto.CacheStatsResponse;
+import com.safechain.safechain.dto.CursorPage;
+import com.safechain.safechain.dto.StorageGcReport;
+import com.safechain.safechain.dto.StorageGcStatusResponse;
+import com.safechain.safechain.dto.StorageScrubStatusResponse;
+import com.safechain.safechain.dto.StorageUsageResponse;
 import com.safechain.safechain.dto.UserResponse;
 import com.safechain.safechain.entity.User;
+import com.safechain.safechain.repository.FileShareRepository;
+import com.safechain.safechain.repository.GroupMemberRepository;
+import com.safechain.safechain.repository.GroupShareRepository;
+import com.safechain.safechain.repository.UserGroupRepository;
 import com.safechain.safechain.repository.UserRepository;
+import com.safechain.safechain.security.FileAccessCache;
+import com.safechain.safechain.security.GroupMembershipCache;
+import com.safechain.safechain.security.PrincipalCache;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -14,13 +33,28 @@ import java.util.stream.Collectors;
 public class AdminService {
     
     private final UserRepository userRepository;
+    private final FileShareRepository fileShareRepository;
+    private final GroupShareRepository groupShareRepository;
+    private final GroupMemberRepository groupMemberRepository;
+    private final UserGroupRepository userGroupRepository;
+    private final UploadSessionService uploadSessionService;
+    private final StorageGarbageCollector storageGarbageCollector;
+    private final BlobIntegrityService blobIntegrityService;
+    private final QuotaService quotaService;
     private final AuthService authService;
+    private final FileAccessCache fileAccessCache;
+    private final GroupMembershipCache groupMembershipCache;
+    private final PrincipalCache principalCache;
+    private final FileDownloadCache fileDownloadCache;
+    private final JdbcTemplate jdbcTemplate;
     
     /**
-     * Get all users (admin only)
-     * @return List<UserResponse> - all users
+     * Get all users (admin only), one keyset page at a time
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit page size, clamped to {@link CursorPage#MAX_LIMIT}
+     * @return CursorPage<UserResponse> - users, newest first
      */
-    public List<UserResponse> getAllUsers() {
+    public CursorPage<UserResponse> getAllUsers(Long cursor, Integer limit) {
         User currentUser = authService.getCurrentUser();
         
         // Check if user is admin
@@ -28,9 +62,11 @@ public class AdminService {
             throw new RuntimeException("Access denied. Admin role required.");
         }
         
-        List<User> users = userRepository.findAll();
+        int pageSize = CursorPage.clampLimit(limit);
+        List<User> users = userRepository.findByIdLessThanOrderByIdDesc(
+                CursorPage.upperBound(cursor), PageRequest.of(0, pageSize + 1));
         
-        return users.stream()
+        return CursorPage.of(users.stream()
                 .map(user -> new UserResponse(
                     user.getId(),
                     user.getFullName(),
@@ -38,14 +74,17 @@ public class AdminService {
                     user.getRole().name(),
                     user.getCreatedAt()
                 ))
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()), pageSize, UserResponse::getId);
     }
     
     /**
-     * Delete a user (admin only)
+     * Delete a user (admin only) together with their files, shares, group
+     * memberships, owned groups and open upload sessions. File content is
+     * reclaimed in the background by the storage GC
      * @param userId the user ID to delete
      * @return String - success message
      */
+    @Transactional
     public String deleteUser(Long userId) {
         User currentUser = authService.getCurrentUser();
         
@@ -63,8 +102,201 @@ public class AdminService {
         User userToDelete = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         
+        List<Long> affectedMembers = groupMemberRepository.findUserIdsInGroupsOwnedBy(userId);
+
+        quotaService.creditAllMemberships(userId);
+        List<Long> deletedFiles = jdbcTemplate.queryForList("UPDATE files SET deleted_at = now(), updated_at = now() "
+                + "WHERE uploaded_by = ? AND deleted_at IS NULL RETURNING id", Long.class, userId);
+        fileShareRepository.deleteByUserId(userId);
+        groupShareRepository.deleteBySharerOrGroupOwner(userId);
+        groupMemberRepository.deleteByUserOrGroupOwner(userId);
+        userGroupRepository.deleteByOwnerId(userId);
+        uploadSessionService.discardSessionsOf(userId);
+        storageGarbageCollector.purgeDeletedFilesOf(userId);
         userRepository.delete(userToDelete);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                fileAccessCache.invalidateUser(userId);
+                fileAccessCache.invalidateFiles(deletedFiles);
+                groupMembershipCache.invalidate(userId);
+                affectedMembers.forEach(groupMembershipCache::invalidate);
+                fileAccessCache.invalidateUsers(affectedMembers);
+                principalCache.evictUser(userToDelete.getEmail());
+            }
+        });
         
         return "User deleted successfully";
     }
+    
+    /**
+     * Get hit/miss statistics for the in-process caches (admin only)
+     * @return List<CacheStatsResponse> - one entry per cache
+     */
+    public List<CacheStatsResponse> getCacheStats() {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        List<CacheStatsResponse> stats = new ArrayList<>();
+        stats.add(fileAccessCache.stats());
+        stats.add(fileDownloadCache.stats());
+        stats.add(groupMembershipCache.stats());
+        stats.addAll(principalCache.stats());
+        return stats;
+    }
+    
+    /**
+     * Get storage garbage collector progress and totals (admin only)
+     * @return StorageGcStatusResponse - last pass, pending work and totals
+     */
+    public StorageGcStatusResponse getStorageGcStatus() {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        return storageGarbageCollector.status();
+    }
+    
+    /**
+     * Run a storage garbage collection pass now (admin only)
+     * @param reconcile also remove storage files the database does not know about
+     * @return StorageGcReport - what the pass reclaimed
+     */
+    public StorageGcReport runStorageGc(boolean reconcile) {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        return storageGarbageCollector.collect(reconcile);
+    }
+    
+    /**
+     * Get storage scrubber progress, corrupt blobs and totals (admin only)
+     * @return StorageScrubStatusResponse - last pass, pending work, corrupt blobs and totals
+     */
+    public StorageScrubStatusResponse getStorageScrubStatus() {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        return blobIntegrityService.status();
+    }
+    
+    /**
+     * Start a storage scrub pass in the background, at the configured read rate (admin only)
+     * @return StorageScrubStatusResponse - the scrubber's status with the pass under way
+     */
+    public StorageScrubStatusResponse runStorageScrub() {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        return blobIntegrityService.requestScrub();
+    }
+    
+    /**
+     * Get per-user storage usage from the running counters, keyset paginated (admin only)
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit  page size
+     * @return CursorPage<StorageUsageResponse> - users' usage and quotas, newest user first
+     */
+    public CursorPage<StorageUsageResponse> getUserStorageUsage(Long cursor, Integer limit) {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        return quotaService.getUserUsage(cursor, limit);
+    }
+    
+    /**
+     * Get per-group storage usage from the running counters, keyset paginated (admin only)
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit  page size
+     * @return CursorPage<StorageUsageResponse> - groups' usage and quotas, newest group first
+     */
+    public CursorPage<StorageUsageResponse> getGroupStorageUsage(Long cursor, Integer limit) {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        return quotaService.getGroupUsage(cursor, limit);
+    }
+    
+    /**
+     * Set a user's storage quota (admin only)
+     * @param userId     the user's ID
+     * @param quotaBytes limit in bytes, or null for the default
+     * @return String - success message
+     */
+    public String setUserQuota(Long userId, Long quotaBytes) {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        if (!quotaService.setUserQuota(userId, quotaBytes)) {
+            throw new RuntimeException("User not found");
+        }
+        return "Quota updated";
+    }
+    
+    /**
+     * Set a group's storage quota (admin only)
+     * @param groupId    the group ID
+     * @param quotaBytes limit in bytes, or null for none
+     * @return String - success message
+     */
+    public String setGroupQuota(Long groupId, Long quotaBytes) {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        if (!quotaService.setGroupQuota(groupId, quotaBytes)) {
+            throw new RuntimeException("Group not found");
+        }
+        return "Quota updated";
+    }
+    
+    /**
+     * Rebuild all usage counters from the files table (admin only)
+     * @return String - how many users were recounted
+     */
+    public String recalculateStorageUsage() {
+        User currentUser = authService.getCurrentUser();
+        
+        // Check if user is admin
+        if (currentUser.getRole() != User.Role.ADMIN) {
+            throw new RuntimeException("Access denied. Admin role required.");
+        }
+        
+        return "Recalculated storage usage for " + quotaService.recalculate() + " users";
+    }
 }
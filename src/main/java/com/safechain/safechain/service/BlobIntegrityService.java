@@ -0,0 +1,403 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.dto.StorageScrubReport;
+import com.safechain.safechain.dto.StorageScrubStatusResponse;
+import com.safechain.safechain.repository.BlobRepository;
+import com.safechain.safechain.storage.ChunkTree;
+import com.safechain.safechain.storage.IntegrityException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.NoSuchFileException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipException;
+
+/**
+ * Detects bit rot and tampering in stored blobs.
+ * <p>
+ * Each blob row carries its {@link ChunkTree}: {@code chunk_size},
+ * {@code chunk_hashes} (32 bytes per chunk, stored uncompressed and out of
+ * line so a substring only reads the pages it needs) and {@code merkle_root}.
+ * Hibernate does not map these, so loading a blob never drags its hashes
+ * along; they are created here at startup and read with plain SQL. Downloads
+ * fetch just the hashes covering the range they serve.
+ * <p>
+ * A scrubber re-reads stored content in the background, oldest check first,
+ * at a bounded read rate so it never competes with downloads for the disk.
+ * Each blob is checked chunk by chunk against its hashes; blobs stored before
+ * chunk hashing existed are checked against their digest instead and get
+ * their hashes on the way. {@code verified_at} records the last check and
+ * {@code integrity_error} what was wrong, so a pass only touches blobs due
+ * again and a failure stays visible until the content is replaced.
+ */
+@Slf4j
+@Service
+public class BlobIntegrityService implements SmartLifecycle {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REPORTED_CORRUPT = 100;
+
+    // Hashes of the chunks holding bytes [?, ?], computed from the blob's own chunk size
+    private static final String SLICE_SQL = "SELECT chunk_size, substring(chunk_hashes "
+            + "FROM CAST(? / chunk_size * " + ChunkTree.HASH_SIZE + " + 1 AS int) "
+            + "FOR CAST((? / chunk_size - ? / chunk_size + 1) * " + ChunkTree.HASH_SIZE + " AS int)) "
+            + "FROM blobs WHERE digest = ? AND chunk_hashes IS NOT NULL";
+
+    private static final String ALL_CHUNKS_SQL = "SELECT chunk_size, chunk_hashes FROM blobs "
+            + "WHERE digest = ? AND chunk_hashes IS NOT NULL AND octet_length(chunk_hashes) <= ?";
+
+    private static final String DUE_SQL = "SELECT digest, size, chunk_size, chunk_hashes, merkle_root FROM blobs "
+            + "WHERE ref_count > 0 AND (verified_at IS NULL OR verified_at < ?) "
+            + "ORDER BY verified_at NULLS FIRST, digest LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BlobStorageService blobStorageService;
+    private final BlobRepository blobRepository;
+    private final int chunkSize;
+    private final boolean scrubEnabled;
+    private final int batchSize;
+    private final long rate;
+    private final Duration period;
+
+    private final AtomicLong totalBlobsVerified = new AtomicLong();
+    private final AtomicLong totalBytesVerified = new AtomicLong();
+    private final AtomicBoolean scrubbing = new AtomicBoolean();
+    private volatile StorageScrubReport lastRun;
+    private volatile boolean running;
+    private ThreadPoolExecutor worker;
+
+    public BlobIntegrityService(JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                BlobStorageService blobStorageService,
+                                BlobRepository blobRepository,
+                                @Value("${integrity.chunk-size}") DataSize chunkSize,
+                                @Value("${integrity.scrub.enabled}") boolean scrubEnabled,
+                                @Value("${integrity.scrub.batch-size}") int batchSize,
+                                @Value("${integrity.scrub.rate}") DataSize rate,
+                                @Value("${integrity.scrub.period}") Duration period) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.blobStorageService = blobStorageService;
+        this.blobRepository = blobRepository;
+        this.chunkSize = (int) chunkSize.toBytes();
+        this.scrubEnabled = scrubEnabled;
+        this.batchSize = batchSize;
+        this.rate = rate.toBytes();
+        this.period = period;
+    }
+
+    /**
+     * Look up the chunk hashes needed to verify a read
+     *
+     * @param digest hex SHA-256 of the content
+     * @param start  offset of the first byte read
+     * @param length number of bytes read
+     * @return ChunkTree.Slice - hashes of the chunks covering the read, or null if the blob has none
+     */
+    public ChunkTree.Slice chunks(String digest, long start, long length) {
+        if (length <= 0) {
+            return null;
+        }
+        long end = start + length - 1;
+        List<ChunkTree.Slice> slices = jdbcTemplate.query(SLICE_SQL,
+                (rs, rowNum) -> {
+                    int size = rs.getInt(1);
+                    return new ChunkTree.Slice(size, start / size, rs.getBytes(2));
+                },
+                start, end, start, digest);
+        return slices.isEmpty() ? null : slices.get(0);
+    }
+
+    /**
+     * Look up every chunk hash of a blob, for a caller that keeps them
+     *
+     * @param digest    hex SHA-256 of the content
+     * @param maxLength most bytes of hashes worth returning
+     * @return ChunkTree.Slice - hashes of all the blob's chunks, or null if it has none or more than maxLength bytes
+     */
+    public ChunkTree.Slice chunks(String digest, int maxLength) {
+        List<ChunkTree.Slice> slices = jdbcTemplate.query(ALL_CHUNKS_SQL,
+                (rs, rowNum) -> new ChunkTree.Slice(rs.getInt(1), 0, rs.getBytes(2)),
+                digest, maxLength);
+        return slices.isEmpty() ? null : slices.get(0);
+    }
+
+    /**
+     * Hand a scrub pass to the background worker unless one is already running
+     */
+    @Scheduled(fixedDelayString = "${integrity.scrub.interval}")
+    public void scrubPending() {
+        if (scrubEnabled) {
+            startScrub();
+        }
+    }
+
+    /**
+     * Hand a scrub pass to the background worker now, whether or not scheduled passes are enabled
+     *
+     * @return StorageScrubStatusResponse - the status with the pass, or one already running, under way
+     */
+    public StorageScrubStatusResponse requestScrub() {
+        startScrub();
+        return status();
+    }
+
+    private void startScrub() {
+        if (!running || !scrubbing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            worker.execute(() -> {
+                try {
+                    scrub();
+                } finally {
+                    scrubbing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            scrubbing.set(false);
+        }
+    }
+
+    /**
+     * Verify the blobs most overdue for a check, one batch, at the configured read rate
+     */
+    private void scrub() {
+        Tally tally = new Tally();
+        LocalDateTime startedAt = LocalDateTime.now();
+        Throttle throttle = new Throttle(rate);
+
+        List<Candidate> due = jdbcTemplate.query(DUE_SQL,
+                (rs, rowNum) -> new Candidate(rs.getString("digest"), rs.getLong("size"),
+                        rs.getObject("chunk_size", Integer.class), rs.getBytes("chunk_hashes"),
+                        rs.getBytes("merkle_root")),
+                Timestamp.valueOf(LocalDateTime.now().minus(period)), batchSize);
+
+        for (Candidate blob : due) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            scrub(blob, throttle, tally);
+        }
+
+        StorageScrubReport report = new StorageScrubReport(startedAt, LocalDateTime.now(), tally.blobsVerified,
+                tally.bytesVerified, tally.blobsHashed, tally.blobsCorrupt, tally.failures);
+        totalBlobsVerified.addAndGet(tally.blobsVerified);
+        totalBytesVerified.addAndGet(tally.bytesVerified);
+        lastRun = report;
+        if (tally.blobsVerified + tally.blobsCorrupt + tally.failures > 0) {
+            log.info("Storage scrub verified {} blobs ({} bytes), hashed {}, found {} corrupt, {} failures",
+                    tally.blobsVerified, tally.bytesVerified, tally.blobsHashed, tally.blobsCorrupt, tally.failures);
+        }
+    }
+
+    /**
+     * @return StorageScrubStatusResponse - the last pass, work still pending, corrupt blobs and totals
+     */
+    public StorageScrubStatusResponse status() {
+        Long pending = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM blobs WHERE ref_count > 0 "
+                + "AND (verified_at IS NULL OR verified_at < ?)", Long.class,
+                Timestamp.valueOf(LocalDateTime.now().minus(period)));
+        Long unhashed = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM blobs WHERE ref_count > 0 AND chunk_hashes IS NULL", Long.class);
+        Long corruptCount = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM blobs WHERE ref_count > 0 AND integrity_error IS NOT NULL", Long.class);
+        List<String> corrupt = jdbcTemplate.query("SELECT digest, integrity_error FROM blobs "
+                        + "WHERE ref_count > 0 AND integrity_error IS NOT NULL ORDER BY verified_at DESC LIMIT ?",
+                (rs, rowNum) -> rs.getString(1) + ": " + rs.getString(2), MAX_REPORTED_CORRUPT);
+        return new StorageScrubStatusResponse(scrubbing.get(), lastRun, pending, unhashed, corruptCount, corrupt,
+                totalBlobsVerified.get(), totalBytesVerified.get());
+    }
+
+    private void scrub(Candidate blob, Throttle throttle, Tally tally) {
+        String error;
+        try (InputStream content = blobStorageService.open(blob.digest())) {
+            error = blob.hashes() != null ? verify(blob, content, throttle) : hash(blob, content, throttle, tally);
+        } catch (IntegrityException | ZipException | EOFException | NoSuchFileException e) {
+            error = e instanceof NoSuchFileException ? "content is missing" : e.getMessage();
+        } catch (IOException | RuntimeException e) {
+            // Not the content's fault (a missing master key, an unreachable volume): try again next pass
+            tally.failures++;
+            if (!(e instanceof InterruptedIOException)) {
+                log.warn("Could not scrub blob {}: {}", blob.digest(), e.getMessage());
+            }
+            return;
+        }
+
+        // Blobs released meanwhile are left alone; the storage GC is about to take them
+        int updated = jdbcTemplate.update("UPDATE blobs SET verified_at = now(), integrity_error = ? "
+                + "WHERE digest = ? AND ref_count > 0", error, blob.digest());
+        if (updated == 0) {
+            return;
+        }
+        if (error != null) {
+            tally.blobsCorrupt++;
+            log.error("Blob {} failed its integrity check: {}", blob.digest(), error);
+        } else {
+            tally.blobsVerified++;
+            tally.bytesVerified += blob.size();
+        }
+    }
+
+    private String verify(Candidate blob, InputStream content, Throttle throttle) throws IOException {
+        if (!Arrays.equals(ChunkTree.merkleRoot(blob.hashes()), blob.merkleRoot())) {
+            return "chunk hashes do not match their Merkle root";
+        }
+        long read = drain(new ChunkTree.Slice(blob.chunkSize(), 0, blob.hashes()).verify(content), throttle);
+        return read == blob.size() ? null : "content is " + read + " bytes, expected " + blob.size();
+    }
+
+    private String hash(Candidate blob, InputStream content, Throttle throttle, Tally tally) throws IOException {
+        MessageDigest digest = newDigest();
+        ChunkTree.Hasher hasher = ChunkTree.hashing(new DigestInputStream(content, digest), chunkSize);
+        drain(hasher, throttle);
+        if (!HexFormat.of().formatHex(digest.digest()).equals(blob.digest())) {
+            return "content does not match its digest";
+        }
+        ChunkTree tree = hasher.tree();
+        blobRepository.recordChunkTree(blob.digest(), tree.getChunkSize(), tree.getHashes(), tree.getRoot());
+        tally.blobsHashed++;
+        return null;
+    }
+
+    private static long drain(InputStream in, Throttle throttle) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        long total = 0;
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            total += read;
+            throttle.pace(read);
+        }
+        return total;
+    }
+
+    private void createSchema() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(hashtext('blob_integrity'))", Object.class);
+            jdbcTemplate.execute("ALTER TABLE blobs ADD COLUMN IF NOT EXISTS chunk_size integer");
+            jdbcTemplate.execute("ALTER TABLE blobs ADD COLUMN IF NOT EXISTS chunk_hashes bytea");
+            jdbcTemplate.execute("ALTER TABLE blobs ADD COLUMN IF NOT EXISTS merkle_root bytea");
+            jdbcTemplate.execute("ALTER TABLE blobs ADD COLUMN IF NOT EXISTS verified_at timestamp");
+            jdbcTemplate.execute("ALTER TABLE blobs ADD COLUMN IF NOT EXISTS integrity_error text");
+            // Hashes do not compress, and uncompressed out-of-line values can be sliced without reading them whole
+            jdbcTemplate.execute("ALTER TABLE blobs ALTER COLUMN chunk_hashes SET STORAGE EXTERNAL");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_blobs_verified_at ON blobs (verified_at NULLS FIRST, digest)");
+        });
+    }
+
+    @Override
+    public void start() {
+        createSchema();
+        // Scrub passes run for minutes at a time, so they get a thread of their own rather than the scheduler's
+        // Never more than one pass queued or running: startScrub only hands one over while none is
+        worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "storage-scrubber");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        // An interrupted pass leaves its remaining blobs due, to be picked up after restart
+        worker.shutdownNow();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Before the web server, so uploads find the chunk hash columns
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record Candidate(String digest, long size, Integer chunkSize, byte[] hashes, byte[] merkleRoot) {
+    }
+
+    /**
+     * Holds a pass to a steady read rate by sleeping whenever it gets ahead
+     */
+    private static final class Throttle {
+
+        private final long bytesPerSecond;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void pace(int read) throws InterruptedIOException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            bytes += read;
+            long aheadNanos = (long) (bytes * 1e9 / bytesPerSecond) - (System.nanoTime() - startNanos);
+            if (aheadNanos <= 0) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Scrub interrupted");
+            }
+        }
+    }
+
+    /**
+     * Counters for one pass; only ever touched by the thread running it
+     */
+    private static class Tally {
+        long blobsVerified;
+        long bytesVerified;
+        long blobsHashed;
+        long blobsCorrupt;
+        long failures;
+    }
+}
@@ -0,0 +1,476 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.entity.Blob;
+import com.safechain.safechain.repository.BlobRepository;
+import com.safechain.safechain.storage.BlockGzip;
+import com.safechain.safechain.storage.ChunkTree;
+import com.safechain.safechain.storage.SegmentedAesGcm;
+import com.safechain.safechain.storage.StorageBackend;
+import com.safechain.safechain.storage.UploadPipeline;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Content-addressed, reference-counted storage for uploaded bytes.
+ * Identical uploads are hashed while streaming to a temp file and collapse
+ * onto a single blob, so duplicates cost one write and one inode. Where the
+ * bytes physically live is up to the configured {@link StorageBackend}.
+ * <p>
+ * Compressible content is stored gzip-encoded. The decision is made per blob
+ * from its declared type and a deflate trial on the first 64KB, and is taken
+ * before the bytes hit the disk, so compression costs no extra pass on
+ * streamed uploads. The digest is always over the original bytes. The gzip
+ * stream is written in {@link BlockGzip} blocks the size of the integrity
+ * chunks, indexed in the blob row, so a range is decoded from the block
+ * holding it rather than from the start of the blob.
+ * <p>
+ * With encryption enabled, the encoded bytes are then encrypted on their way
+ * to disk in {@link SegmentedAesGcm} segments under a data key of the blob's
+ * own, kept wrapped by the {@link MasterKeyService} in the blob row. Neither
+ * direction buffers more than a segment, and readers can decrypt any range
+ * without touching the rest of the blob.
+ * <p>
+ * Every blob also gets a {@link ChunkTree} over its original bytes, hashed
+ * in the same pass as the digest, which lets downloads and the
+ * {@link BlobIntegrityService} scrubber verify what they read.
+ * <p>
+ * Uploads larger than the probe run through an {@link UploadPipeline}: the
+ * encoded write, the digest and the chunk hashes each take the stream on a
+ * thread of their own, so an upload costs about as much as its slowest step
+ * rather than all of them. Callers can tap the same stream for their own
+ * processing. When the pipeline has no threads to spare, the upload is
+ * stored on the calling thread as before.
+ */
+@Service
+@RequiredArgsConstructor
+public class BlobStorageService {
+
+    private static final int PROBE_SIZE = 64 * 1024;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    // Compress only when the probe saves at least this fraction of the sample
+    private static final double MIN_SAVING = 0.10;
+
+    // Already compressed formats, where a probe would only waste CPU
+    private static final List<String> INCOMPRESSIBLE_TYPES = List.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/avif", "image/heic",
+            "video/", "audio/", "font/woff",
+            "application/zip", "application/gzip", "application/x-gzip", "application/zstd",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/x-bzip2",
+            "application/x-xz", "application/vnd.openxmlformats-", "application/vnd.oasis.opendocument.",
+            "application/epub+zip", "application/java-archive");
+
+    private final BlobRepository blobRepository;
+    private final StorageBackend storageBackend;
+    private final MasterKeyService masterKeyService;
+
+    @Value("${file.compression.enabled}")
+    private boolean compressionEnabled;
+
+    @Value("${encryption.enabled}")
+    private boolean encryptionEnabled;
+
+    @Value("${encryption.segment-size}")
+    private DataSize segmentSize;
+
+    @Value("${integrity.chunk-size}")
+    private DataSize chunkSize;
+
+    @Value("${file.upload-pipeline.threads}")
+    private int pipelineThreads;
+
+    @Value("${file.upload-pipeline.buffer-size}")
+    private DataSize pipelineBufferSize;
+
+    @Value("${file.upload-pipeline.depth}")
+    private int pipelineDepth;
+
+    private ThreadPoolExecutor pipelineExecutor;
+
+    @PostConstruct
+    void startPipeline() {
+        if (pipelineThreads <= 0) {
+            return;
+        }
+        AtomicInteger count = new AtomicInteger();
+        // No queue: a stage either gets a thread now or the upload runs on the caller's
+        pipelineExecutor = new ThreadPoolExecutor(0, pipelineThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "upload-pipeline-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    void stopPipeline() {
+        if (pipelineExecutor != null) {
+            pipelineExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stream content into the blob store and take a reference on it
+     *
+     * @param content     the bytes to store, consumed fully but not closed
+     * @param contentType declared MIME type, used to skip compressing media and archives
+     * @return StoredBlob - digest, location, sizes and codec of the blob
+     */
+    public StoredBlob store(InputStream content, String contentType) throws IOException {
+        return store(content, contentType, List.of());
+    }
+
+    /**
+     * Stream content into the blob store and take a reference on it, feeding
+     * it to some taps on the way
+     *
+     * @param content     the bytes to store, consumed fully but not closed
+     * @param contentType declared MIME type, used to skip compressing media and archives
+     * @param taps        best-effort processing of the same bytes; see {@link UploadPipeline.Tap}
+     * @return StoredBlob - digest, location, sizes and codec of the blob
+     */
+    public StoredBlob store(InputStream content, String contentType, List<UploadPipeline.Tap<?>> taps)
+            throws IOException {
+        byte[] sample = content.readNBytes(PROBE_SIZE);
+        Blob.Codec codec = chooseCodec(contentType, sample);
+        InputStream whole = new SequenceInputStream(new ByteArrayInputStream(sample), content);
+
+        Path temp = storageBackend.createTempFile();
+        Encryption encryption = newEncryption();
+        Written written = null;
+        try {
+            // Content that fits in the probe is not worth handing between threads
+            if (sample.length == PROBE_SIZE && pipelineExecutor != null) {
+                written = writePipelined(whole, temp, codec, encryption, taps);
+            }
+            if (written == null) {
+                taps.forEach(tap -> tap.result().cancel(false));
+                written = writeSerially(whole, temp, codec, encryption);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        return commit(temp, written.hash(), written.encoded(), codec, encryption);
+    }
+
+    private Written writePipelined(InputStream content, Path temp, Blob.Codec codec, Encryption encryption,
+                                   List<UploadPipeline.Tap<?>> taps) throws IOException {
+        UploadPipeline pipeline = new UploadPipeline(pipelineExecutor, (int) pipelineBufferSize.toBytes(),
+                pipelineDepth);
+        CompletableFuture<Encoded> encoded = pipeline.add(in -> write(in, temp, codec, encryption));
+        CompletableFuture<String> digest = pipeline.add(BlobStorageService::digest);
+        CompletableFuture<ChunkTree> tree = pipeline.add(this::chunkTree);
+        taps.forEach(pipeline::tap);
+        try {
+            pipeline.run(content);
+        } catch (RejectedExecutionException e) {
+            // Every thread is busy with other uploads; nothing has been read, so store this one serially
+            return null;
+        }
+        return new Written(new ContentHash(digest.join(), tree.join()), encoded.join());
+    }
+
+    private Written writeSerially(InputStream content, Path temp, Blob.Codec codec, Encryption encryption)
+            throws IOException {
+        // Hash while writing so the content is only read once
+        MessageDigest digest = newDigest();
+        ChunkTree.Hasher hasher = ChunkTree.hashing(new DigestInputStream(content, digest), (int) chunkSize.toBytes());
+        Encoded encoded = write(hasher, temp, codec, encryption);
+        return new Written(new ContentHash(HexFormat.of().formatHex(digest.digest()), hasher.tree()), encoded);
+    }
+
+    private static String digest(InputStream content) throws IOException {
+        MessageDigest digest = newDigest();
+        content.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private ChunkTree chunkTree(InputStream content) throws IOException {
+        ChunkTree.Builder builder = new ChunkTree.Builder((int) chunkSize.toBytes());
+        content.transferTo(builder.asOutputStream());
+        return builder.build();
+    }
+
+    /**
+     * Move an already written file into the blob store and take a reference on it
+     *
+     * @param staged      a fully written local file; it is moved or deleted
+     * @param hash        hashes of the staged content, as returned by {@link #hash(Path)}
+     * @param contentType declared MIME type, used to skip compressing media and archives
+     * @return StoredBlob - digest, location, sizes and codec of the blob
+     */
+    public StoredBlob adopt(Path staged, ContentHash hash, String contentType) throws IOException {
+        long size = Files.size(staged);
+
+        byte[] sample;
+        try (InputStream in = Files.newInputStream(staged)) {
+            sample = in.readNBytes(PROBE_SIZE);
+        }
+        Blob.Codec codec = chooseCodec(contentType, sample);
+        if (codec == Blob.Codec.IDENTITY && !encryptionEnabled) {
+            return commit(staged, hash, new Encoded(size, null), codec, null);
+        }
+
+        // Already on disk, so encoding costs one more pass; worth it for what it saves from then on
+        Path temp = storageBackend.createTempFile();
+        Encryption encryption = newEncryption();
+        Encoded encoded;
+        try (InputStream in = Files.newInputStream(staged)) {
+            encoded = write(in, temp, codec, encryption);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.deleteIfExists(staged);
+        return commit(temp, hash, encoded, codec, encryption);
+    }
+
+    /**
+     * Compute the SHA-256 digest and chunk hashes of a file in one pass
+     *
+     * @param path the file to hash
+     * @return ContentHash - hex digest and chunk tree
+     */
+    public ContentHash hash(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        ChunkTree.Hasher hasher = ChunkTree.hashing(new DigestInputStream(Files.newInputStream(path), digest),
+                (int) chunkSize.toBytes());
+        try (hasher) {
+            hasher.transferTo(OutputStream.nullOutputStream());
+        }
+        return new ContentHash(HexFormat.of().formatHex(digest.digest()), hasher.tree());
+    }
+
+    private StoredBlob commit(Path temp, ContentHash contentHash, Encoded encoded, Blob.Codec codec,
+                              Encryption encryption) throws IOException {
+        String hash = contentHash.digest();
+        String location = StorageBackend.relativePath(hash);
+        long size = encoded.size();
+        byte[] wrappedKey = encryption != null ? encryption.key().wrapped() : null;
+        BlockGzip blocks = encoded.blocks();
+        byte[] blockOffsets = blocks != null ? blocks.getOffsets() : null;
+        ChunkTree tree = contentHash.tree();
+        Blob blob;
+
+        try {
+            blobRepository.acquire(hash, location, size, Files.size(temp), codec.name(),
+                    blocks != null ? blocks.getBlockSize() : null, blockOffsets,
+                    encryption != null ? encryption.key().keyId() : null, wrappedKey);
+            // Blobs stored before chunk hashing existed pick up their tree here
+            blobRepository.recordChunkTree(hash, tree.getChunkSize(), tree.getHashes(), tree.getRoot());
+            blob = blobRepository.findById(hash).orElseThrow(() -> new IllegalStateException("Blob vanished: " + hash));
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        // The reference is taken first, so a concurrent release can no longer unlink the blob.
+        // The row's codec, block index and key win: an upload that encoded or encrypted the same
+        // content differently (every upload draws its own data key) drops its copy
+        Blob.Codec stored = blob.getCodec() != null ? blob.getCodec() : Blob.Codec.IDENTITY;
+        if (stored != codec || !Arrays.equals(blob.getBlockOffsets(), blockOffsets)
+                || !Arrays.equals(blob.getWrappedKey(), wrappedKey)) {
+            Files.deleteIfExists(temp);
+        } else {
+            storageBackend.put(hash, temp);
+        }
+
+        long storedSize = blob.getStoredSize() != null ? blob.getStoredSize() : blob.getSize();
+        return new StoredBlob(hash, location, size, storedSize, stored);
+    }
+
+    private Encoded write(InputStream content, Path target, Blob.Codec codec, Encryption encryption)
+            throws IOException {
+        if (codec == Blob.Codec.IDENTITY && encryption == null) {
+            return new Encoded(Files.copy(content, target, StandardCopyOption.REPLACE_EXISTING), null);
+        }
+        // Compress first: ciphertext does not compress
+        OutputStream file = Files.newOutputStream(target);
+        OutputStream encrypted;
+        try {
+            encrypted = encryption != null ? encryption.cipher().encrypt(file) : file;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        if (codec != Blob.Codec.GZIP) {
+            try (encrypted) {
+                return new Encoded(content.transferTo(encrypted), null);
+            }
+        }
+        // Blocks line up with the chunks downloads verify, so a verified range starts on a block
+        BlockGzip.Encoder gzip = BlockGzip.encoder(encrypted, (int) chunkSize.toBytes());
+        long size;
+        try (gzip) {
+            size = content.transferTo(gzip);
+        }
+        return new Encoded(size, gzip.index());
+    }
+
+    private Encryption newEncryption() {
+        if (!encryptionEnabled) {
+            return null;
+        }
+        SecretKey dataKey = masterKeyService.newDataKey();
+        return new Encryption(SegmentedAesGcm.create(dataKey, (int) segmentSize.toBytes()),
+                masterKeyService.wrap(dataKey));
+    }
+
+    private Blob.Codec chooseCodec(String contentType, byte[] sample) {
+        if (!compressionEnabled || sample.length == 0 || isIncompressibleType(contentType)) {
+            return Blob.Codec.IDENTITY;
+        }
+
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[PROBE_SIZE];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+            }
+            // 18 bytes of gzip header and trailer make tiny files a loss however well they deflate
+            return compressed + 18 <= sample.length * (1 - MIN_SAVING) ? Blob.Codec.GZIP : Blob.Codec.IDENTITY;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean isIncompressibleType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return INCOMPRESSIBLE_TYPES.stream().anyMatch(type::startsWith);
+    }
+
+    /**
+     * Open a blob for reading its original bytes, decrypting and decoding it as needed
+     *
+     * @param digest hex SHA-256 of the content
+     * @return InputStream - the decoded content; the caller closes it
+     */
+    public InputStream open(String digest) throws IOException {
+        Blob blob = blobRepository.findById(digest).orElseThrow(() -> new IOException("Blob not found: " + digest));
+        SegmentedAesGcm cipher = cipher(blob);
+        InputStream raw;
+        if (cipher == null) {
+            raw = storageBackend.get(digest);
+        } else {
+            long storedSize = blob.getStoredSize();
+            raw = cipher.decrypt(source(digest), storedSize, 0, cipher.plaintextLength(storedSize));
+        }
+        if (blob.getCodec() != Blob.Codec.GZIP) {
+            return raw;
+        }
+        try {
+            return new GZIPInputStream(raw, GZIP_BUFFER_SIZE);
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Look up what it takes to read ranges of a blob
+     *
+     * @param digest hex SHA-256 of the content
+     * @return Layout - how the blob is encrypted and where its gzip blocks start
+     */
+    public Layout layout(String digest) throws IOException {
+        Blob blob = blobRepository.findById(digest).orElseThrow(() -> new IOException("Blob not found: " + digest));
+        BlockGzip blocks = blob.getBlockOffsets() != null
+                ? new BlockGzip(blob.getBlockSize(), blob.getBlockOffsets())
+                : null;
+        return new Layout(cipher(blob), blocks);
+    }
+
+    /**
+     * @param digest hex SHA-256 of the content
+     * @return RangeSource - reads ranges of the blob's stored bytes
+     */
+    public SegmentedAesGcm.RangeSource source(String digest) {
+        return (offset, length) -> storageBackend.get(digest, offset, length);
+    }
+
+    private SegmentedAesGcm cipher(Blob blob) throws IOException {
+        if (blob.getWrappedKey() == null) {
+            return null;
+        }
+        SecretKey dataKey = masterKeyService.unwrap(blob.getKeyId(), blob.getWrappedKey());
+        return SegmentedAesGcm.open(dataKey, source(blob.getDigest()));
+    }
+
+    /**
+     * Drop one reference to a blob. Unreferenced blobs are unlinked later by
+     * {@link StorageGarbageCollector}
+     *
+     * @param digest hex SHA-256 of the content
+     */
+    public void release(String digest) {
+        blobRepository.release(digest);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public record StoredBlob(String digest, String location, long size, long storedSize, Blob.Codec codec) {
+    }
+
+    public record ContentHash(String digest, ChunkTree tree) {
+    }
+
+    /**
+     * @param cipher reads the blob's stored bytes, or null if it is stored in plaintext
+     * @param blocks index of the gzip blocks, or null unless the blob is block-encoded
+     */
+    public record Layout(SegmentedAesGcm cipher, BlockGzip blocks) {
+    }
+
+    private record Written(ContentHash hash, Encoded encoded) {
+    }
+
+    private record Encoded(long size, BlockGzip blocks) {
+    }
+
+    private record Encryption(SegmentedAesGcm cipher, MasterKeyService.WrappedKey key) {
+    }
+}
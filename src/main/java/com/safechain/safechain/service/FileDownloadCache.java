@@ -0,0 +1,120 @@
+package com.safechain.safechain.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.safechain.safechain.dto.CacheStatsResponse;
+import com.safechain.safechain.entity.Blob;
+import com.safechain.safechain.entity.File;
+import com.safechain.safechain.repository.FileRepository;
+import com.safechain.safechain.security.FileAccessCache;
+import com.safechain.safechain.storage.BlockGzip;
+import com.safechain.safechain.storage.ChunkTree;
+import com.safechain.safechain.storage.SegmentedAesGcm;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Bounded, expiring cache of what a download needs to know about a file:
+ * its metadata, its blob's cipher with the data key already unwrapped, its
+ * gzip block index and its chunk hashes. A repeated download of the same file then makes no
+ * database round trips and unwraps no keys.
+ * <p>
+ * Entries are keyed by the file's generation in {@link FileAccessCache}, so
+ * they go with the file's access decisions: when a group share changes and
+ * when the file is deleted, alone, in a batch or with its owner. Nothing
+ * changes a file's content. Unwrapped data keys stay in memory for as long
+ * as their entry does.
+ * <p>
+ * Chunk hashes are kept for blobs with up to {@value #MAX_CACHED_HASHES}
+ * bytes of them, 2 GB of content at the default chunk size; ranges of larger
+ * blobs look up just the hashes they need.
+ */
+@Component
+public class FileDownloadCache {
+
+    private static final int MAX_CACHED_HASHES = 64 * 1024;
+
+    private final FileRepository fileRepository;
+    private final BlobStorageService blobStorageService;
+    private final BlobIntegrityService blobIntegrityService;
+    private final FileAccessCache fileAccessCache;
+    private final boolean verifyDownloads;
+    private final Cache<Key, Download> downloads;
+
+    public FileDownloadCache(FileRepository fileRepository,
+                             BlobStorageService blobStorageService,
+                             BlobIntegrityService blobIntegrityService,
+                             FileAccessCache fileAccessCache,
+                             @Value("${integrity.verify-downloads}") boolean verifyDownloads,
+                             @Value("${file.download-cache.max-size}") long maxSize,
+                             @Value("${file.download-cache.ttl}") Duration ttl) {
+        this.fileRepository = fileRepository;
+        this.blobStorageService = blobStorageService;
+        this.blobIntegrityService = blobIntegrityService;
+        this.fileAccessCache = fileAccessCache;
+        this.verifyDownloads = verifyDownloads;
+        this.downloads = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param fileId the file ID
+     * @return Download - what it takes to send the file, loaded on a miss
+     */
+    public Download get(Long fileId) throws IOException {
+        // The generation is read before loading, so a file invalidated meanwhile is never found again
+        Key key = new Key(fileId, fileAccessCache.fileGeneration(fileId));
+        try {
+            return downloads.get(key, k -> load(k.fileId()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return CacheStatsResponse - hit/miss counters for this cache
+     */
+    public CacheStatsResponse stats() {
+        return CacheStatsResponse.of("file-download", downloads.stats(), downloads.estimatedSize());
+    }
+
+    private Download load(Long fileId) {
+        File file = fileRepository.findById(fileId)
+                .orElseThrow(() -> new RuntimeException("File not found"));
+        String key = file.getContentHash();
+        try {
+            BlobStorageService.Layout layout = key != null ? blobStorageService.layout(key) : null;
+            return new Download(file.getId(), file.getUploadedBy().getId(), file.getFileName(), file.getFileType(),
+                    file.getFileSize(), key, file.getFilePath(), file.getCodec(), file.getUploadDate(),
+                    layout != null ? layout.cipher() : null, layout != null ? layout.blocks() : null,
+                    key != null && verifyDownloads ? blobIntegrityService.chunks(key, MAX_CACHED_HASHES) : null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A file as downloads see it
+     *
+     * @param contentHash the blob holding the content, or null for uploads from before the blob store
+     * @param filePath    where pre-blob uploads keep their content
+     * @param cipher      reads the blob when it is encrypted, otherwise null
+     * @param blocks      where the blob's gzip blocks start, or null unless it is block-encoded
+     * @param chunks      hashes of all the blob's chunks, or null when they are not kept here
+     */
+    public record Download(Long id, Long ownerId, String fileName, String fileType, Long fileSize,
+                           String contentHash, String filePath, Blob.Codec codec, LocalDateTime uploadDate,
+                           SegmentedAesGcm cipher, BlockGzip blocks, ChunkTree.Slice chunks) {
+    }
+
+    private record Key(Long fileId, long generation) {
+    }
+}
@@ -0,0 +1,441 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.entity.Blob;
+import com.safechain.safechain.storage.BlobStat;
+import com.safechain.safechain.storage.BlockGzip;
+import com.safechain.safechain.storage.ChunkTree;
+import com.safechain.safechain.storage.SegmentedAesGcm;
+import com.safechain.safechain.storage.StorageBackend;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Writes stored files to HTTP responses with support for conditional GET
+ * (ETag / Last-Modified, answered with 304) and byte ranges, including
+ * multi-range multipart/byteranges responses.
+ * <p>
+ * Whole files and single ranges are handed to the container's sendfile
+ * support where it is available, which sends them without copying through
+ * user-space buffers. Everything else goes through
+ * {@link FileChannel#transferTo} into the servlet stream. That target is
+ * neither a file nor a socket, so the JDK still copies through a buffer of
+ * its own, but with fewer and larger writes than a hand-rolled copy loop.
+ * <p>
+ * Gzip-stored files go out as stored, with {@code Content-Encoding: gzip},
+ * to clients that accept it and ask for the whole file. Everyone else, and
+ * every Range request, gets the decoded bytes, decompressed as they stream.
+ * A range of a {@link BlockGzip} blob is inflated from the block holding its
+ * first byte; older gzip blobs have to be inflated from the start.
+ * <p>
+ * Blob-backed files are read through the {@link StorageBackend}; when it
+ * cannot offer a local file the body is streamed from it instead.
+ * <p>
+ * Encrypted blobs cannot go out zero-copy. They are decrypted as they
+ * stream, and a range only reads and decrypts the segments covering it.
+ * <p>
+ * With download verification on, blob-backed bodies are checked against the
+ * blob's chunk hashes as they go out: only the chunks overlapping what is
+ * served are read and hashed, and each chunk is verified before any of it is
+ * written. A chunk that fails aborts the response. Verified bodies are
+ * copied rather than sent zero-copy, and gzip pass-through responses are left
+ * to the background scrubber.
+ */
+@Service
+@RequiredArgsConstructor
+public class FileDownloadService {
+
+    // Request attributes understood by Tomcat's NIO/NIO2 connectors
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Same cut-off as Tomcat's DefaultServlet: below this a plain write is cheaper
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+    private final StorageBackend storageBackend;
+    private final BlobStorageService blobStorageService;
+    private final BlobIntegrityService blobIntegrityService;
+
+    @Value("${integrity.verify-downloads}")
+    private boolean verifyDownloads;
+
+    /**
+     * Write a file to the response, honouring conditional and Range headers
+     *
+     * @param file     the file to send; access must already have been checked
+     * @param request  the current request
+     * @param response the response to write to
+     * @return boolean - whether the file's content is sent, as opposed to a 304, 412 or 416, or a HEAD response
+     */
+    public boolean write(FileDownloadCache.Download file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Content content = locate(file);
+
+        boolean gzipped = file.codec() == Blob.Codec.GZIP;
+        // Ranges always address the decoded bytes, so only whole-file responses can keep the encoding
+        boolean passThrough = gzipped && request.getHeader(HttpHeaders.RANGE) == null && acceptsGzip(request);
+        long length = gzipped ? file.fileSize() : content.encodedLength();
+        String etag = etagFor(file, content, passThrough);
+        long lastModified = lastModifiedFor(file, content);
+
+        if (gzipped) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        // Sets ETag / Last-Modified and answers 304 or 412 when the preconditions say so
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        if (webRequest.checkNotModified(etag, lastModified)) {
+            return false;
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + file.fileName() + "\"");
+
+        List<HttpRange> ranges = rangesToServe(request, etag, lastModified);
+        try {
+            checkSatisfiable(ranges, length);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return false;
+        }
+
+        boolean head = "HEAD".equals(request.getMethod());
+
+        if (ranges.isEmpty()) {
+            response.setContentType(file.fileType());
+            if (passThrough) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                response.setContentLengthLong(content.encodedLength());
+                if (!head) {
+                    send(content, 0, content.encodedLength(), request, response);
+                }
+                return !head;
+            }
+            response.setContentLengthLong(length);
+            if (!head) {
+                sendDecoded(file, content, gzipped, 0, length, request, response);
+            }
+            return !head;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(length);
+            long end = ranges.get(0).getRangeEnd(length);
+            response.setContentType(file.fileType());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(start, end, length));
+            response.setContentLengthLong(end - start + 1);
+            if (!head) {
+                sendDecoded(file, content, gzipped, start, end - start + 1, request, response);
+            }
+            return !head;
+        }
+
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        if (head) {
+            return false;
+        }
+
+        ServletOutputStream out = response.getOutputStream();
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            out.write(("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + file.fileType() + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(start, end, length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            writeRange(content, gzipped, chunksFor(file, content, start, end - start + 1), start, end - start + 1, out);
+        }
+        out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return true;
+    }
+
+    private List<HttpRange> rangesToServe(HttpServletRequest request, String etag, long lastModified) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null) {
+            return List.of();
+        }
+
+        // A stale If-Range validator means the client's partial copy is outdated: send everything
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            long ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+            if (ifRangeDate == -1 || lastModified / 1000 != ifRangeDate / 1000) {
+                return List.of();
+            }
+        }
+
+        // A unit other than bytes, a malformed header or too many ranges: ignore it, as RFC 9110 asks
+        try {
+            return HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+    }
+
+    private static void checkSatisfiable(List<HttpRange> ranges, long length) {
+        long total = 0;
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(length);
+            if (start >= length) {
+                throw new IllegalArgumentException("Range starts beyond end of file");
+            }
+            total += range.getRangeEnd(length) - start + 1;
+        }
+        // Overlapping ranges adding up to more than the file are a cheap amplification attack
+        if (total > length) {
+            throw new IllegalArgumentException("Ranges exceed file length");
+        }
+    }
+
+    private Content locate(FileDownloadCache.Download file) throws IOException {
+        if (file.contentHash() == null) {
+            // Uploads from before the blob store keep an absolute path
+            Path path = Paths.get(file.filePath());
+            if (!Files.exists(path)) {
+                throw new RuntimeException("File not found on disk");
+            }
+            return new Content(null, path, Files.size(path), Files.getLastModifiedTime(path).toMillis(), null, null);
+        }
+
+        String key = file.contentHash();
+        BlobStat stat = storageBackend.stat(key).orElseThrow(() -> new RuntimeException("File not found on disk"));
+        return new Content(key, storageBackend.localPath(key).orElse(null), stat.size(),
+                stat.lastModified().toEpochMilli(), file.cipher(), file.blocks());
+    }
+
+    private void sendDecoded(FileDownloadCache.Download file, Content content, boolean gzipped, long start,
+                             long length, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        ChunkTree.Slice chunks = chunksFor(file, content, start, length);
+        if (chunks == null && !gzipped) {
+            send(content, start, length, request, response);
+            return;
+        }
+        writeRange(content, gzipped, chunks, start, length, response.getOutputStream());
+    }
+
+    private void writeRange(Content content, boolean gzipped, ChunkTree.Slice chunks, long start, long length,
+                            OutputStream out) throws IOException {
+        if (chunks != null) {
+            writeVerified(content, gzipped, chunks, start, length, out);
+        } else if (gzipped) {
+            decode(content, start, length, out);
+        } else {
+            transfer(content, start, length, out);
+        }
+    }
+
+    private ChunkTree.Slice chunksFor(FileDownloadCache.Download file, Content content, long start, long length) {
+        if (!verifyDownloads || content.key() == null || length <= 0) {
+            return null;
+        }
+        if (file.chunks() != null) {
+            return file.chunks().narrow(start, length);
+        }
+        return blobIntegrityService.chunks(content.key(), start, length);
+    }
+
+    private void writeVerified(Content content, boolean gzipped, ChunkTree.Slice chunks, long start, long length,
+                               OutputStream out) throws IOException {
+        // Read whole chunks, so each can be checked, and serve only the part that was asked for
+        InputStream raw;
+        if (gzipped) {
+            raw = openDecoded(content, chunks.start());
+        } else {
+            raw = openRange(content, chunks.start(), Math.min(chunks.length(), content.encodedLength() - chunks.start()));
+        }
+        try (InputStream in = chunks.verify(raw)) {
+            in.skipNBytes(start - chunks.start());
+            copy(in, length, out);
+        }
+    }
+
+    private InputStream openRange(Content content, long start, long length) throws IOException {
+        if (content.cipher() != null) {
+            return content.cipher().decrypt(blobStorageService.source(content.key()), content.storedLength(),
+                    start, length);
+        }
+        if (content.path() == null) {
+            return storageBackend.get(content.key(), start, length);
+        }
+        FileChannel channel = FileChannel.open(content.path(), StandardOpenOption.READ);
+        channel.position(start);
+        return Channels.newInputStream(channel);
+    }
+
+    private InputStream openDecoded(Content content, long position) throws IOException {
+        InputStream in;
+        long skip = position;
+        if (content.blocks() != null) {
+            long offset = content.blocks().encodedOffset(position);
+            in = BlockGzip.inflate(openRange(content, offset, content.encodedLength() - offset));
+            skip -= content.blocks().blockStart(position);
+        } else {
+            in = new GZIPInputStream(openEncoded(content), DECODE_BUFFER_SIZE);
+        }
+        try {
+            in.skipNBytes(skip);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    private InputStream openEncoded(Content content) throws IOException {
+        if (content.cipher() != null) {
+            return content.cipher().decrypt(blobStorageService.source(content.key()), content.storedLength(),
+                    0, content.encodedLength());
+        }
+        return content.path() != null ? Files.newInputStream(content.path()) : storageBackend.get(content.key());
+    }
+
+    private void send(Content content, long start, long length,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // Let the connector write straight from the page cache to the socket once we return
+        if (content.path() != null && content.cipher() == null && length >= SENDFILE_MIN_SIZE
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, content.path().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + length);
+            return;
+        }
+        transfer(content, start, length, response.getOutputStream());
+    }
+
+    private void transfer(Content content, long start, long length, OutputStream out) throws IOException {
+        if (content.cipher() != null) {
+            try (InputStream in = content.cipher().decrypt(blobStorageService.source(content.key()),
+                    content.storedLength(), start, length)) {
+                in.transferTo(out);
+            }
+            return;
+        }
+        if (content.path() == null) {
+            try (InputStream in = storageBackend.get(content.key(), start, length)) {
+                in.transferTo(out);
+            }
+            return;
+        }
+
+        // Not zero-copy: the JDK reads into a buffer to write to a channel wrapping a stream
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(content.path(), StandardOpenOption.READ)) {
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                long sent = channel.transferTo(position, end - position, target);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+            }
+        }
+    }
+
+    private void decode(Content content, long start, long length, OutputStream out) throws IOException {
+        try (InputStream in = openDecoded(content, start)) {
+            copy(in, length, out);
+        }
+    }
+
+    private static void copy(InputStream in, long length, OutputStream out) throws IOException {
+        byte[] buffer = new byte[DECODE_BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().toLowerCase(Locale.ROOT).split(";");
+            if (!parts[0].trim().equals("gzip") && !parts[0].trim().equals("x-gzip")) {
+                continue;
+            }
+            // "gzip;q=0" explicitly refuses the encoding
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.equals("q=0") || param.startsWith("q=0.") && param.substring(4).chars().allMatch(c -> c == '0')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static String contentRange(long start, long end, long length) {
+        return "bytes " + start + "-" + end + "/" + length;
+    }
+
+    private static String etagFor(FileDownloadCache.Download file, Content content, boolean gzipEncoded) {
+        // Blob-backed files are content addressed, so the digest is a strong validator.
+        // The gzip representation has different bytes and so needs its own tag
+        if (file.contentHash() != null) {
+            return "\"" + file.contentHash() + (gzipEncoded ? "-gzip" : "") + "\"";
+        }
+        return "\"" + file.id() + "-" + content.storedLength() + "-" + content.lastModified() + "\"";
+    }
+
+    private static long lastModifiedFor(FileDownloadCache.Download file, Content content) {
+        if (file.uploadDate() != null) {
+            return file.uploadDate().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        return content.lastModified();
+    }
+
+    /**
+     * Where a file's stored bytes are: a local path when there is one, otherwise a backend key,
+     * the cipher to read them with when they are encrypted and the gzip block index when there is one
+     */
+    private record Content(String key, Path path, long storedLength, long lastModified, SegmentedAesGcm cipher,
+                           BlockGzip blocks) {
+
+        // Length of the codec's bytes, before encryption
+        long encodedLength() {
+            return cipher != null ? cipher.plaintextLength(storedLength) : storedLength;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.storage.UploadPipeline;
+import com.safechain.safechain.util.SizeLimitInputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Maintains the full-text index behind file search.
+ * <p>
+ * File names are matched through an expression GIN index on {@code files},
+ * which PostgreSQL keeps current by itself. Extracted text is indexed per
+ * blob rather than per file, so deduplicated content is extracted once: a
+ * {@code content_vector} tsvector on {@code blobs} with its own GIN index,
+ * and {@code indexed_at} marking blobs that are done. Hibernate cannot map
+ * these, so they are created here at startup.
+ * <p>
+ * New uploads are handed to a single background worker once their
+ * transaction commits, so the upload never waits for extraction. Uploads can
+ * also run the extraction as a tap on their own byte stream, see
+ * {@link #extraction}; its text is then indexed as is instead of being read
+ * back out of storage. A periodic sweep queues any blob still unindexed,
+ * which covers content stored before search existed, uploads whose task was
+ * dropped from a full queue and work lost to a restart. Deleted files drop
+ * out of results at once through {@code deleted_at}; their blob rows,
+ * vectors included, go with the storage GC.
+ */
+@Slf4j
+@Service
+public class FileSearchIndexer implements SmartLifecycle {
+
+    /** Index expression for file names; queries must repeat it verbatim to use the index */
+    static final String NAME_VECTOR = "to_tsvector('simple', regexp_replace(file_name, '[^[:alnum:]]+', ' ', 'g'))";
+
+    private static final String PENDING_SQL = "SELECT b.digest, b.size, f.file_type FROM blobs b "
+            + "CROSS JOIN LATERAL (SELECT file_type FROM files "
+            + "WHERE content_hash = b.digest AND deleted_at IS NULL LIMIT 1) f "
+            + "WHERE b.indexed_at IS NULL LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BlobStorageService blobStorageService;
+    private final TextExtractor textExtractor;
+    private final String language;
+    private final int maxTextLength;
+    private final long maxExtractSize;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running;
+    private ThreadPoolExecutor worker;
+
+    public FileSearchIndexer(JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             BlobStorageService blobStorageService,
+                             TextExtractor textExtractor,
+                             @Value("${search.language}") String language,
+                             @Value("${search.indexer.max-text-length}") int maxTextLength,
+                             @Value("${search.indexer.max-extract-size}") DataSize maxExtractSize,
+                             @Value("${search.indexer.batch-size}") int batchSize,
+                             @Value("${search.indexer.queue-capacity}") int queueCapacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.blobStorageService = blobStorageService;
+        this.textExtractor = textExtractor;
+        this.language = language;
+        this.maxTextLength = maxTextLength;
+        this.maxExtractSize = maxExtractSize.toBytes();
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return String - the text search configuration used for extracted text
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Index newly stored content once the current transaction commits, or
+     * right away outside a transaction
+     *
+     * @param digest      hex SHA-256 of the content
+     * @param size        decoded length in bytes
+     * @param contentType declared MIME type
+     */
+    public void indexAfterCommit(String digest, long size, String contentType) {
+        afterCommit(() -> submit(digest, size, contentType));
+    }
+
+    /**
+     * Index newly stored content once the current transaction commits, using
+     * text extracted while it was uploaded
+     *
+     * @param digest      hex SHA-256 of the content
+     * @param size        decoded length in bytes
+     * @param contentType declared MIME type
+     * @param extraction  the tap from {@link #extraction}, or null; if it failed, the text is extracted from storage
+     */
+    public void indexAfterCommit(String digest, long size, String contentType, UploadPipeline.Tap<String> extraction) {
+        if (extraction == null || size > maxExtractSize) {
+            indexAfterCommit(digest, size, contentType);
+            return;
+        }
+        afterCommit(() -> extraction.result().whenComplete((text, e) -> {
+            if (e == null) {
+                submit(digest, () -> text);
+            } else {
+                submit(digest, size, contentType);
+            }
+        }));
+    }
+
+    /**
+     * Text extraction to run alongside an upload
+     *
+     * @param contentType MIME type of the upload
+     * @return Tap<String> - extracts the upload's text, or null when the type has none
+     */
+    public UploadPipeline.Tap<String> extraction(String contentType) {
+        if (!textExtractor.supports(contentType)) {
+            return null;
+        }
+        // The cap keeps a large PDF from being buffered; content over it is indexed by name only anyway
+        return new UploadPipeline.Tap<>(content -> textExtractor.extract(
+                new SizeLimitInputStream(content, maxExtractSize), contentType, maxTextLength));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Queue a batch of blobs that have not been indexed yet
+     */
+    @Scheduled(fixedDelayString = "${search.indexer.interval}")
+    public void indexPending() {
+        if (!running) {
+            return;
+        }
+        jdbcTemplate.query(PENDING_SQL,
+                rs -> {
+                    submit(rs.getString("digest"), rs.getLong("size"), rs.getString("file_type"));
+                },
+                batchSize);
+    }
+
+    private void submit(String digest, long size, String contentType) {
+        submit(digest, () -> extract(digest, size, contentType));
+    }
+
+    private void submit(String digest, Supplier<String> text) {
+        if (!running || !inFlight.add(digest)) {
+            return;
+        }
+        try {
+            worker.execute(() -> {
+                try {
+                    index(digest, text.get());
+                } finally {
+                    inFlight.remove(digest);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue full: the next sweep picks the blob up
+            inFlight.remove(digest);
+        }
+    }
+
+    private String extract(String digest, long size, String contentType) {
+        if (size > maxExtractSize || !textExtractor.supports(contentType)) {
+            return null;
+        }
+        try (InputStream content = blobStorageService.open(digest)) {
+            return textExtractor.extract(content, contentType, maxTextLength);
+        } catch (IOException | RuntimeException e) {
+            // Unreadable content (a damaged or encrypted PDF, say) is indexed by name only
+            log.warn("Could not extract text from blob {}: {}", digest, e.getMessage());
+            return null;
+        }
+    }
+
+    private void index(String digest, String text) {
+        try {
+            jdbcTemplate.update("UPDATE blobs SET content_vector = to_tsvector(CAST(? AS regconfig), ?), "
+                    + "indexed_at = now() WHERE digest = ?", language, text, digest);
+        } catch (DataAccessException e) {
+            log.warn("Could not index blob {}: {}", digest, e.getMessage());
+        }
+    }
+
+    private void createSchema() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(hashtext('file_search'))", Object.class);
+            jdbcTemplate.execute("ALTER TABLE blobs ADD COLUMN IF NOT EXISTS content_vector tsvector");
+            jdbcTemplate.execute("ALTER TABLE blobs ADD COLUMN IF NOT EXISTS indexed_at timestamp");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_blobs_content_vector ON blobs USING gin (content_vector)");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_blobs_unindexed ON blobs (digest) WHERE indexed_at IS NULL");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_files_name_vector ON files USING gin ("
+                    + NAME_VECTOR + ") WHERE deleted_at IS NULL");
+        });
+    }
+
+    @Override
+    public void start() {
+        createSchema();
+        worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "search-indexer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        // Unfinished blobs keep a null indexed_at and are picked up again after restart
+        worker.shutdownNow();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
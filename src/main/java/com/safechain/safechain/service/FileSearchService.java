@@ -0,0 +1,144 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.dto.CursorPage;
+import com.safechain.safechain.dto.FileResponse;
+import com.safechain.safechain.dto.FileSearchRequest;
+import com.safechain.safechain.entity.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Searches the files a user can access: their own, those shared with them
+ * directly and those shared with one of their groups. The access rule is
+ * part of the SQL, so PostgreSQL can start from whichever side is more
+ * selective (the GIN indexes for a rare word, the caller's own files for a
+ * common one) and pages are never thinned out by filtering afterwards.
+ * Only the filters actually given are added to the statement.
+ */
+@Service
+@RequiredArgsConstructor
+public class FileSearchService {
+
+    private static final int MAX_QUERY_WORDS = 16;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AuthService authService;
+    private final FileSearchIndexer fileSearchIndexer;
+
+    /**
+     * Search the current user's accessible files, one keyset page at a time
+     *
+     * @param request search filters
+     * @param cursor  cursor from the previous page, or null for the first page
+     * @param limit   page size, clamped to {@link CursorPage#MAX_LIMIT}
+     * @return CursorPage<FileResponse> - matching files, newest first
+     */
+    public CursorPage<FileResponse> search(FileSearchRequest request, Long cursor, Integer limit) {
+        User currentUser = authService.getCurrentUser();
+        int pageSize = CursorPage.clampLimit(limit);
+
+        List<Object> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(
+                "SELECT f.id, f.file_name, f.file_type, f.file_size, u.full_name, f.upload_date "
+                + "FROM files f JOIN users u ON u.id = f.uploaded_by "
+                + "WHERE f.deleted_at IS NULL AND f.id < ? "
+                + "AND (f.uploaded_by = ? "
+                + "OR EXISTS (SELECT 1 FROM file_shares fs WHERE fs.file_id = f.id AND fs.shared_with_user_id = ?) "
+                + "OR EXISTS (SELECT 1 FROM group_file_shares gs JOIN group_members m ON m.group_id = gs.group_id "
+                + "WHERE gs.file_id = f.id AND m.user_id = ?))");
+        args.add(CursorPage.upperBound(cursor));
+        args.add(currentUser.getId());
+        args.add(currentUser.getId());
+        args.add(currentUser.getId());
+
+        if (hasText(request.getQ())) {
+            List<String> words = words(request.getQ());
+            if (words.isEmpty()) {
+                throw new RuntimeException("Search query has no searchable words");
+            }
+            // A union rather than OR: each branch gets its own GIN index, which an OR across tables would lose
+            sql.append(" AND f.id IN (SELECT id FROM files WHERE deleted_at IS NULL AND "
+                    + FileSearchIndexer.NAME_VECTOR + " @@ to_tsquery('simple', ?) "
+                    + "UNION ALL SELECT fc.id FROM files fc JOIN blobs b ON b.digest = fc.content_hash "
+                    + "WHERE b.content_vector @@ plainto_tsquery(CAST(? AS regconfig), ?))");
+            args.add(words.stream().map(word -> word + ":*").collect(Collectors.joining(" & ")));
+            args.add(fileSearchIndexer.getLanguage());
+            args.add(String.join(" ", words));
+        }
+        if (hasText(request.getName())) {
+            sql.append(" AND f.file_name ILIKE ? ESCAPE '\\'");
+            args.add("%" + escapeLike(request.getName().trim()) + "%");
+        }
+        if (hasText(request.getType())) {
+            String type = request.getType().trim().toLowerCase(Locale.ROOT);
+            if (type.endsWith("/")) {
+                sql.append(" AND lower(f.file_type) LIKE ? ESCAPE '\\'");
+                args.add(escapeLike(type) + "%");
+            } else {
+                // Stored types may carry parameters, as in "text/plain; charset=utf-8"
+                sql.append(" AND (lower(f.file_type) = ? OR lower(f.file_type) LIKE ? ESCAPE '\\')");
+                args.add(type);
+                args.add(escapeLike(type) + ";%");
+            }
+        }
+        if (request.getMinSize() != null) {
+            sql.append(" AND f.file_size >= ?");
+            args.add(request.getMinSize());
+        }
+        if (request.getMaxSize() != null) {
+            sql.append(" AND f.file_size <= ?");
+            args.add(request.getMaxSize());
+        }
+        if (hasText(request.getUploader())) {
+            sql.append(" AND u.email = ?");
+            args.add(request.getUploader().trim());
+        }
+        if (request.getFrom() != null) {
+            sql.append(" AND f.upload_date >= ?");
+            args.add(Timestamp.valueOf(request.getFrom()));
+        }
+        if (request.getTo() != null) {
+            sql.append(" AND f.upload_date < ?");
+            args.add(Timestamp.valueOf(request.getTo()));
+        }
+        sql.append(" ORDER BY f.id DESC LIMIT ?");
+        args.add(pageSize + 1);
+
+        List<FileResponse> files = jdbcTemplate.query(sql.toString(),
+                (rs, rowNum) -> new FileResponse(
+                        rs.getLong("id"),
+                        rs.getString("file_name"),
+                        rs.getString("file_type"),
+                        rs.getLong("file_size"),
+                        rs.getString("full_name"),
+                        rs.getTimestamp("upload_date") != null ? rs.getTimestamp("upload_date").toLocalDateTime() : null),
+                args.toArray());
+
+        return CursorPage.of(files, pageSize, FileResponse::getId);
+    }
+
+    // Letters and digits only, so user input can never form tsquery syntax
+    private static List<String> words(String query) {
+        return Arrays.stream(query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(word -> !word.isEmpty())
+                .distinct()
+                .limit(MAX_QUERY_WORDS)
+                .toList();
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
+}
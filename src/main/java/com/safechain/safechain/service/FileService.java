@@ -1,44 +1,90 @@
 package com.safechain.safechain.service;
 
+import com.safechain.safechain.dto.BatchDeleteRequest;
+import com.safechain.safechain.dto.BatchDeleteResponse;
+import com.safechain.safechain.dto.BatchShareRequest;
+import com.safechain.safechain.dto.BatchShareResponse;
+import com.safechain.safechain.dto.BatchShareResult;
+import com.safechain.safechain.dto.CursorPage;
 import com.safechain.safechain.dto.FileResponse;
 import com.safechain.safechain.dto.ShareInfoResponse;
 import com.safechain.safechain.dto.ShareFileRequest;
+import com.safechain.safechain.dto.ShareWithGroupRequest;
+import com.safechain.safechain.dto.StorageUsageResponse;
 import com.safechain.safechain.entity.ActivityLog;
 import com.safechain.safechain.entity.File;
 import com.safechain.safechain.entity.FileShare;
+import com.safechain.safechain.entity.GroupShare;
 import com.safechain.safechain.entity.User;
+import com.safechain.safechain.entity.UserGroup;
 import com.safechain.safechain.repository.FileRepository;
 import com.safechain.safechain.repository.FileShareRepository;
-import com.safechain.safechain.repository.ActivityLogRepository;
+import com.safechain.safechain.repository.GroupShareRepository;
+import com.safechain.safechain.repository.UserGroupRepository;
 import com.safechain.safechain.repository.UserRepository;
+import com.safechain.safechain.security.FileAccessCache;
+import com.safechain.safechain.security.GroupMembershipCache;
+import com.safechain.safechain.storage.UploadPipeline;
+import com.safechain.safechain.util.ContentTypeSniffer;
+import com.safechain.safechain.util.SizeLimitInputStream;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class FileService {
 
+    private static final String INSERT_SHARE_SQL = "INSERT INTO file_shares "
+            + "(file_id, shared_with_user_id, shared_by_user_id, shared_date, created_at, updated_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final int SHARE_BATCH_SIZE = 500;
+
     private final FileRepository fileRepository;
     private final FileShareRepository fileShareRepository;
+    private final GroupShareRepository groupShareRepository;
+    private final UserGroupRepository userGroupRepository;
     private final UserRepository userRepository;
-    private final ActivityLogRepository activityLogRepository;
+    private final ActivityLogWriter activityLogWriter;
     private final AuthService authService;
+    private final BlobStorageService blobStorageService;
+    private final FileAccessCache fileAccessCache;
+    private final FileDownloadCache fileDownloadCache;
+    private final FileSearchIndexer fileSearchIndexer;
+    private final QuotaService quotaService;
+    private final GroupMembershipCache groupMembershipCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${file.max-upload-size}")
+    private DataSize maxUploadSize;
 
-    @Value("${file.upload-dir}")
-    private String uploadDir;
+    @Value("${file.share-batch.max-pairs}")
+    private int maxBatchPairs;
 
     /**
      * Upload a file
@@ -48,41 +94,99 @@ public class FileService {
      */
     public FileResponse uploadFile(MultipartFile file) throws IOException {
         User currentUser = authService.getCurrentUser();
+        quotaService.checkQuota(currentUser.getId(), file.getSize());
+        try (InputStream content = file.getInputStream()) {
+            return storeUpload(currentUser, content, file.getOriginalFilename(), file.getContentType());
+        }
+    }
 
-        // Create upload directory if it doesn't exist
-        Path uploadPath = Paths.get(uploadDir);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
+    /**
+     * Upload a file from a raw request body, writing it straight to storage
+     * without multipart buffering
+     *
+     * @param content       the request body
+     * @param fileName      original file name
+     * @param contentType   MIME type of the content
+     * @param contentLength declared length in bytes, or -1 if unknown
+     * @return FileResponse with file details
+     */
+    public FileResponse uploadStream(InputStream content, String fileName, String contentType,
+                                     long contentLength) throws IOException {
+        if (contentLength > maxUploadSize.toBytes()) {
+            throw new RuntimeException("File exceeds the maximum upload size of " + maxUploadSize);
         }
+        User currentUser = authService.getCurrentUser();
+        long remaining = quotaService.remaining(currentUser.getId());
+        if (contentLength > remaining) {
+            throw new RuntimeException("Storage quota exceeded: " + remaining + " bytes left");
+        }
+        // Without a declared length, a body that outgrows the quota is cut off while streaming
+        long limit = Math.min(maxUploadSize.toBytes(), remaining);
+        return storeUpload(currentUser, new SizeLimitInputStream(content, limit), fileName, contentType);
+    }
+
+    private FileResponse storeUpload(User currentUser, InputStream content, String fileName,
+                                     String contentType) throws IOException {
+        // Peek at the first bytes to type content sent without a specific type
+        BufferedInputStream buffered = new BufferedInputStream(content, ContentTypeSniffer.HEAD_SIZE);
+        buffered.mark(ContentTypeSniffer.HEAD_SIZE);
+        String type = ContentTypeSniffer.sniff(contentType, buffered.readNBytes(ContentTypeSniffer.HEAD_SIZE));
+        buffered.reset();
 
-        // Generate unique filename
-        String originalFilename = file.getOriginalFilename();
-        String fileExtension = originalFilename.substring(originalFilename.lastIndexOf("."));
-        String uniqueFilename = UUID.randomUUID().toString() + fileExtension;
+        // Save content to the deduplicating blob store, extracting its text for search on the way
+        UploadPipeline.Tap<String> extraction = fileSearchIndexer.extraction(type);
+        BlobStorageService.StoredBlob blob = blobStorageService.store(buffered, type,
+                extraction != null ? List.of(extraction) : List.of());
 
-        // Save file to disk
-        Path filePath = uploadPath.resolve(uniqueFilename);
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+        return registerUpload(currentUser, blob, fileName, type, extraction);
+    }
+
+    /**
+     * Create the file record for content that is already in the blob store
+     *
+     * @param currentUser the uploading user
+     * @param blob        the stored blob, whose reference is handed over to the new file
+     * @param fileName    original file name
+     * @param contentType MIME type of the content
+     * @return FileResponse with file details
+     */
+    public FileResponse registerUpload(User currentUser, BlobStorageService.StoredBlob blob,
+                                       String fileName, String contentType) throws IOException {
+        return registerUpload(currentUser, blob, fileName, contentType, null);
+    }
 
+    private FileResponse registerUpload(User currentUser, BlobStorageService.StoredBlob blob, String fileName,
+                                        String contentType, UploadPipeline.Tap<String> extraction) {
         // Create file entity
         File fileEntity = new File();
-        fileEntity.setFileName(originalFilename);
-        fileEntity.setFilePath(filePath.toString());
-        fileEntity.setFileType(file.getContentType());
-        fileEntity.setFileSize(file.getSize());
+        fileEntity.setFileName(fileName);
+        fileEntity.setFilePath(blob.location());
+        fileEntity.setContentHash(blob.digest());
+        fileEntity.setFileType(contentType);
+        fileEntity.setFileSize(blob.size());
+        fileEntity.setStoredSize(blob.storedSize());
+        fileEntity.setCodec(blob.codec());
         fileEntity.setUploadedBy(currentUser);
         fileEntity.setUploadDate(LocalDateTime.now());
 
-        // Save to database
-        File savedFile = fileRepository.save(fileEntity);
-
-        // Log activity
-        ActivityLog log = new ActivityLog();
-        log.setEventType(ActivityLog.EventType.UPLOAD);
-        log.setUser(currentUser);
-        log.setFile(savedFile);
-        log.setDetails("Uploaded file: " + savedFile.getFileName());
-        activityLogRepository.save(log);
+        // Charge the quota and save to database in one transaction, so the counter cannot move without the file
+        File savedFile;
+        try {
+            savedFile = transactionTemplate.execute(status -> {
+                quotaService.charge(currentUser.getId(), blob.size());
+                File saved = fileRepository.save(fileEntity);
+
+                // Log activity and index the content once the file is committed
+                activityLogWriter.record(ActivityLog.EventType.UPLOAD, currentUser.getId(), saved.getId(),
+                        "Uploaded file: " + saved.getFileName());
+                fileSearchIndexer.indexAfterCommit(blob.digest(), blob.size(), contentType, extraction);
+                return saved;
+            });
+        } catch (RuntimeException e) {
+            // The blob reference was taken in a transaction of its own
+            blobStorageService.release(blob.digest());
+            throw e;
+        }
 
         return new FileResponse(
                 savedFile.getId(),
@@ -94,43 +198,44 @@ public class FileService {
     }
 
     /**
-     * Get files uploaded by current user
+     * Get files uploaded by current user, one keyset page at a time
      * 
-     * @return List<FileResponse> - user's files
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit  page size, clamped to {@link CursorPage#MAX_LIMIT}
+     * @return CursorPage<FileResponse> - user's files, newest first
      */
-    public List<FileResponse> getMyFiles() {
+    public CursorPage<FileResponse> getMyFiles(Long cursor, Integer limit) {
         User currentUser = authService.getCurrentUser();
-        List<File> files = fileRepository.findByUploadedBy(currentUser);
-
-        return files.stream()
-                .map(file -> new FileResponse(
-                        file.getId(),
-                        file.getFileName(),
-                        file.getFileType(),
-                        file.getFileSize(),
-                        file.getUploadedBy().getFullName(),
-                        file.getUploadDate()))
-                .collect(Collectors.toList());
+        int pageSize = CursorPage.clampLimit(limit);
+        List<FileResponse> files = fileRepository.findPageByUploader(
+                currentUser.getId(), CursorPage.upperBound(cursor), PageRequest.of(0, pageSize + 1));
+
+        return CursorPage.of(files, pageSize, FileResponse::getId);
     }
 
     /**
-     * Get files shared with current user
+     * Get files shared with current user, one keyset page at a time
      * 
-     * @return List<FileResponse> - shared files
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit  page size, clamped to {@link CursorPage#MAX_LIMIT}
+     * @return CursorPage<FileResponse> - shared files, newest first
      */
-    public List<FileResponse> getSharedFiles() {
+    public CursorPage<FileResponse> getSharedFiles(Long cursor, Integer limit) {
         User currentUser = authService.getCurrentUser();
-        List<File> files = fileRepository.findFilesSharedWithUser(currentUser.getId());
-
-        return files.stream()
-                .map(file -> new FileResponse(
-                        file.getId(),
-                        file.getFileName(),
-                        file.getFileType(),
-                        file.getFileSize(),
-                        file.getUploadedBy().getFullName(),
-                        file.getUploadDate()))
-                .collect(Collectors.toList());
+        int pageSize = CursorPage.clampLimit(limit);
+        List<FileResponse> files = fileRepository.findPageSharedWithUser(
+                currentUser.getId(), CursorPage.upperBound(cursor), pageSize + 1);
+
+        return CursorPage.of(files, pageSize, FileResponse::getId);
+    }
+
+    /**
+     * Get the current user's storage usage and quota
+     *
+     * @return StorageUsageResponse - bytes used and the effective quota
+     */
+    public StorageUsageResponse getMyUsage() {
+        return quotaService.getUsage(authService.getCurrentUser().getId());
     }
 
     /**
@@ -168,54 +273,298 @@ public class FileService {
         fileShare.setSharedDate(LocalDateTime.now());
 
         fileShareRepository.save(fileShare);
+        fileAccessCache.invalidate(file.getId(), userToShareWith.getId());
 
         // Log activity
-        ActivityLog log = new ActivityLog();
-        log.setEventType(ActivityLog.EventType.SHARE);
-        log.setUser(currentUser);
-        log.setFile(file);
-        log.setDetails("Shared file with " + userToShareWith.getEmail());
-        activityLogRepository.save(log);
+        activityLogWriter.record(ActivityLog.EventType.SHARE, currentUser.getId(), file.getId(),
+                "Shared file with " + userToShareWith.getEmail());
 
         return "File shared successfully with " + userToShareWith.getFullName();
     }
 
     /**
-     * Download a file
+     * Share a file with every member of a group. This writes a single row
+     * however large the group is; members gain access through their
+     * membership rather than per-user share rows
+     *
+     * @param request the file and group
+     * @return String - success message
+     */
+    public String shareWithGroup(ShareWithGroupRequest request) {
+        User currentUser = authService.getCurrentUser();
+
+        File file = fileRepository.findById(request.getFileId())
+                .orElseThrow(() -> new RuntimeException("File not found"));
+
+        if (!file.getUploadedBy().getId().equals(currentUser.getId())) {
+            throw new RuntimeException("You can only share files you own");
+        }
+
+        UserGroup group = userGroupRepository.findById(request.getGroupId())
+                .orElseThrow(() -> new RuntimeException("Group not found"));
+
+        if (!groupMembershipCache.groupsOf(currentUser.getId()).contains(group.getId())) {
+            throw new RuntimeException("You can only share with groups you belong to");
+        }
+
+        if (groupShareRepository.findShare(file.getId(), group.getId()).isPresent()) {
+            throw new RuntimeException("File already shared with this group");
+        }
+
+        GroupShare groupShare = new GroupShare();
+        groupShare.setFile(file);
+        groupShare.setGroup(group);
+        groupShare.setSharedByUser(currentUser);
+
+        groupShareRepository.save(groupShare);
+        fileAccessCache.invalidateFile(file.getId());
+
+        activityLogWriter.record(ActivityLog.EventType.SHARE, currentUser.getId(), file.getId(),
+                "Shared file with group " + group.getName());
+
+        return "File shared successfully with group " + group.getName();
+    }
+
+    /**
+     * Revoke a group's access to a file (owner-only)
+     *
+     * @param fileId  the file ID
+     * @param groupId the group to unshare from
+     * @return String - success message
+     */
+    public String unshareFromGroup(Long fileId, Long groupId) {
+        User currentUser = authService.getCurrentUser();
+
+        File file = fileRepository.findById(fileId)
+                .orElseThrow(() -> new RuntimeException("File not found"));
+
+        if (!file.getUploadedBy().getId().equals(currentUser.getId())) {
+            throw new RuntimeException("You can only modify shares for files you own");
+        }
+
+        GroupShare groupShare = groupShareRepository.findShare(fileId, groupId)
+                .orElseThrow(() -> new RuntimeException("This file is not shared with the specified group"));
+
+        groupShareRepository.delete(groupShare);
+        fileAccessCache.invalidateFile(fileId);
+
+        activityLogWriter.record(ActivityLog.EventType.SHARE, currentUser.getId(), fileId,
+                "Revoked access for group id=" + groupId);
+
+        return "Access revoked for group";
+    }
+
+    /**
+     * Share many files with many users at once. Every (file, email) pair gets
+     * its own result, and pairs that cannot be shared are reported instead of
+     * failing the whole batch. Files, users and existing shares are each
+     * looked up with one query; new shares and their audit rows are inserted
+     * as JDBC batches in a single transaction.
+     *
+     * @param request the files and recipient emails
+     * @return BatchShareResponse - per-pair results in request order
+     */
+    @Transactional
+    public BatchShareResponse shareFiles(BatchShareRequest request) {
+        User currentUser = authService.getCurrentUser();
+        BatchTargets targets = resolveBatch(request, currentUser);
+
+        List<BatchShareResult> results = new ArrayList<>();
+        List<Long[]> created = new ArrayList<>();
+        List<ActivityLogWriter.Event> events = new ArrayList<>();
+        for (Long fileId : targets.fileIds()) {
+            for (String email : targets.emails()) {
+                BatchShareResult.Status status = targets.rejection(fileId, email);
+                if (status == null) {
+                    Long userId = targets.users().get(email).getId();
+                    if (targets.existing().contains(List.of(fileId, userId))) {
+                        status = BatchShareResult.Status.ALREADY_SHARED;
+                    } else {
+                        status = BatchShareResult.Status.SHARED;
+                        created.add(new Long[]{fileId, userId});
+                        events.add(ActivityLogWriter.Event.of(ActivityLog.EventType.SHARE, currentUser.getId(),
+                                fileId, "Shared file with " + email));
+                    }
+                }
+                results.add(new BatchShareResult(fileId, email, status));
+            }
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT_SHARE_SQL, created, SHARE_BATCH_SIZE, (ps, pair) -> {
+            ps.setLong(1, pair[0]);
+            ps.setLong(2, pair[1]);
+            ps.setLong(3, currentUser.getId());
+            ps.setTimestamp(4, now);
+            ps.setTimestamp(5, now);
+            ps.setTimestamp(6, now);
+        });
+        activityLogWriter.writeNow(events);
+        invalidateAfterCommit(created);
+
+        return summarize(results);
+    }
+
+    /**
+     * Revoke many users' access to many files at once. Matching shares are
+     * removed with a single set-based delete; results are per pair, as for
+     * {@link #shareFiles(BatchShareRequest)}.
+     *
+     * @param request the files and recipient emails
+     * @return BatchShareResponse - per-pair results in request order
+     */
+    @Transactional
+    public BatchShareResponse unshareFiles(BatchShareRequest request) {
+        User currentUser = authService.getCurrentUser();
+        BatchTargets targets = resolveBatch(request, currentUser);
+
+        List<BatchShareResult> results = new ArrayList<>();
+        List<Long[]> removed = new ArrayList<>();
+        List<ActivityLogWriter.Event> events = new ArrayList<>();
+        for (Long fileId : targets.fileIds()) {
+            for (String email : targets.emails()) {
+                BatchShareResult.Status status = targets.rejection(fileId, email);
+                if (status == null) {
+                    Long userId = targets.users().get(email).getId();
+                    if (targets.existing().contains(List.of(fileId, userId))) {
+                        status = BatchShareResult.Status.UNSHARED;
+                        removed.add(new Long[]{fileId, userId});
+                        events.add(ActivityLogWriter.Event.of(ActivityLog.EventType.SHARE, currentUser.getId(),
+                                fileId, "Revoked access for " + email));
+                    } else {
+                        status = BatchShareResult.Status.NOT_SHARED;
+                    }
+                }
+                results.add(new BatchShareResult(fileId, email, status));
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            fileShareRepository.deleteSharedPairs(targets.ownedFileIds(), targets.userIds());
+        }
+        activityLogWriter.writeNow(events);
+        invalidateAfterCommit(removed);
+
+        return summarize(results);
+    }
+
+    private BatchTargets resolveBatch(BatchShareRequest request, User currentUser) {
+        List<Long> fileIds = List.copyOf(new LinkedHashSet<>(request.getFileIds()));
+        List<String> emails = List.copyOf(new LinkedHashSet<>(request.getUserEmails()));
+        if ((long) fileIds.size() * emails.size() > maxBatchPairs) {
+            throw new RuntimeException("Batch too large: at most " + maxBatchPairs + " file/user pairs per request");
+        }
+
+        Map<Long, File> files = fileRepository.findAllById(fileIds).stream()
+                .collect(Collectors.toMap(File::getId, Function.identity()));
+        Map<String, User> users = userRepository.findByEmailIn(emails).stream()
+                .collect(Collectors.toMap(User::getEmail, Function.identity()));
+
+        // Only the caller's own files are eligible, so only their shares need checking
+        Set<Long> ownedFileIds = files.values().stream()
+                .filter(file -> file.getUploadedBy().getId().equals(currentUser.getId()))
+                .map(File::getId)
+                .collect(Collectors.toSet());
+        Set<Long> userIds = users.values().stream().map(User::getId).collect(Collectors.toSet());
+
+        Set<List<Long>> existing = new HashSet<>();
+        if (!ownedFileIds.isEmpty() && !userIds.isEmpty()) {
+            for (Object[] pair : fileShareRepository.findSharedPairs(ownedFileIds, userIds)) {
+                existing.add(List.of((Long) pair[0], (Long) pair[1]));
+            }
+        }
+        return new BatchTargets(fileIds, emails, files, users, ownedFileIds, userIds, existing);
+    }
+
+    private void invalidateAfterCommit(List<Long[]> pairs) {
+        // Evicting before commit would let a concurrent download cache the old answer again
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                for (Long[] pair : pairs) {
+                    fileAccessCache.invalidate(pair[0], pair[1]);
+                }
+            }
+        });
+    }
+
+    private static BatchShareResponse summarize(List<BatchShareResult> results) {
+        int succeeded = (int) results.stream().filter(result -> result.getStatus().isSuccess()).count();
+        return new BatchShareResponse(succeeded, results.size() - succeeded, results);
+    }
+
+    /**
+     * Everything a batch share or unshare needs, loaded up front
+     */
+    private record BatchTargets(List<Long> fileIds, List<String> emails, Map<Long, File> files,
+                                Map<String, User> users, Set<Long> ownedFileIds, Set<Long> userIds,
+                                Set<List<Long>> existing) {
+
+        /**
+         * @return BatchShareResult.Status - why the pair cannot be changed, or null if it can
+         */
+        BatchShareResult.Status rejection(Long fileId, String email) {
+            if (!files.containsKey(fileId)) {
+                return BatchShareResult.Status.FILE_NOT_FOUND;
+            }
+            if (!ownedFileIds.contains(fileId)) {
+                return BatchShareResult.Status.NOT_OWNER;
+            }
+            if (!users.containsKey(email)) {
+                return BatchShareResult.Status.USER_NOT_FOUND;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Look up a file for download, checking the current user's access
      * 
      * @param fileId the file ID
-     * @return File - the file entity
+     * @return FileDownloadCache.Download - what it takes to send the file
      */
-    public File downloadFile(Long fileId) {
+    public FileDownloadCache.Download downloadFile(Long fileId) throws IOException {
         User currentUser = authService.getCurrentUser();
 
         // Find the file
-        File file = fileRepository.findById(fileId)
-                .orElseThrow(() -> new RuntimeException("File not found"));
+        FileDownloadCache.Download file = fileDownloadCache.get(fileId);
 
-        // Check if user has access (owner or shared with)
-        boolean isOwner = file.getUploadedBy().getId().equals(currentUser.getId());
-        boolean isShared = fileShareRepository.hasUserAccessToFile(fileId, currentUser.getId());
+        // Check if user has access (owner, shared with, or via a group), remembering the answer
+        boolean hasAccess = fileAccessCache.isAllowed(fileId, currentUser.getId(),
+                () -> file.ownerId().equals(currentUser.getId())
+                        || fileShareRepository.hasUserAccessToFile(fileId, currentUser.getId())
+                        || isSharedWithGroupOf(fileId, currentUser.getId()));
 
-        if (!isOwner && !isShared) {
+        if (!hasAccess) {
             throw new RuntimeException("You don't have access to this file");
         }
 
-        // Log activity
-        ActivityLog log = new ActivityLog();
-        log.setEventType(ActivityLog.EventType.DOWNLOAD);
-        log.setUser(currentUser);
-        log.setFile(file);
-        log.setDetails("Downloaded file: " + file.getFileName());
-        activityLogRepository.save(log);
-
         return file;
     }
 
     /**
-     * Delete a file (owner or admin)
+     * Record that the current user was sent a file's content. Revalidations
+     * answered with 304, failed preconditions and unsatisfiable ranges are
+     * not downloads and are not recorded
+     *
+     * @param file the file that was sent
      */
-    public String deleteFile(Long fileId) throws IOException {
+    public void recordDownload(FileDownloadCache.Download file) {
+        activityLogWriter.record(ActivityLog.EventType.DOWNLOAD, authService.getCurrentUser().getId(), file.id(),
+                "Downloaded file: " + file.fileName());
+    }
+
+    private boolean isSharedWithGroupOf(Long fileId, Long userId) {
+        Set<Long> groupIds = groupMembershipCache.groupsOf(userId);
+        return !groupIds.isEmpty() && groupShareRepository.isSharedWithAnyGroup(fileId, groupIds);
+    }
+
+    /**
+     * Delete a file (owner or admin). The file vanishes at once; its shares
+     * and storage are reclaimed in the background by {@link StorageGarbageCollector}
+     */
+    @Transactional
+    public String deleteFile(Long fileId) {
         User currentUser = authService.getCurrentUser();
         File file = fileRepository.findById(fileId).orElseThrow(() -> new RuntimeException("File not found"));
 
@@ -225,31 +574,70 @@ public class FileService {
             throw new RuntimeException("You don't have permission to delete this file");
         }
 
-        // Delete shares
-        fileShareRepository.deleteByFile(file);
-
-        // Delete file on disk
-        Path filePath = Paths.get(file.getFilePath());
-        try {
-            Files.deleteIfExists(filePath);
-        } catch (IOException e) {
-            // Continue, but report failure
+        if (fileRepository.markDeleted(fileId) == 0) {
+            throw new RuntimeException("File not found");
         }
-
-        // Delete metadata
-        fileRepository.delete(file);
+        quotaService.credit(file.getUploadedBy().getId(), file.getFileSize());
+        // After commit, or a concurrent download could cache the file again before it is gone
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                fileAccessCache.invalidateFile(fileId);
+            }
+        });
 
         // Log activity
-        ActivityLog log = new ActivityLog();
-        log.setEventType(ActivityLog.EventType.DELETE);
-        log.setUser(currentUser);
-        log.setFile(null);
-        log.setDetails("Deleted file id=" + fileId + ", name=" + file.getFileName());
-        activityLogRepository.save(log);
+        activityLogWriter.record(ActivityLog.EventType.DELETE, currentUser.getId(), fileId,
+                "Deleted file id=" + fileId + ", name=" + file.getFileName());
 
         return "File deleted";
     }
 
+    /**
+     * Delete many files at once (own files, or any file for admins). All
+     * eligible files are marked deleted in a single statement; files that
+     * do not exist, are already deleted or belong to someone else are
+     * reported as skipped
+     *
+     * @param request the file IDs
+     * @return BatchDeleteResponse - which files were deleted and which were skipped
+     */
+    @Transactional
+    public BatchDeleteResponse deleteFiles(BatchDeleteRequest request) {
+        User currentUser = authService.getCurrentUser();
+        boolean isAdmin = currentUser.getRole() == User.Role.ADMIN;
+        List<Long> fileIds = List.copyOf(new LinkedHashSet<>(request.getFileIds()));
+
+        List<ActivityLogWriter.Event> events = new ArrayList<>();
+        // Sorted, so concurrent batches lock uploaders' counters in the same order
+        Map<Long, Long> freedByUploader = new TreeMap<>();
+        jdbcTemplate.query("UPDATE files SET deleted_at = now(), updated_at = now() "
+                        + "WHERE id = ANY(?) AND deleted_at IS NULL AND (uploaded_by = ? OR ?) "
+                        + "RETURNING id, file_name, uploaded_by, file_size",
+                rs -> {
+                    long fileId = rs.getLong(1);
+                    events.add(ActivityLogWriter.Event.of(ActivityLog.EventType.DELETE, currentUser.getId(), fileId,
+                            "Deleted file id=" + fileId + ", name=" + rs.getString(2)));
+                    freedByUploader.merge(rs.getLong(3), rs.getLong(4), Long::sum);
+                },
+                fileIds.toArray(Long[]::new), currentUser.getId(), isAdmin);
+        freedByUploader.forEach(quotaService::credit);
+        activityLogWriter.writeNow(events);
+
+        List<Long> deleted = events.stream().map(ActivityLogWriter.Event::fileId).toList();
+        Set<Long> deletedSet = Set.copyOf(deleted);
+        List<Long> skipped = fileIds.stream().filter(fileId -> !deletedSet.contains(fileId)).toList();
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                fileAccessCache.invalidateFiles(deleted);
+            }
+        });
+
+        return new BatchDeleteResponse(deleted.size(), deleted, skipped);
+    }
+
     /**
      * List users who have access to a file (owner-only)
      *
@@ -266,15 +654,7 @@ public class FileService {
             throw new RuntimeException("You can only view shares for files you own");
         }
 
-        List<FileShare> shares = fileShareRepository.findByFile(file);
-        return shares.stream()
-                .map(share -> new ShareInfoResponse(
-                        share.getSharedWithUser().getId(),
-                        share.getSharedWithUser().getEmail(),
-                        share.getSharedWithUser().getFullName(),
-                        share.getSharedByUser().getEmail(),
-                        share.getSharedDate()))
-                .collect(Collectors.toList());
+        return fileShareRepository.findShareInfoByFileId(fileId);
     }
 
     /**
@@ -303,13 +683,10 @@ public class FileService {
         }
 
         fileShareRepository.delete(existing.get());
+        fileAccessCache.invalidate(file.getId(), targetUser.getId());
 
-        ActivityLog log = new ActivityLog();
-        log.setEventType(ActivityLog.EventType.SHARE);
-        log.setUser(currentUser);
-        log.setFile(file);
-        log.setDetails("Revoked access for " + targetUser.getEmail());
-        activityLogRepository.save(log);
+        activityLogWriter.record(ActivityLog.EventType.SHARE, currentUser.getId(), file.getId(),
+                "Revoked access for " + targetUser.getEmail());
 
         return "Access revoked for " + targetUser.getFullName();
     }
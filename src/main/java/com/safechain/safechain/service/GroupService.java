@@ -0,0 +1,204 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.dto.AddGroupMemberRequest;
+import com.safechain.safechain.dto.CreateGroupRequest;
+import com.safechain.safechain.dto.GroupMemberResponse;
+import com.safechain.safechain.dto.GroupResponse;
+import com.safechain.safechain.entity.GroupMember;
+import com.safechain.safechain.entity.User;
+import com.safechain.safechain.entity.UserGroup;
+import com.safechain.safechain.repository.GroupMemberRepository;
+import com.safechain.safechain.repository.GroupShareRepository;
+import com.safechain.safechain.repository.UserGroupRepository;
+import com.safechain.safechain.repository.UserRepository;
+import com.safechain.safechain.security.FileAccessCache;
+import com.safechain.safechain.security.GroupMembershipCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+/**
+ * Groups of users that files can be shared with as a unit. A group is
+ * managed by its owner (or an admin); membership changes evict the member's
+ * cached memberships and file-access decisions.
+ */
+@Service
+@RequiredArgsConstructor
+public class GroupService {
+
+    private final UserGroupRepository userGroupRepository;
+    private final GroupMemberRepository groupMemberRepository;
+    private final GroupShareRepository groupShareRepository;
+    private final UserRepository userRepository;
+    private final AuthService authService;
+    private final GroupMembershipCache groupMembershipCache;
+    private final FileAccessCache fileAccessCache;
+    private final QuotaService quotaService;
+
+    /**
+     * Create a group owned by the current user, who becomes its first member
+     *
+     * @param request the group name
+     * @return GroupResponse - the new group
+     */
+    @Transactional
+    public GroupResponse createGroup(CreateGroupRequest request) {
+        User currentUser = authService.getCurrentUser();
+
+        if (userGroupRepository.existsByName(request.getName())) {
+            throw new RuntimeException("Group name is already taken");
+        }
+
+        UserGroup group = new UserGroup();
+        group.setName(request.getName());
+        group.setOwner(currentUser);
+        userGroupRepository.save(group);
+
+        GroupMember membership = new GroupMember();
+        membership.setGroup(group);
+        membership.setUser(currentUser);
+        groupMemberRepository.save(membership);
+        quotaService.chargeMembership(group.getId(), currentUser.getId());
+        evictAfterCommit(List.of(currentUser.getId()));
+
+        return new GroupResponse(group.getId(), group.getName(), currentUser.getEmail(), group.getCreatedAt());
+    }
+
+    /**
+     * List the groups the current user belongs to
+     *
+     * @return List<GroupResponse> - groups ordered by name
+     */
+    public List<GroupResponse> getMyGroups() {
+        User currentUser = authService.getCurrentUser();
+        return userGroupRepository.findGroupsOfUser(currentUser.getId());
+    }
+
+    /**
+     * List a group's members (members and admins only)
+     *
+     * @param groupId the group ID
+     * @return List<GroupMemberResponse> - members in the order they joined
+     */
+    public List<GroupMemberResponse> listMembers(Long groupId) {
+        User currentUser = authService.getCurrentUser();
+        findGroup(groupId);
+
+        if (currentUser.getRole() != User.Role.ADMIN
+                && !groupMembershipCache.groupsOf(currentUser.getId()).contains(groupId)) {
+            throw new RuntimeException("You can only view members of groups you belong to");
+        }
+
+        return groupMemberRepository.findMemberInfoByGroupId(groupId);
+    }
+
+    /**
+     * Add a user to a group (group owner or admin)
+     *
+     * @param groupId the group ID
+     * @param request the email of the user to add
+     * @return String - success message
+     */
+    @Transactional
+    public String addMember(Long groupId, AddGroupMemberRequest request) {
+        UserGroup group = findManagedGroup(groupId);
+
+        User user = userRepository.findByEmail(request.getUserEmail())
+                .orElseThrow(() -> new RuntimeException("User not found"));
+
+        if (groupMemberRepository.findMembership(groupId, user.getId()).isPresent()) {
+            throw new RuntimeException("User is already a member of this group");
+        }
+
+        GroupMember membership = new GroupMember();
+        membership.setGroup(group);
+        membership.setUser(user);
+        groupMemberRepository.save(membership);
+        quotaService.chargeMembership(groupId, user.getId());
+        evictAfterCommit(List.of(user.getId()));
+
+        return user.getFullName() + " added to " + group.getName();
+    }
+
+    /**
+     * Remove a user from a group. The group owner and admins may remove
+     * anyone but the owner; any member may remove themselves
+     *
+     * @param groupId the group ID
+     * @param userId  the member to remove
+     * @return String - success message
+     */
+    @Transactional
+    public String removeMember(Long groupId, Long userId) {
+        User currentUser = authService.getCurrentUser();
+        UserGroup group = findGroup(groupId);
+
+        if (!currentUser.getId().equals(userId) && !canManage(group, currentUser)) {
+            throw new RuntimeException("Only the group owner can remove other members");
+        }
+        if (group.getOwner().getId().equals(userId)) {
+            throw new RuntimeException("The group owner cannot be removed");
+        }
+
+        GroupMember membership = groupMemberRepository.findMembership(groupId, userId)
+                .orElseThrow(() -> new RuntimeException("User is not a member of this group"));
+
+        groupMemberRepository.delete(membership);
+        quotaService.creditMembership(groupId, userId);
+        evictAfterCommit(List.of(userId));
+
+        return "Member removed from " + group.getName();
+    }
+
+    /**
+     * Delete a group with its memberships and shares (group owner or admin)
+     *
+     * @param groupId the group ID
+     * @return String - success message
+     */
+    @Transactional
+    public String deleteGroup(Long groupId) {
+        UserGroup group = findManagedGroup(groupId);
+        List<Long> memberIds = groupMemberRepository.findUserIdsByGroupId(groupId);
+
+        groupShareRepository.deleteByGroup(group);
+        groupMemberRepository.deleteByGroup(group);
+        userGroupRepository.delete(group);
+        evictAfterCommit(memberIds);
+
+        return "Group deleted";
+    }
+
+    private UserGroup findGroup(Long groupId) {
+        return userGroupRepository.findById(groupId)
+                .orElseThrow(() -> new RuntimeException("Group not found"));
+    }
+
+    private UserGroup findManagedGroup(Long groupId) {
+        User currentUser = authService.getCurrentUser();
+        UserGroup group = findGroup(groupId);
+
+        if (!canManage(group, currentUser)) {
+            throw new RuntimeException("Only the group owner can manage this group");
+        }
+        return group;
+    }
+
+    private static boolean canManage(UserGroup group, User user) {
+        return group.getOwner().getId().equals(user.getId()) || user.getRole() == User.Role.ADMIN;
+    }
+
+    private void evictAfterCommit(List<Long> userIds) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                userIds.forEach(groupMembershipCache::invalidate);
+                fileAccessCache.invalidateUsers(userIds);
+            }
+        });
+    }
+}
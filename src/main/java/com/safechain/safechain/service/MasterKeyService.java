@@ -0,0 +1,210 @@
+package com.safechain.safechain.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Envelope encryption keys. Every encrypted blob has its own random AES-256
+ * data key, stored next to the blob row wrapped (AES-GCM) by a master key
+ * that never touches the database.
+ * <p>
+ * The active master key comes from {@code encryption.master-key} or, when
+ * that is blank, from {@code encryption.master-key-file}, which is created
+ * on first start if encryption is enabled. Keys are identified by a short
+ * fingerprint stored with each wrapped key, so rotating means configuring a
+ * new master key and moving the old one to {@code encryption.retired-master-keys}.
+ * <p>
+ * The same master keys also authenticate activity-log checkpoints, through
+ * an HMAC key derived from them so the raw key only ever serves AES.
+ */
+@Slf4j
+@Service
+public class MasterKeyService {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int KEY_SIZE = 32;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] MAC_KEY_LABEL = "safechain-mac".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, SecretKey> masterKeys = new LinkedHashMap<>();
+    private final String activeKeyId;
+
+    public MasterKeyService(@Value("${encryption.enabled}") boolean enabled,
+                            @Value("${encryption.master-key:}") String masterKey,
+                            @Value("${encryption.master-key-file}") String masterKeyFile,
+                            @Value("${encryption.retired-master-keys:}") List<String> retiredKeys) throws IOException {
+        String active = !masterKey.isBlank() ? masterKey.trim() : readKeyFile(Paths.get(masterKeyFile), enabled);
+        this.activeKeyId = active != null ? register(active) : null;
+        for (String retired : retiredKeys) {
+            if (!retired.isBlank()) {
+                register(retired.trim());
+            }
+        }
+    }
+
+    /**
+     * @return SecretKey - a fresh random AES-256 data key
+     */
+    public SecretKey newDataKey() {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(KEY_SIZE * 8, random);
+            return generator.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES not available", e);
+        }
+    }
+
+    /**
+     * Encrypt a data key under the active master key
+     *
+     * @param dataKey the key to wrap
+     * @return WrappedKey - master key ID and the wrapped bytes
+     */
+    public WrappedKey wrap(SecretKey dataKey) {
+        if (activeKeyId == null) {
+            throw new IllegalStateException("No master key configured");
+        }
+        byte[] nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, masterKeys.get(activeKeyId), new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(activeKeyId.getBytes(StandardCharsets.US_ASCII));
+            byte[] sealed = cipher.doFinal(dataKey.getEncoded());
+            byte[] wrapped = Arrays.copyOf(nonce, NONCE_SIZE + sealed.length);
+            System.arraycopy(sealed, 0, wrapped, NONCE_SIZE, sealed.length);
+            return new WrappedKey(activeKeyId, wrapped);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not wrap data key", e);
+        }
+    }
+
+    /**
+     * Recover a data key wrapped by {@link #wrap(SecretKey)}
+     *
+     * @param keyId   ID of the master key it was wrapped with
+     * @param wrapped the wrapped bytes
+     * @return SecretKey - the data key
+     */
+    public SecretKey unwrap(String keyId, byte[] wrapped) throws IOException {
+        SecretKey masterKey = masterKeys.get(keyId);
+        if (masterKey == null) {
+            throw new IOException("Master key " + keyId + " is not configured");
+        }
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BITS, wrapped, 0, NONCE_SIZE));
+            cipher.updateAAD(keyId.getBytes(StandardCharsets.US_ASCII));
+            return new SecretKeySpec(cipher.doFinal(wrapped, NONCE_SIZE, wrapped.length - NONCE_SIZE), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not unwrap data key with master key " + keyId, e);
+        }
+    }
+
+    /**
+     * @return String - ID of the master key new keys and MACs are made with, or null if none is configured
+     */
+    public String getActiveKeyId() {
+        return activeKeyId;
+    }
+
+    /**
+     * Authenticate data with HMAC-SHA256 under a key derived from a master key
+     *
+     * @param keyId ID of the master key
+     * @param data  the bytes to authenticate
+     * @return byte[] - the 32-byte MAC
+     */
+    public byte[] mac(String keyId, byte[] data) throws IOException {
+        SecretKey masterKey = masterKeys.get(keyId);
+        if (masterKey == null) {
+            throw new IOException("Master key " + keyId + " is not configured");
+        }
+        try {
+            Mac derive = Mac.getInstance(MAC_ALGORITHM);
+            derive.init(masterKey);
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(derive.doFinal(MAC_KEY_LABEL), MAC_ALGORITHM));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " not available", e);
+        }
+    }
+
+    private String register(String encoded) {
+        byte[] key = Base64.getDecoder().decode(encoded);
+        if (key.length != KEY_SIZE) {
+            throw new IllegalStateException("Master keys must be " + KEY_SIZE + " bytes, base64-encoded");
+        }
+        String keyId = fingerprint(key);
+        masterKeys.put(keyId, new SecretKeySpec(key, "AES"));
+        return keyId;
+    }
+
+    private String readKeyFile(Path path, boolean create) throws IOException {
+        if (Files.exists(path)) {
+            return Files.readString(path, StandardCharsets.US_ASCII).trim();
+        }
+        if (!create) {
+            return null;
+        }
+
+        byte[] key = new byte[KEY_SIZE];
+        random.nextBytes(key);
+        String encoded = Base64.getEncoder().encodeToString(key);
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try {
+            // Owner-only from the moment it exists
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(path);
+        }
+        Files.writeString(path, encoded + "\n", StandardCharsets.US_ASCII);
+        // Losing this file makes every encrypted blob unreadable
+        log.warn("Generated a new master key in {}; back it up and keep it away from the blob storage",
+                path.toAbsolutePath());
+        return encoded;
+    }
+
+    private static String fingerprint(byte[] key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key);
+            return HexFormat.of().formatHex(hash, 0, 4);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public record WrappedKey(String keyId, byte[] wrapped) {
+    }
+}
@@ -0,0 +1,289 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.dto.CursorPage;
+import com.safechain.safechain.dto.StorageUsageResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+
+/**
+ * Storage quotas backed by running usage counters, so neither enforcement
+ * nor reporting ever sums over {@code files}.
+ * <p>
+ * {@code users.storage_used} is the total size of the user's live files and
+ * {@code user_groups.storage_used} the total of its members' counters. Both
+ * move by single-row arithmetic updates in the same transaction as the
+ * change they account for; a charge is conditional on staying within the
+ * limit, so concurrent uploads can never overshoot it. Rows are always
+ * locked user first, then groups in ID order, so concurrent charges cannot
+ * deadlock.
+ * <p>
+ * Counters are filled in from {@code files} at startup for rows that
+ * predate them, and can be rebuilt on demand should they ever drift.
+ */
+@Slf4j
+@Service
+public class QuotaService implements SmartLifecycle {
+
+    private static final String RECOUNT_USERS_SQL = "UPDATE users u SET storage_used = COALESCE("
+            + "(SELECT SUM(f.file_size) FROM files f WHERE f.uploaded_by = u.id AND f.deleted_at IS NULL), 0)";
+    private static final String RECOUNT_GROUPS_SQL = "UPDATE user_groups g SET storage_used = COALESCE("
+            + "(SELECT SUM(u.storage_used) FROM group_members m JOIN users u ON u.id = m.user_id "
+            + "WHERE m.group_id = g.id), 0)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long defaultUserQuota;
+
+    private volatile boolean running;
+
+    public QuotaService(JdbcTemplate jdbcTemplate,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${quota.user-default}") DataSize defaultUserQuota) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.defaultUserQuota = defaultUserQuota.toBytes();
+    }
+
+    /**
+     * Bytes a user can still store, the tightest of their own quota and the
+     * quotas of their groups. One indexed read; nothing is reserved
+     *
+     * @param userId the user's ID
+     * @return long - remaining bytes, never negative
+     */
+    public long remaining(Long userId) {
+        Long remaining = jdbcTemplate.queryForObject(
+                "SELECT LEAST(COALESCE(u.storage_quota, ?) - u.storage_used, "
+                        + "(SELECT MIN(g.storage_quota - g.storage_used) FROM user_groups g "
+                        + "JOIN group_members m ON m.group_id = g.id "
+                        + "WHERE m.user_id = u.id AND g.storage_quota IS NOT NULL)) "
+                        + "FROM users u WHERE u.id = ?",
+                Long.class, defaultUserQuota, userId);
+        return remaining != null ? Math.max(remaining, 0) : 0;
+    }
+
+    /**
+     * Fail fast, before any bytes are written, when an upload of a known
+     * size cannot fit. The binding check is {@link #charge(Long, long)}
+     *
+     * @param userId the uploading user's ID
+     * @param bytes  size of the upload
+     */
+    public void checkQuota(Long userId, long bytes) {
+        long remaining = remaining(userId);
+        if (bytes > remaining) {
+            throw new RuntimeException("Storage quota exceeded: " + remaining + " bytes left");
+        }
+    }
+
+    /**
+     * Add stored bytes to a user and their groups, failing if any limit
+     * would be exceeded
+     *
+     * @param userId the uploading user's ID
+     * @param bytes  size of the new file
+     */
+    @Transactional
+    public void charge(Long userId, long bytes) {
+        int charged = jdbcTemplate.update("UPDATE users SET storage_used = storage_used + ? "
+                + "WHERE id = ? AND storage_used + ? <= COALESCE(storage_quota, ?)",
+                bytes, userId, bytes, defaultUserQuota);
+        if (charged == 0) {
+            throw new RuntimeException("Storage quota exceeded: " + remaining(userId) + " bytes left");
+        }
+
+        List<String> overQuota = jdbcTemplate.queryForList("UPDATE user_groups SET storage_used = storage_used + ? "
+                + "WHERE id = ANY(?) RETURNING CASE WHEN storage_used > storage_quota THEN name END",
+                String.class, bytes, lockGroupsOf(userId));
+        overQuota.stream().filter(name -> name != null).findFirst().ifPresent(name -> {
+            throw new RuntimeException("Storage quota of group " + name + " exceeded");
+        });
+    }
+
+    /**
+     * Take bytes back from a user and their groups when files are deleted
+     *
+     * @param userId the uploader's ID
+     * @param bytes  total size of the deleted files
+     */
+    @Transactional
+    public void credit(Long userId, long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        jdbcTemplate.update("UPDATE users SET storage_used = GREATEST(storage_used - ?, 0) WHERE id = ?",
+                bytes, userId);
+        jdbcTemplate.update("UPDATE user_groups SET storage_used = GREATEST(storage_used - ?, 0) WHERE id = ANY(?)",
+                bytes, lockGroupsOf(userId));
+    }
+
+    /**
+     * Add a new member's usage to a group, failing if that would exceed the
+     * group's quota. Runs in the transaction that creates the membership
+     *
+     * @param groupId the group ID
+     * @param userId  the joining user's ID
+     */
+    @Transactional
+    public void chargeMembership(Long groupId, Long userId) {
+        // Locking the user holds off their uploads until the membership is visible to them
+        Long used = jdbcTemplate.queryForObject("SELECT storage_used FROM users WHERE id = ? FOR UPDATE",
+                Long.class, userId);
+        int charged = jdbcTemplate.update("UPDATE user_groups SET storage_used = storage_used + ? "
+                + "WHERE id = ? AND (storage_quota IS NULL OR storage_used + ? <= storage_quota)",
+                used, groupId, used);
+        if (charged == 0) {
+            throw new RuntimeException("Adding this member would exceed the group's storage quota");
+        }
+    }
+
+    /**
+     * Remove a leaving member's usage from a group
+     *
+     * @param groupId the group ID
+     * @param userId  the leaving user's ID
+     */
+    @Transactional
+    public void creditMembership(Long groupId, Long userId) {
+        Long used = jdbcTemplate.queryForObject("SELECT storage_used FROM users WHERE id = ? FOR UPDATE",
+                Long.class, userId);
+        jdbcTemplate.update("UPDATE user_groups SET storage_used = GREATEST(storage_used - ?, 0) WHERE id = ?",
+                used, groupId);
+    }
+
+    /**
+     * Remove a user's usage from every group they belong to, before the
+     * user and their memberships are deleted
+     *
+     * @param userId the user's ID
+     */
+    @Transactional
+    public void creditAllMemberships(Long userId) {
+        Long used = jdbcTemplate.queryForObject("SELECT storage_used FROM users WHERE id = ? FOR UPDATE",
+                Long.class, userId);
+        jdbcTemplate.update("UPDATE user_groups SET storage_used = GREATEST(storage_used - ?, 0) WHERE id = ANY(?)",
+                used, lockGroupsOf(userId));
+    }
+
+    /**
+     * Keyset page of per-user usage, read from the counters
+     *
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit  page size, clamped to {@link CursorPage#MAX_LIMIT}
+     * @return CursorPage<StorageUsageResponse> - users in descending ID order
+     */
+    public CursorPage<StorageUsageResponse> getUserUsage(Long cursor, Integer limit) {
+        int pageSize = CursorPage.clampLimit(limit);
+        List<StorageUsageResponse> rows = jdbcTemplate.query(
+                "SELECT id, email, storage_used, COALESCE(storage_quota, ?) AS quota FROM users "
+                        + "WHERE id < ? ORDER BY id DESC LIMIT ?",
+                (rs, rowNum) -> new StorageUsageResponse(rs.getLong("id"), rs.getString("email"),
+                        rs.getLong("storage_used"), rs.getLong("quota")),
+                defaultUserQuota, CursorPage.upperBound(cursor), pageSize + 1);
+        return CursorPage.of(rows, pageSize, StorageUsageResponse::getId);
+    }
+
+    /**
+     * Keyset page of per-group usage, read from the counters
+     *
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit  page size, clamped to {@link CursorPage#MAX_LIMIT}
+     * @return CursorPage<StorageUsageResponse> - groups in descending ID order
+     */
+    public CursorPage<StorageUsageResponse> getGroupUsage(Long cursor, Integer limit) {
+        int pageSize = CursorPage.clampLimit(limit);
+        List<StorageUsageResponse> rows = jdbcTemplate.query(
+                "SELECT id, name, storage_used, storage_quota FROM user_groups "
+                        + "WHERE id < ? ORDER BY id DESC LIMIT ?",
+                (rs, rowNum) -> new StorageUsageResponse(rs.getLong("id"), rs.getString("name"),
+                        rs.getLong("storage_used"), rs.getObject("storage_quota", Long.class)),
+                CursorPage.upperBound(cursor), pageSize + 1);
+        return CursorPage.of(rows, pageSize, StorageUsageResponse::getId);
+    }
+
+    /**
+     * @param userId the user's ID
+     * @return StorageUsageResponse - the user's usage and effective quota
+     */
+    public StorageUsageResponse getUsage(Long userId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT id, email, storage_used, COALESCE(storage_quota, ?) AS quota FROM users WHERE id = ?",
+                (rs, rowNum) -> new StorageUsageResponse(rs.getLong("id"), rs.getString("email"),
+                        rs.getLong("storage_used"), rs.getLong("quota")),
+                defaultUserQuota, userId);
+    }
+
+    /**
+     * @param userId     the user's ID
+     * @param quotaBytes new limit, or null for the default
+     * @return boolean - whether the user exists
+     */
+    public boolean setUserQuota(Long userId, Long quotaBytes) {
+        return jdbcTemplate.update("UPDATE users SET storage_quota = ? WHERE id = ?", quotaBytes, userId) == 1;
+    }
+
+    /**
+     * @param groupId    the group ID
+     * @param quotaBytes new limit, or null for none
+     * @return boolean - whether the group exists
+     */
+    public boolean setGroupQuota(Long groupId, Long quotaBytes) {
+        return jdbcTemplate.update("UPDATE user_groups SET storage_quota = ? WHERE id = ?", quotaBytes, groupId) == 1;
+    }
+
+    /**
+     * Rebuild every counter from the files table. A full scan, for repairs
+     * only; uploads running meanwhile may be counted twice or not at all
+     *
+     * @return int - number of users recounted
+     */
+    @Transactional
+    public int recalculate() {
+        int users = jdbcTemplate.update(RECOUNT_USERS_SQL);
+        jdbcTemplate.update(RECOUNT_GROUPS_SQL);
+        return users;
+    }
+
+    private Long[] lockGroupsOf(Long userId) {
+        return jdbcTemplate.queryForList("SELECT g.id FROM user_groups g JOIN group_members m ON m.group_id = g.id "
+                + "WHERE m.user_id = ? ORDER BY g.id FOR UPDATE OF g", Long.class, userId).toArray(Long[]::new);
+    }
+
+    @Override
+    public void start() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(hashtext('storage_quota'))", Object.class);
+            int users = jdbcTemplate.update(RECOUNT_USERS_SQL + " WHERE u.storage_used IS NULL");
+            int groups = jdbcTemplate.update(RECOUNT_GROUPS_SQL + " WHERE g.storage_used IS NULL");
+            if (users + groups > 0) {
+                log.info("Initialized storage usage counters for {} users and {} groups", users, groups);
+            }
+        });
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Before the web server, so no upload meets a counter that has not been initialized yet
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+}
@@ -0,0 +1,352 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.dto.StorageGcReport;
+import com.safechain.safechain.dto.StorageGcStatusResponse;
+import com.safechain.safechain.storage.BlobStat;
+import com.safechain.safechain.storage.StorageBackend;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Reclaims storage in the background, in batches.
+ * <p>
+ * Deleting a file only marks its row. Each pass of this collector purges
+ * marked rows: it drops their shares and blob references and then removes
+ * the rows. Blobs left with no references are unlinked from the storage
+ * backend and forgotten. Less often, a reconciliation pass walks the storage
+ * itself and removes anything the database does not know about: blobs
+ * without a row, abandoned temp files, and pre-blob-store uploads whose file
+ * row is gone. Only files older than a grace period are touched.
+ * <p>
+ * Row batches are claimed with {@code FOR UPDATE SKIP LOCKED}, so several
+ * instances can collect at once without stepping on each other.
+ */
+@Slf4j
+@Service
+public class StorageGarbageCollector {
+
+    private static final int RECONCILE_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final StorageBackend storageBackend;
+    private final Path uploadDir;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration orphanGrace;
+
+    private final AtomicLong totalFilesPurged = new AtomicLong();
+    private final AtomicLong totalBlobsReclaimed = new AtomicLong();
+    private final AtomicLong totalOrphansRemoved = new AtomicLong();
+    private final AtomicLong totalBytesReclaimed = new AtomicLong();
+    private volatile StorageGcReport lastRun;
+
+    public StorageGarbageCollector(JdbcTemplate jdbcTemplate,
+                                   PlatformTransactionManager transactionManager,
+                                   StorageBackend storageBackend,
+                                   @Value("${file.upload-dir}") String uploadDir,
+                                   @Value("${storage.gc.enabled}") boolean enabled,
+                                   @Value("${storage.gc.batch-size}") int batchSize,
+                                   @Value("${storage.gc.orphan-grace}") Duration orphanGrace) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.storageBackend = storageBackend;
+        this.uploadDir = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.orphanGrace = orphanGrace;
+    }
+
+    /**
+     * Purge deleted files and unlink unreferenced blobs
+     */
+    @Scheduled(fixedDelayString = "${storage.gc.interval}")
+    public void collectGarbage() {
+        if (enabled) {
+            collect(false);
+        }
+    }
+
+    /**
+     * Full pass including reconciliation of storage against the database
+     */
+    @Scheduled(cron = "${storage.gc.reconcile-cron}")
+    public void reconcileStorage() {
+        if (enabled) {
+            collect(true);
+        }
+    }
+
+    /**
+     * Run one collection pass now
+     *
+     * @param reconcile also walk the storage for orphans, which reads every stored file name
+     * @return StorageGcReport - what this pass reclaimed
+     */
+    public synchronized StorageGcReport collect(boolean reconcile) {
+        Tally tally = new Tally();
+        LocalDateTime startedAt = LocalDateTime.now();
+
+        int purged;
+        do {
+            purged = transactionTemplate.execute(status -> purgeBatch(null, true, tally));
+        } while (purged == batchSize);
+
+        int swept;
+        do {
+            swept = transactionTemplate.execute(status -> sweepBatch(tally));
+        } while (swept == batchSize);
+
+        if (reconcile) {
+            try {
+                reconcileBlobs(tally);
+                reconcileLegacyUploads(tally);
+            } catch (IOException | RuntimeException e) {
+                tally.failures++;
+                log.error("Storage reconciliation failed", e);
+            }
+        }
+
+        StorageGcReport report = new StorageGcReport(startedAt, LocalDateTime.now(), tally.filesPurged,
+                tally.blobsReclaimed, tally.orphansRemoved, tally.bytesReclaimed, tally.failures);
+        record(tally);
+        lastRun = report;
+        if (tally.filesPurged + tally.blobsReclaimed + tally.orphansRemoved + tally.failures > 0) {
+            log.info("Storage GC purged {} files, reclaimed {} blobs and {} orphans ({} bytes), {} failures",
+                    tally.filesPurged, tally.blobsReclaimed, tally.orphansRemoved, tally.bytesReclaimed,
+                    tally.failures);
+        }
+        return report;
+    }
+
+    /**
+     * Purge every deleted file of one uploader inside the caller's
+     * transaction, so the uploader's row can be removed in the same
+     * transaction. The blobs they referenced are unlinked by a later pass
+     *
+     * @param userId the uploader's ID
+     */
+    public void purgeDeletedFilesOf(Long userId) {
+        Tally tally = new Tally();
+        int purged;
+        do {
+            purged = purgeBatch(userId, false, tally);
+        } while (purged == batchSize);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(tally);
+            }
+        });
+    }
+
+    /**
+     * @return StorageGcStatusResponse - the last pass, work still pending and totals since startup
+     */
+    public StorageGcStatusResponse status() {
+        Long pendingFiles = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM files WHERE deleted_at IS NOT NULL", Long.class);
+        Long pendingBlobs = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM blobs WHERE ref_count <= 0", Long.class);
+        return new StorageGcStatusResponse(lastRun, pendingFiles, pendingBlobs, totalFilesPurged.get(),
+                totalBlobsReclaimed.get(), totalOrphansRemoved.get(), totalBytesReclaimed.get());
+    }
+
+    private int purgeBatch(Long uploaderId, boolean skipLocked, Tally tally) {
+        String sql = "SELECT id, content_hash, file_path FROM files WHERE deleted_at IS NOT NULL"
+                + (uploaderId != null ? " AND uploaded_by = ?" : "")
+                + " ORDER BY id LIMIT ? FOR UPDATE" + (skipLocked ? " SKIP LOCKED" : "");
+        Object[] args = uploaderId != null ? new Object[]{uploaderId, batchSize} : new Object[]{batchSize};
+        List<DeletedFile> files = jdbcTemplate.query(sql,
+                (rs, rowNum) -> new DeletedFile(rs.getLong(1), rs.getString(2), rs.getString(3)), args);
+        if (files.isEmpty()) {
+            return 0;
+        }
+
+        Long[] ids = files.stream().map(DeletedFile::id).toArray(Long[]::new);
+        String[] digests = files.stream().map(DeletedFile::contentHash).filter(Objects::nonNull).toArray(String[]::new);
+
+        jdbcTemplate.update("DELETE FROM file_shares WHERE file_id = ANY(?)", (Object) ids);
+        jdbcTemplate.update("DELETE FROM group_file_shares WHERE file_id = ANY(?)", (Object) ids);
+        if (digests.length > 0) {
+            // Files sharing a blob arrive in the same batch, so count references per digest
+            jdbcTemplate.update("UPDATE blobs b SET ref_count = GREATEST(b.ref_count - r.refs, 0) "
+                    + "FROM (SELECT digest, COUNT(*) AS refs FROM unnest(?::text[]) AS digest GROUP BY digest) r "
+                    + "WHERE b.digest = r.digest", (Object) digests);
+        }
+        jdbcTemplate.update("DELETE FROM files WHERE id = ANY(?)", (Object) ids);
+        tally.filesPurged += files.size();
+
+        // Uploads from before the blob store own their file outright; unlink once the row is really gone
+        List<Path> legacyPaths = files.stream()
+                .filter(file -> file.contentHash() == null)
+                .map(file -> Paths.get(file.filePath()))
+                .toList();
+        if (!legacyPaths.isEmpty()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    for (Path path : legacyPaths) {
+                        unlinkLegacyFile(path, tally);
+                    }
+                }
+            });
+        }
+        return files.size();
+    }
+
+    private int sweepBatch(Tally tally) {
+        List<String> digests = jdbcTemplate.queryForList("SELECT digest FROM blobs WHERE ref_count <= 0 "
+                + "ORDER BY digest LIMIT ? FOR UPDATE SKIP LOCKED", String.class, batchSize);
+
+        // Unlink while holding the row locks so a racing upload of the same content waits and re-creates both
+        List<String> unlinked = new ArrayList<>(digests.size());
+        for (String digest : digests) {
+            try {
+                long size = storageBackend.stat(digest).map(BlobStat::size).orElse(0L);
+                storageBackend.delete(digest);
+                unlinked.add(digest);
+                tally.blobsReclaimed++;
+                tally.bytesReclaimed += size;
+            } catch (IOException e) {
+                tally.failures++;
+                log.warn("Failed to unlink blob {}: {}", digest, e.getMessage());
+            }
+        }
+        if (!unlinked.isEmpty()) {
+            jdbcTemplate.update("DELETE FROM blobs WHERE digest = ANY(?)", (Object) unlinked.toArray(String[]::new));
+        }
+        return unlinked.size();
+    }
+
+    private void reconcileBlobs(Tally tally) throws IOException {
+        Instant cutoff = Instant.now().minus(orphanGrace);
+        tally.bytesReclaimed += storageBackend.purgeTempFiles(cutoff);
+
+        try (Stream<String> keys = storageBackend.keys()) {
+            List<String> batch = new ArrayList<>(RECONCILE_BATCH_SIZE);
+            for (String key : (Iterable<String>) keys::iterator) {
+                batch.add(key);
+                if (batch.size() == RECONCILE_BATCH_SIZE) {
+                    removeOrphanBlobs(batch, cutoff, tally);
+                    batch.clear();
+                }
+            }
+            removeOrphanBlobs(batch, cutoff, tally);
+        }
+    }
+
+    private void removeOrphanBlobs(List<String> keys, Instant cutoff, Tally tally) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        Set<String> known = new HashSet<>(jdbcTemplate.queryForList("SELECT digest FROM blobs WHERE digest = ANY(?)",
+                String.class, (Object) keys.toArray(String[]::new)));
+
+        for (String key : keys) {
+            if (known.contains(key)) {
+                continue;
+            }
+            try {
+                BlobStat stat = storageBackend.stat(key).orElse(null);
+                // Recent files may belong to work still in flight
+                if (stat == null || !stat.lastModified().isBefore(cutoff)) {
+                    continue;
+                }
+                if (storageBackend.delete(key)) {
+                    tally.orphansRemoved++;
+                    tally.bytesReclaimed += stat.size();
+                }
+            } catch (IOException e) {
+                tally.failures++;
+                log.warn("Failed to remove orphaned blob {}: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    private void reconcileLegacyUploads(Tally tally) throws IOException {
+        if (!Files.isDirectory(uploadDir)) {
+            return;
+        }
+        Instant cutoff = Instant.now().minus(orphanGrace);
+
+        // Pre-blob-store uploads sit directly in the upload directory; blobs and sessions live in subdirectories
+        Set<Path> referenced = new HashSet<>();
+        jdbcTemplate.query("SELECT file_path FROM files WHERE content_hash IS NULL",
+                rs -> {
+                    referenced.add(Paths.get(rs.getString(1)).toAbsolutePath().normalize());
+                });
+
+        try (Stream<Path> entries = Files.list(uploadDir)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                if (!attributes.isRegularFile() || referenced.contains(entry)
+                        || !attributes.lastModifiedTime().toInstant().isBefore(cutoff)) {
+                    continue;
+                }
+                if (Files.deleteIfExists(entry)) {
+                    tally.orphansRemoved++;
+                    tally.bytesReclaimed += attributes.size();
+                }
+            }
+        }
+    }
+
+    private void unlinkLegacyFile(Path path, Tally tally) {
+        try {
+            long size = Files.exists(path) ? Files.size(path) : 0;
+            if (Files.deleteIfExists(path)) {
+                tally.bytesReclaimed += size;
+            }
+        } catch (IOException e) {
+            // Left for reconciliation to pick up
+            tally.failures++;
+            log.warn("Failed to unlink {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void record(Tally tally) {
+        totalFilesPurged.addAndGet(tally.filesPurged);
+        totalBlobsReclaimed.addAndGet(tally.blobsReclaimed);
+        totalOrphansRemoved.addAndGet(tally.orphansRemoved);
+        totalBytesReclaimed.addAndGet(tally.bytesReclaimed);
+    }
+
+    private record DeletedFile(long id, String contentHash, String filePath) {
+    }
+
+    /**
+     * Counters for one pass; only ever touched by the thread running it
+     */
+    private static class Tally {
+        long filesPurged;
+        long blobsReclaimed;
+        long orphansRemoved;
+        long bytesReclaimed;
+        long failures;
+    }
+}
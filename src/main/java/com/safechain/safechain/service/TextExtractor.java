@@ -0,0 +1,102 @@
+package com.safechain.safechain.service;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Pulls plain text out of file content for the search index. Text-like
+ * types are decoded as UTF-8; PDFs go through PDFBox. Everything else has
+ * no text to offer.
+ */
+@Component
+public class TextExtractor {
+
+    private static final String PDF_TYPE = "application/pdf";
+
+    private static final List<String> TEXT_TYPES = List.of(
+            "text/", "application/json", "application/xml", "application/javascript", "application/x-javascript",
+            "application/yaml", "application/x-yaml", "application/csv", "application/sql", "application/x-sh");
+
+    /**
+     * @param contentType declared MIME type, parameters allowed
+     * @return boolean - whether text can be extracted from this type
+     */
+    public boolean supports(String contentType) {
+        String type = baseType(contentType);
+        return type != null && (isPdf(type) || isText(type));
+    }
+
+    /**
+     * Extract the text of some content
+     *
+     * @param content     the decoded bytes, read but not closed
+     * @param contentType declared MIME type
+     * @param maxChars    cap on the returned length
+     * @return String - the text, or null when the type has none
+     */
+    public String extract(InputStream content, String contentType, int maxChars) throws IOException {
+        String type = baseType(contentType);
+        if (type == null) {
+            return null;
+        }
+        if (isPdf(type)) {
+            return clean(extractPdf(content), maxChars);
+        }
+        if (isText(type)) {
+            return clean(readChars(new InputStreamReader(content, StandardCharsets.UTF_8), maxChars), maxChars);
+        }
+        return null;
+    }
+
+    private static String extractPdf(InputStream content) throws IOException {
+        try (PDDocument document = Loader.loadPDF(new RandomAccessReadBuffer(content))) {
+            return new PDFTextStripper().getText(document);
+        }
+    }
+
+    private static String readChars(Reader reader, int maxChars) throws IOException {
+        char[] buffer = new char[maxChars];
+        int length = 0;
+        int n;
+        while (length < maxChars && (n = reader.read(buffer, length, maxChars - length)) != -1) {
+            length += n;
+        }
+        return new String(buffer, 0, length);
+    }
+
+    private static String clean(String text, int maxChars) {
+        if (text.length() > maxChars) {
+            text = text.substring(0, maxChars);
+        }
+        // PostgreSQL text cannot hold NUL
+        return text.replace('\0', ' ');
+    }
+
+    private static boolean isPdf(String type) {
+        return type.equals(PDF_TYPE);
+    }
+
+    private static boolean isText(String type) {
+        return type.endsWith("+json") || type.endsWith("+xml") || TEXT_TYPES.stream().anyMatch(type::startsWith);
+    }
+
+    private static String baseType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int semicolon = contentType.indexOf(';');
+        String type = semicolon >= 0 ? contentType.substring(0, semicolon) : contentType;
+        return type.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,275 @@
+package com.safechain.safechain.service;
+
+import com.safechain.safechain.dto.CreateUploadSessionRequest;
+import com.safechain.safechain.dto.FileResponse;
+import com.safechain.safechain.dto.UploadSessionResponse;
+import com.safechain.safechain.entity.UploadSession;
+import com.safechain.safechain.entity.User;
+import com.safechain.safechain.repository.UploadChunkRepository;
+import com.safechain.safechain.repository.UploadSessionRepository;
+import com.safechain.safechain.util.ContentTypeSniffer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Resumable uploads: a session pre-allocates a staging file, chunks are
+ * written into it at their own offset in any order (and in parallel),
+ * and commit verifies the checksum before handing the file to the blob store.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UploadSessionService {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_CHUNKS = 100_000;
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final UploadChunkRepository uploadChunkRepository;
+    private final BlobStorageService blobStorageService;
+    private final FileService fileService;
+    private final QuotaService quotaService;
+    private final AuthService authService;
+
+    @Value("${file.upload-dir}")
+    private String uploadDir;
+
+    @Value("${file.max-upload-size}")
+    private DataSize maxUploadSize;
+
+    @Value("${file.upload-chunk-size}")
+    private DataSize defaultChunkSize;
+
+    @Value("${file.upload-session-ttl}")
+    private Duration sessionTtl;
+
+    /**
+     * Open a new upload session
+     *
+     * @param request file name, type, total size and optional chunk size and checksum
+     * @return UploadSessionResponse - the session and its chunk layout
+     */
+    public UploadSessionResponse createSession(CreateUploadSessionRequest request) throws IOException {
+        User currentUser = authService.getCurrentUser();
+
+        if (request.getTotalSize() > maxUploadSize.toBytes()) {
+            throw new RuntimeException("File exceeds the maximum upload size of " + maxUploadSize);
+        }
+        quotaService.checkQuota(currentUser.getId(), request.getTotalSize());
+
+        long chunkSize = request.getChunkSize() != null ? request.getChunkSize() : defaultChunkSize.toBytes();
+        if ((request.getTotalSize() + chunkSize - 1) / chunkSize > MAX_CHUNKS) {
+            throw new RuntimeException("Chunk size too small: at most " + MAX_CHUNKS + " chunks are allowed");
+        }
+
+        String sessionId = UUID.randomUUID().toString();
+        Path sessionDir = Paths.get(uploadDir, "sessions");
+        Files.createDirectories(sessionDir);
+
+        // Pre-size the staging file so chunks can be written at any offset
+        Path stagingPath = sessionDir.resolve(sessionId + ".part");
+        try (RandomAccessFile staging = new RandomAccessFile(stagingPath.toFile(), "rw")) {
+            staging.setLength(request.getTotalSize());
+        }
+
+        UploadSession session = new UploadSession();
+        session.setId(sessionId);
+        session.setUser(currentUser);
+        session.setFileName(request.getFileName());
+        session.setFileType(request.getFileType() != null ? request.getFileType() : "application/octet-stream");
+        session.setTotalSize(request.getTotalSize());
+        session.setChunkSize(chunkSize);
+        session.setSha256(request.getSha256() != null ? request.getSha256().toLowerCase() : null);
+        session.setStagingPath(stagingPath.toString());
+        uploadSessionRepository.save(session);
+
+        return toDto(session);
+    }
+
+    /**
+     * Get the state of an upload session, so a client can resume it
+     *
+     * @param sessionId the upload session ID
+     * @return UploadSessionResponse - the session and the chunks received so far
+     */
+    public UploadSessionResponse getSession(String sessionId) {
+        return toDto(findOwnSession(sessionId));
+    }
+
+    /**
+     * Write one chunk of an upload session at its offset in the staging file
+     *
+     * @param sessionId  the upload session ID
+     * @param chunkIndex zero-based chunk number
+     * @param content    the chunk bytes
+     */
+    public void writeChunk(String sessionId, int chunkIndex, InputStream content) throws IOException {
+        UploadSession session = findOwnSession(sessionId);
+
+        if (chunkIndex < 0 || chunkIndex >= session.getTotalChunks()) {
+            throw new RuntimeException("Chunk index out of range: " + chunkIndex);
+        }
+
+        long offset = chunkIndex * session.getChunkSize();
+        long expected = Math.min(session.getChunkSize(), session.getTotalSize() - offset);
+
+        // Positional writes never touch other chunks' ranges, so parallel PUTs are safe
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(Paths.get(session.getStagingPath()), StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = content.read(buffer, 0, (int) Math.min(buffer.length, expected - written + 1))) != -1) {
+                if (written + read > expected) {
+                    throw new RuntimeException("Chunk " + chunkIndex + " is larger than " + expected + " bytes");
+                }
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk, offset + written + chunk.position());
+                }
+                written += read;
+            }
+        }
+
+        if (written != expected) {
+            throw new RuntimeException("Chunk " + chunkIndex + " expected " + expected + " bytes but got " + written);
+        }
+
+        uploadChunkRepository.markReceived(sessionId, chunkIndex, written);
+    }
+
+    /**
+     * Assemble a completed session into a file
+     *
+     * @param sessionId the upload session ID
+     * @return FileResponse with file details
+     */
+    public FileResponse commit(String sessionId) throws IOException {
+        UploadSession session = findOwnSession(sessionId);
+
+        long received = uploadChunkRepository.countReceived(sessionId);
+        if (received != session.getTotalChunks()) {
+            throw new RuntimeException("Upload incomplete: received " + received + " of "
+                    + session.getTotalChunks() + " chunks");
+        }
+
+        // Space may have been used up since the session was opened
+        quotaService.checkQuota(session.getUser().getId(), session.getTotalSize());
+
+        Path stagingPath = Paths.get(session.getStagingPath());
+        BlobStorageService.ContentHash hash = blobStorageService.hash(stagingPath);
+        if (session.getSha256() != null && !session.getSha256().equals(hash.digest())) {
+            throw new RuntimeException("Checksum mismatch: expected " + session.getSha256() + " but got "
+                    + hash.digest());
+        }
+
+        String contentType = ContentTypeSniffer.sniff(session.getFileType(), stagingPath);
+        BlobStorageService.StoredBlob blob = blobStorageService.adopt(stagingPath, hash, contentType);
+        deleteSession(session);
+
+        return fileService.registerUpload(authService.getCurrentUser(), blob, session.getFileName(), contentType);
+    }
+
+    /**
+     * Abandon an upload session and discard its staged bytes
+     *
+     * @param sessionId the upload session ID
+     * @return String - success message
+     */
+    public String abort(String sessionId) throws IOException {
+        UploadSession session = findOwnSession(sessionId);
+        Files.deleteIfExists(Paths.get(session.getStagingPath()));
+        deleteSession(session);
+        return "Upload session aborted";
+    }
+
+    /**
+     * Discard sessions that were never committed
+     */
+    @Scheduled(fixedDelayString = "${file.upload-session-cleanup-interval:PT1H}")
+    public void purgeExpiredSessions() {
+        for (UploadSession session : uploadSessionRepository.findByCreatedAtBefore(LocalDateTime.now().minus(sessionTtl))) {
+            try {
+                Files.deleteIfExists(Paths.get(session.getStagingPath()));
+                deleteSession(session);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to purge upload session {}: {}", session.getId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Discard every session of a user. Staging files are removed once the
+     * surrounding transaction commits
+     *
+     * @param userId the user ID
+     */
+    public void discardSessionsOf(Long userId) {
+        List<Path> stagingPaths = new ArrayList<>();
+        for (UploadSession session : uploadSessionRepository.findByUserId(userId)) {
+            stagingPaths.add(Paths.get(session.getStagingPath()));
+            deleteSession(session);
+        }
+        if (stagingPaths.isEmpty()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                for (Path stagingPath : stagingPaths) {
+                    try {
+                        Files.deleteIfExists(stagingPath);
+                    } catch (IOException e) {
+                        log.warn("Failed to delete staging file {}: {}", stagingPath, e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private void deleteSession(UploadSession session) {
+        uploadChunkRepository.deleteBySessionId(session.getId());
+        uploadSessionRepository.delete(session);
+    }
+
+    private UploadSession findOwnSession(String sessionId) {
+        User currentUser = authService.getCurrentUser();
+        UploadSession session = uploadSessionRepository.findById(sessionId)
+                .orElseThrow(() -> new RuntimeException("Upload session not found"));
+        if (!session.getUser().getId().equals(currentUser.getId())) {
+            throw new RuntimeException("Upload session not found");
+        }
+        return session;
+    }
+
+    private UploadSessionResponse toDto(UploadSession session) {
+        return new UploadSessionResponse(
+                session.getId(),
+                session.getFileName(),
+                session.getTotalSize(),
+                session.getChunkSize(),
+                session.getTotalChunks(),
+                uploadChunkRepository.findReceivedIndexes(session.getId()));
+    }
+}
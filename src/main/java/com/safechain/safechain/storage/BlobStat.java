@@ -0,0 +1,12 @@
+package com.safechain.safechain.storage;
+
+import java.time.Instant;
+
+/**
+ * Size and modification time of a stored blob
+ *
+ * @param size         stored length in bytes
+ * @param lastModified when the blob was written
+ */
+public record BlobStat(long size, Instant lastModified) {
+}
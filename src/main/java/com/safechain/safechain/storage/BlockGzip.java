@@ -0,0 +1,222 @@
+package com.safechain.safechain.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Gzip encoding that can be decoded starting at any block of its content.
+ * <p>
+ * The output is one ordinary gzip member, so it can go to clients as it is.
+ * Inside it the compressor is fully flushed after every {@code blockSize}
+ * bytes of content: each block's deflate data then starts on a byte
+ * boundary and refers to nothing before it. The index records where every
+ * block starts in the encoded bytes, 8 bytes a block, so a reader wanting a
+ * range inflates from the block holding its first byte instead of from the
+ * start of the file. A full flush costs a few bytes and the dictionary built
+ * up over the block before it, which at blocks of a megabyte or so is lost
+ * in the noise.
+ */
+public final class BlockGzip {
+
+    public static final int OFFSET_SIZE = 8;
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int blockSize;
+    private final byte[] offsets;
+
+    public BlockGzip(int blockSize, byte[] offsets) {
+        this.blockSize = blockSize;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return int - bytes of content per block; the last block may be shorter
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return byte[] - encoded offset of every block, packed big-endian in block order
+     */
+    public byte[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * @param position offset in the content
+     * @return long - offset in the content of the block holding it
+     */
+    public long blockStart(long position) {
+        return block(position) * blockSize;
+    }
+
+    /**
+     * @param position offset in the content
+     * @return long - offset in the encoded bytes where the block holding it starts
+     */
+    public long encodedOffset(long position) {
+        return ByteBuffer.wrap(offsets).getLong((int) (block(position) * OFFSET_SIZE));
+    }
+
+    private long block(long position) {
+        // Offsets at or past the end of the content belong to the last block
+        return Math.min(position / blockSize, Math.max(offsets.length / OFFSET_SIZE - 1, 0));
+    }
+
+    /**
+     * @param encoded the encoded bytes from {@link #encodedOffset} onwards
+     * @return InputStream - the content from the start of that block to the end
+     */
+    public static InputStream inflate(InputStream encoded) {
+        // Raw deflate: a block has no gzip header of its own, and the trailer after the last one is ignored
+        return new InflaterInputStream(encoded, new Inflater(true), BUFFER_SIZE) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    inf.end();
+                    super.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @param out       where the encoded bytes go; closed with the returned stream
+     * @param blockSize bytes of content per block
+     * @return Encoder - the stream to write the content to; {@link Encoder#index()} once it is closed
+     */
+    public static Encoder encoder(OutputStream out, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        return new Encoder(out, blockSize);
+    }
+
+    /**
+     * Gzip-encodes what is written to it, a block at a time
+     */
+    public static final class Encoder extends OutputStream {
+
+        private final OutputStream out;
+        private final int blockSize;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private byte[] offsets = new byte[OFFSET_SIZE * 16];
+        private int offsetsLength;
+        private long written;
+        private long total;
+        private int filled;
+        private boolean started;
+        private boolean closed;
+
+        private Encoder(OutputStream out, int blockSize) {
+            this.out = out;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            start();
+            while (len > 0) {
+                if (filled == 0) {
+                    addOffset(written);
+                }
+                int take = Math.min(len, blockSize - filled);
+                crc.update(b, off, take);
+                deflater.setInput(b, off, take);
+                while (!deflater.needsInput()) {
+                    deflate(Deflater.NO_FLUSH);
+                }
+                filled += take;
+                total += take;
+                off += take;
+                len -= take;
+                if (filled == blockSize) {
+                    // Drop the dictionary and byte-align, so the next block inflates on its own
+                    while (deflate(Deflater.FULL_FLUSH) == buffer.length) {
+                        // The buffer filled up, so there may be more
+                    }
+                    filled = 0;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try (out) {
+                start();
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate(Deflater.NO_FLUSH);
+                }
+                // Trailer: CRC-32 and length modulo 2^32 of the content, little-endian
+                out.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt((int) crc.getValue()).putInt((int) total).array());
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /**
+         * @return BlockGzip - where each block of what was written starts in the encoded bytes
+         */
+        public BlockGzip index() {
+            if (!closed) {
+                throw new IllegalStateException("Encoder not closed");
+            }
+            return new BlockGzip(blockSize, Arrays.copyOf(offsets, offsetsLength));
+        }
+
+        private void start() throws IOException {
+            if (!started) {
+                started = true;
+                out.write(HEADER);
+                written = HEADER.length;
+            }
+        }
+
+        private int deflate(int flush) throws IOException {
+            int n = deflater.deflate(buffer, 0, buffer.length, flush);
+            if (n > 0) {
+                out.write(buffer, 0, n);
+                written += n;
+            }
+            return n;
+        }
+
+        private void addOffset(long offset) {
+            if (offsetsLength == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            ByteBuffer.wrap(offsets).putLong(offsetsLength, offset);
+            offsetsLength += OFFSET_SIZE;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.safechain.safechain.storage;
+
+import com.safechain.safechain.util.MerkleRoot;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Integrity tree of a blob: the SHA-256 of every fixed-size chunk of its
+ * original bytes, and the Merkle root over those chunk hashes.
+ * <p>
+ * The chunk hashes are kept as one packed array, 32 bytes per chunk, so a
+ * reader can fetch just the hashes covering the bytes it serves and check
+ * those chunks alone. A range read thus costs work in proportion to the
+ * range, never to the blob. The root summarises the whole array and lets a
+ * full check also catch damage to the stored hashes themselves.
+ * <p>
+ * Hashes cover the original bytes, whatever codec and encryption the blob is
+ * stored with, so they stay valid for every copy of the same content.
+ */
+public final class ChunkTree {
+
+    public static final int HASH_SIZE = 32;
+
+    private final int chunkSize;
+    private final byte[] hashes;
+    private final byte[] root;
+
+    public ChunkTree(int chunkSize, byte[] hashes) {
+        this.chunkSize = chunkSize;
+        this.hashes = hashes;
+        this.root = merkleRoot(hashes);
+    }
+
+    /**
+     * @return int - bytes per chunk; the last chunk may be shorter
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return byte[] - the chunk hashes, packed in chunk order
+     */
+    public byte[] getHashes() {
+        return hashes;
+    }
+
+    /**
+     * @return byte[] - Merkle root over the chunk hashes
+     */
+    public byte[] getRoot() {
+        return root;
+    }
+
+    /**
+     * @param hashes packed chunk hashes
+     * @return byte[] - their Merkle root
+     */
+    public static byte[] merkleRoot(byte[] hashes) {
+        MerkleRoot merkle = new MerkleRoot();
+        for (int offset = 0; offset + HASH_SIZE <= hashes.length; offset += HASH_SIZE) {
+            merkle.add(hashes, offset, HASH_SIZE);
+        }
+        return merkle.root();
+    }
+
+    /**
+     * Wrap a stream so the chunk hashes are computed as it is read, at no
+     * cost beyond the hashing itself
+     *
+     * @param in        the content
+     * @param chunkSize bytes per chunk
+     * @return Hasher - the wrapped stream; {@link Hasher#tree()} once it is drained
+     */
+    public static Hasher hashing(InputStream in, int chunkSize) {
+        return new Hasher(in, new Builder(chunkSize));
+    }
+
+    /**
+     * Accumulates chunk hashes over bytes handed to it in order
+     */
+    public static final class Builder {
+
+        private final int chunkSize;
+        private final MessageDigest digest = newDigest();
+        private byte[] hashes = new byte[HASH_SIZE * 16];
+        private int hashesLength;
+        private int filled;
+
+        public Builder(int chunkSize) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("Chunk size must be positive");
+            }
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * @param bytes  array holding the next bytes of content
+         * @param offset where they start
+         * @param length how many there are
+         */
+        public void update(byte[] bytes, int offset, int length) {
+            while (length > 0) {
+                int take = Math.min(length, chunkSize - filled);
+                digest.update(bytes, offset, take);
+                filled += take;
+                offset += take;
+                length -= take;
+                if (filled == chunkSize) {
+                    finishChunk();
+                }
+            }
+        }
+
+        /**
+         * @return OutputStream - a view that hands everything written to it to {@link #update}
+         */
+        public OutputStream asOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    update(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    update(b, off, len);
+                }
+            };
+        }
+
+        /**
+         * @return ChunkTree - the tree over everything handed in so far
+         */
+        public ChunkTree build() {
+            if (filled > 0) {
+                finishChunk();
+            }
+            return new ChunkTree(chunkSize, Arrays.copyOf(hashes, hashesLength));
+        }
+
+        private void finishChunk() {
+            if (hashesLength == hashes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            }
+            try {
+                digest.digest(hashes, hashesLength, HASH_SIZE);
+            } catch (DigestException e) {
+                throw new IllegalStateException("SHA-256 digest failed", e);
+            }
+            hashesLength += HASH_SIZE;
+            filled = 0;
+        }
+    }
+
+    /**
+     * Input stream that feeds everything read through it into a {@link Builder}
+     */
+    public static final class Hasher extends FilterInputStream {
+
+        private final Builder builder;
+        private ChunkTree tree;
+
+        private Hasher(InputStream in, Builder builder) {
+            super(in);
+            this.builder = builder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                builder.update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes still have to be hashed
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * @return ChunkTree - the tree over every byte read
+         */
+        public ChunkTree tree() {
+            if (tree == null) {
+                tree = builder.build();
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * The hashes of a run of consecutive chunks, enough to verify a read
+     * that starts and ends inside them
+     *
+     * @param chunkSize  bytes per chunk
+     * @param firstChunk index of the first chunk covered
+     * @param hashes     packed hashes of the covered chunks
+     */
+    public record Slice(int chunkSize, long firstChunk, byte[] hashes) {
+
+        /**
+         * @return long - offset in the content where the first covered chunk starts
+         */
+        public long start() {
+            return firstChunk * chunkSize;
+        }
+
+        /**
+         * @return long - number of bytes the covered chunks span at most
+         */
+        public long length() {
+            return (long) hashes.length / HASH_SIZE * chunkSize;
+        }
+
+        /**
+         * @param start  offset of the first byte read, inside this slice
+         * @param length number of bytes read, ending inside this slice
+         * @return Slice - the hashes of just the chunks covering the read
+         */
+        public Slice narrow(long start, long length) {
+            long first = start / chunkSize;
+            long last = (start + length - 1) / chunkSize;
+            int from = (int) ((first - firstChunk) * HASH_SIZE);
+            int to = (int) Math.min((last - firstChunk + 1) * HASH_SIZE, hashes.length);
+            return new Slice(chunkSize, first, Arrays.copyOfRange(hashes, from, to));
+        }
+
+        /**
+         * Check content chunk by chunk as it is read. Each chunk is buffered
+         * and verified before any of it is returned, so unverified bytes never
+         * leave the stream
+         *
+         * @param source the content, starting at {@link #start()}
+         * @return InputStream - the verified bytes of the covered chunks
+         */
+        public InputStream verify(InputStream source) {
+            return new VerifyingInputStream(source, this);
+        }
+    }
+
+    private static final class VerifyingInputStream extends InputStream {
+
+        private final InputStream in;
+        private final Slice slice;
+        private final MessageDigest digest = newDigest();
+        private final byte[] expected = new byte[HASH_SIZE];
+        private final byte[] chunk;
+        private int chunkIndex;
+        private int position;
+        private int limit;
+
+        VerifyingInputStream(InputStream in, Slice slice) {
+            this.in = in;
+            this.slice = slice;
+            this.chunk = new byte[slice.chunkSize()];
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !nextChunk()) {
+                return -1;
+            }
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !nextChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean nextChunk() throws IOException {
+            if ((long) chunkIndex * HASH_SIZE >= slice.hashes().length) {
+                return false;
+            }
+            long index = slice.firstChunk() + chunkIndex;
+            int read = in.readNBytes(chunk, 0, chunk.length);
+            digest.update(chunk, 0, read);
+            System.arraycopy(slice.hashes(), chunkIndex * HASH_SIZE, expected, 0, HASH_SIZE);
+            // A short or missing chunk hashes differently too
+            if (read == 0 || !MessageDigest.isEqual(digest.digest(), expected)) {
+                throw new IntegrityException("Content failed verification at chunk " + index);
+            }
+            chunkIndex++;
+            position = 0;
+            limit = read;
+            return true;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
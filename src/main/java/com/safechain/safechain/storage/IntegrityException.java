@@ -0,0 +1,14 @@
+package com.safechain.safechain.storage;
+
+import java.io.IOException;
+
+/**
+ * Stored bytes that fail verification: a chunk hash or authentication tag
+ * that does not match, as opposed to storage that could not be read at all.
+ */
+public class IntegrityException extends IOException {
+
+    public IntegrityException(String message) {
+        super(message);
+    }
+}
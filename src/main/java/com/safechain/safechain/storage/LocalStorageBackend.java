@@ -0,0 +1,213 @@
+package com.safechain.safechain.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Stores blobs under one directory using the hashed fan-out layout of
+ * {@link StorageBackend#relativePath(String)}. Blobs written before the
+ * fan-out existed sit directly in the root and are still found there.
+ */
+public class LocalStorageBackend implements StorageBackend {
+
+    private final Path root;
+    private final Path tempDir;
+
+    public LocalStorageBackend(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        this.tempDir = this.root.resolve(".tmp");
+    }
+
+    /**
+     * @return Path - the directory this backend stores blobs under
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return long - bytes still available to this backend's filesystem
+     */
+    public long usableSpace() throws IOException {
+        Files.createDirectories(root);
+        return Files.getFileStore(root).getUsableSpace();
+    }
+
+    @Override
+    public Path createTempFile() throws IOException {
+        Files.createDirectories(tempDir);
+        return Files.createTempFile(tempDir, "upload-", ".tmp");
+    }
+
+    @Override
+    public void put(String key, Path source) throws IOException {
+        Path target = root.resolve(StorageBackend.relativePath(key));
+        if (locate(key).isPresent()) {
+            Files.deleteIfExists(source);
+            return;
+        }
+
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(source);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Source is on another filesystem: copy next to the target first so readers never see a partial blob
+            Path staged = Files.createTempFile(target.getParent(), key, ".tmp");
+            try {
+                Files.copy(source, staged, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException alreadyStored) {
+                // A concurrent upload of the same content published it first
+            } finally {
+                Files.deleteIfExists(staged);
+                Files.deleteIfExists(source);
+            }
+        }
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return Files.newInputStream(require(key));
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(require(key), StandardOpenOption.READ);
+        channel.position(offset);
+        return new RangeInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        Optional<Path> path = locate(key);
+        if (path.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new BlobStat(Files.size(path.get()), Files.getLastModifiedTime(path.get()).toInstant()));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean deleted = Files.deleteIfExists(root.resolve(StorageBackend.relativePath(key)));
+        return Files.deleteIfExists(root.resolve(key)) || deleted;
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return locate(key);
+    }
+
+    @Override
+    public Stream<String> keys() throws IOException {
+        if (!Files.isDirectory(root)) {
+            return Stream.empty();
+        }
+        // Depth 1 holds flat-layout blobs, depth 3 the fanned-out ones
+        return Files.walk(root, 3)
+                .filter(path -> !path.startsWith(tempDir) && Files.isRegularFile(path))
+                .map(path -> path.getFileName().toString())
+                .filter(StorageBackend::isKey);
+    }
+
+    @Override
+    public long purgeTempFiles(Instant olderThan) throws IOException {
+        if (!Files.isDirectory(tempDir)) {
+            return 0;
+        }
+        long freed = 0;
+        try (Stream<Path> temps = Files.list(tempDir)) {
+            for (Path temp : (Iterable<Path>) temps::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(temp, BasicFileAttributes.class);
+                if (attributes.isRegularFile() && attributes.lastModifiedTime().toInstant().isBefore(olderThan)
+                        && Files.deleteIfExists(temp)) {
+                    freed += attributes.size();
+                }
+            }
+        }
+        return freed;
+    }
+
+    private Optional<Path> locate(String key) {
+        Path sharded = root.resolve(StorageBackend.relativePath(key));
+        if (Files.exists(sharded)) {
+            return Optional.of(sharded);
+        }
+        // Flat layout used before fan-out was introduced
+        Path flat = root.resolve(key);
+        return Files.exists(flat) ? Optional.of(flat) : Optional.empty();
+    }
+
+    private Path require(String key) throws IOException {
+        return locate(key).orElseThrow(() -> new NoSuchFileException(key, null, "Blob not found"));
+    }
+
+    /**
+     * Input stream that ends after a fixed number of bytes
+     */
+    private static class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.safechain.safechain.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Spreads blobs across several mount points, each laid out like a
+ * {@link LocalStorageBackend}. New content goes to a volume picked at random
+ * in proportion to its free space, so fuller disks fill more slowly and a
+ * freshly added disk soaks up most new writes without ever taking all of
+ * them. Volumes with less than the reserve left are skipped.
+ * <p>
+ * Reads probe the volumes in order, which costs one stat per volume; volume
+ * counts are small enough for that to stay negligible next to the read.
+ */
+public class MultiVolumeStorageBackend implements StorageBackend {
+
+    private final List<LocalStorageBackend> volumes;
+    private final long reserveBytes;
+
+    public MultiVolumeStorageBackend(List<LocalStorageBackend> volumes, long reserveBytes) {
+        if (volumes.isEmpty()) {
+            throw new IllegalArgumentException("At least one storage volume is required");
+        }
+        this.volumes = List.copyOf(volumes);
+        this.reserveBytes = reserveBytes;
+    }
+
+    @Override
+    public Path createTempFile() throws IOException {
+        // Scratch space on the volume the blob will most likely land on, so put() is a rename
+        return pickVolume().createTempFile();
+    }
+
+    @Override
+    public void put(String key, Path source) throws IOException {
+        Optional<LocalStorageBackend> existing = find(key);
+        if (existing.isPresent()) {
+            existing.get().put(key, source);
+            return;
+        }
+
+        for (LocalStorageBackend volume : volumes) {
+            if (source.toAbsolutePath().startsWith(volume.getRoot()) && volume.usableSpace() > reserveBytes) {
+                volume.put(key, source);
+                return;
+            }
+        }
+        pickVolume().put(key, source);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return require(key).get(key);
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        return require(key).get(key, offset, length);
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        for (LocalStorageBackend volume : volumes) {
+            Optional<BlobStat> stat = volume.stat(key);
+            if (stat.isPresent()) {
+                return stat;
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean deleted = false;
+        for (LocalStorageBackend volume : volumes) {
+            deleted |= volume.delete(key);
+        }
+        return deleted;
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        for (LocalStorageBackend volume : volumes) {
+            Optional<Path> path = volume.localPath(key);
+            if (path.isPresent()) {
+                return path;
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Stream<String> keys() throws IOException {
+        Stream<String> keys = Stream.empty();
+        for (LocalStorageBackend volume : volumes) {
+            keys = Stream.concat(keys, volume.keys());
+        }
+        return keys;
+    }
+
+    @Override
+    public long purgeTempFiles(Instant olderThan) throws IOException {
+        long freed = 0;
+        for (LocalStorageBackend volume : volumes) {
+            freed += volume.purgeTempFiles(olderThan);
+        }
+        return freed;
+    }
+
+    private Optional<LocalStorageBackend> find(String key) {
+        for (LocalStorageBackend volume : volumes) {
+            if (volume.localPath(key).isPresent()) {
+                return Optional.of(volume);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private LocalStorageBackend require(String key) throws IOException {
+        return find(key).orElseThrow(() -> new NoSuchFileException(key, null, "Blob not found"));
+    }
+
+    private LocalStorageBackend pickVolume() throws IOException {
+        long[] free = new long[volumes.size()];
+        long total = 0;
+        for (int i = 0; i < volumes.size(); i++) {
+            free[i] = Math.max(0, volumes.get(i).usableSpace() - reserveBytes);
+            total += free[i];
+        }
+        if (total == 0) {
+            throw new IOException("All storage volumes are full");
+        }
+
+        long pick = ThreadLocalRandom.current().nextLong(total);
+        for (int i = 0; i < free.length; i++) {
+            if (pick < free[i]) {
+                return volumes.get(i);
+            }
+            pick -= free[i];
+        }
+        return volumes.get(volumes.size() - 1);
+    }
+}
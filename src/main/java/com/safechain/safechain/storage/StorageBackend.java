@@ -0,0 +1,140 @@
+package com.safechain.safechain.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Where blob bytes live. Blobs are immutable and addressed by key (the hex
+ * SHA-256 of their content), so a key is written at most once and a second
+ * put of the same key is a no-op.
+ * <p>
+ * New content is first written to a scratch file from {@link #createTempFile()}
+ * and then handed over with {@link #put(String, Path)}, which lets local
+ * backends publish it with a rename instead of a copy.
+ */
+public interface StorageBackend {
+
+    /**
+     * Create an empty scratch file to write new content into before {@link #put(String, Path)}
+     *
+     * @return Path - the scratch file; the caller deletes it if it is never put
+     */
+    Path createTempFile() throws IOException;
+
+    /**
+     * Publish a fully written file under a key. The source is moved into the
+     * backend, or deleted when the key already exists
+     *
+     * @param key    the blob key
+     * @param source the file to publish; gone when this returns
+     */
+    void put(String key, Path source) throws IOException;
+
+    /**
+     * Publish content read from a stream under a key
+     *
+     * @param key     the blob key
+     * @param content the bytes to store, consumed fully but not closed
+     * @return long - number of bytes written
+     */
+    default long put(String key, InputStream content) throws IOException {
+        Path temp = createTempFile();
+        try {
+            long size = Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            put(key, temp);
+            return size;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Open a blob for reading from the start
+     *
+     * @param key the blob key
+     * @return InputStream - the stored bytes; the caller closes it
+     * @throws java.nio.file.NoSuchFileException if the key is not stored
+     */
+    InputStream get(String key) throws IOException;
+
+    /**
+     * Open a byte range of a blob for reading
+     *
+     * @param key    the blob key
+     * @param offset first byte to read
+     * @param length number of bytes to read
+     * @return InputStream - at most {@code length} bytes starting at {@code offset}; the caller closes it
+     * @throws java.nio.file.NoSuchFileException if the key is not stored
+     */
+    InputStream get(String key, long offset, long length) throws IOException;
+
+    /**
+     * Look up a blob's size and modification time
+     *
+     * @param key the blob key
+     * @return Optional<BlobStat> - empty when the key is not stored
+     */
+    Optional<BlobStat> stat(String key) throws IOException;
+
+    /**
+     * Remove a blob
+     *
+     * @param key the blob key
+     * @return boolean - whether anything was removed
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Local file holding a blob, for zero-copy sends. Remote backends return empty
+     *
+     * @param key the blob key
+     * @return Optional<Path> - the file, when the blob is stored on a local filesystem
+     */
+    Optional<Path> localPath(String key);
+
+    /**
+     * List every stored key, for reconciling storage against the database
+     *
+     * @return Stream<String> - the keys in no particular order; the caller closes it
+     */
+    Stream<String> keys() throws IOException;
+
+    /**
+     * Remove scratch files left behind by uploads that never finished
+     *
+     * @param olderThan only files last modified before this are removed
+     * @return long - bytes freed
+     */
+    long purgeTempFiles(Instant olderThan) throws IOException;
+
+    /**
+     * @param name a file name found in storage
+     * @return boolean - whether the name is a well-formed blob key
+     */
+    static boolean isKey(String name) {
+        return name.length() >= 4 && name.chars().allMatch(HexFormat::isHexDigit);
+    }
+
+    /**
+     * Layout path of a key below a storage root. Two levels of fan-out on the
+     * leading hex digits give 65536 leaf directories, so even ten million
+     * blobs leave only about 150 entries per directory
+     *
+     * @param key the blob key
+     * @return String - relative path such as {@code ab/cd/abcd...}
+     */
+    static String relativePath(String key) {
+        // Keys are hex digests; anything else could escape the storage root
+        if (!isKey(key)) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+        return key.substring(0, 2) + "/" + key.substring(2, 4) + "/" + key;
+    }
+}
@@ -0,0 +1,386 @@
+package com.safechain.safechain.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tees one stream of bytes to stages that consume it concurrently, each on
+ * a thread of its own behind a bounded queue of buffers.
+ * <p>
+ * The thread calling {@link #run} reads the source and hands every buffer
+ * to every stage. Buffers are shared rather than copied: a stage that reads
+ * with {@link InputStream#transferTo} gets them as they are, and must not
+ * write into them. Required stages hold the reader back, which waits while
+ * any of their queues is full, so memory stays at {@code depth} buffers a
+ * stage however fast the source is, and the slowest required stage sets the
+ * pace. {@link Tap Taps}, the optional stages, never hold it back.
+ * <p>
+ * {@link #run} returns once every required stage is done; taps may finish
+ * later. The first required stage to fail aborts the others and its
+ * exception is rethrown.
+ */
+public final class UploadPipeline {
+
+    private final Executor executor;
+    private final int bufferSize;
+    private final int depth;
+    private final List<Lane<?>> lanes = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public UploadPipeline(Executor executor, int bufferSize, int depth) {
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.depth = depth;
+    }
+
+    /**
+     * Add a stage the upload cannot succeed without
+     *
+     * @param stage consumes the content
+     * @return CompletableFuture<T> - the stage's result, complete once {@link #run} has returned normally
+     */
+    public <T> CompletableFuture<T> add(Stage<T> stage) {
+        Lane<T> lane = new Lane<>(stage, new CompletableFuture<>(), true);
+        lanes.add(lane);
+        return lane.result;
+    }
+
+    /**
+     * Add a best-effort stage
+     *
+     * @param tap the stage and the future its result goes to
+     */
+    public <T> void tap(Tap<T> tap) {
+        lanes.add(new Lane<>(tap.stage(), tap.result(), false));
+    }
+
+    /**
+     * Feed a source to every stage and wait for the required ones
+     *
+     * @param source read to its end, not closed
+     * @throws RejectedExecutionException if there is no thread for a required stage; nothing has been read then
+     */
+    public void run(InputStream source) throws IOException {
+        start();
+        try {
+            pump(source);
+        } catch (IOException | RuntimeException | Error e) {
+            fail(e);
+            awaitRequired(lanes.size());
+            throw e;
+        }
+        for (Lane<?> lane : lanes) {
+            lane.end();
+        }
+        awaitRequired(lanes.size());
+        Throwable failed = failure.get();
+        if (failed != null) {
+            propagate(failed);
+        }
+    }
+
+    private void start() throws InterruptedIOException {
+        for (int i = 0; i < lanes.size(); i++) {
+            Lane<?> lane = lanes.get(i);
+            try {
+                executor.execute(lane);
+            } catch (RejectedExecutionException e) {
+                if (!lane.required) {
+                    lane.skip(e);
+                    continue;
+                }
+                // Stop the stages already running before the caller does the work some other way
+                fail(new IOException("Upload pipeline could not start", e));
+                for (Lane<?> unstarted : lanes.subList(i, lanes.size())) {
+                    unstarted.skip(e);
+                }
+                awaitRequired(i);
+                throw e;
+            }
+        }
+    }
+
+    private void pump(InputStream source) throws IOException {
+        while (failure.get() == null) {
+            byte[] buffer = new byte[bufferSize];
+            int length = source.readNBytes(buffer, 0, bufferSize);
+            if (length == 0) {
+                return;
+            }
+            Chunk chunk = new Chunk(buffer, length);
+            for (Lane<?> lane : lanes) {
+                lane.offer(chunk);
+            }
+            if (length < bufferSize) {
+                return;
+            }
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure.compareAndSet(null, e)) {
+            for (Lane<?> lane : lanes) {
+                lane.abort(e);
+            }
+        }
+    }
+
+    private void awaitRequired(int started) throws InterruptedIOException {
+        for (Lane<?> lane : lanes.subList(0, started)) {
+            if (!lane.required) {
+                continue;
+            }
+            try {
+                lane.result.get();
+            } catch (ExecutionException e) {
+                // Already recorded as the pipeline's failure
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+                throw new InterruptedIOException("Interrupted waiting for upload stages");
+            }
+        }
+    }
+
+    private static void propagate(Throwable e) throws IOException {
+        if (e instanceof IOException io) {
+            throw io;
+        }
+        if (e instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (e instanceof Error error) {
+            throw error;
+        }
+        throw new IOException(e);
+    }
+
+    /**
+     * Work on the content of an upload, run on a pipeline thread
+     */
+    @FunctionalInterface
+    public interface Stage<T> {
+
+        /**
+         * @param content the upload's bytes; reading stops short when the upload is aborted
+         * @return T - the stage's result
+         */
+        T process(InputStream content) throws IOException;
+    }
+
+    /**
+     * A stage that is worth running alongside an upload but not worth
+     * slowing it down for. One that falls behind the reader, or finds no
+     * free thread, is dropped and its result fails, for the caller to do the
+     * work some other way. Its result is cancelled when the upload is not
+     * pipelined at all.
+     */
+    public record Tap<T>(Stage<T> stage, CompletableFuture<T> result) {
+
+        public Tap(Stage<T> stage) {
+            this(stage, new CompletableFuture<>());
+        }
+    }
+
+    private record Chunk(byte[] data, int length) {
+    }
+
+    /**
+     * One stage, the queue in front of it and the stream it reads from
+     */
+    private final class Lane<T> implements Runnable {
+
+        private final Stage<T> stage;
+        private final CompletableFuture<T> result;
+        private final boolean required;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final ArrayDeque<Chunk> queue = new ArrayDeque<>(depth);
+        private boolean ended;
+        private boolean closed;
+        private Throwable aborted;
+
+        Lane(Stage<T> stage, CompletableFuture<T> result, boolean required) {
+            this.stage = stage;
+            this.result = result;
+            this.required = required;
+        }
+
+        @Override
+        public void run() {
+            T value = null;
+            Throwable error = null;
+            try {
+                value = stage.process(new Input());
+            } catch (Throwable e) {
+                error = e;
+            }
+            close();
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            if (required) {
+                fail(error);
+            }
+            result.completeExceptionally(error);
+        }
+
+        void offer(Chunk chunk) throws InterruptedIOException {
+            lock.lock();
+            try {
+                while (!closed && aborted == null && queue.size() >= depth) {
+                    if (!required) {
+                        abort(new IOException("Stage fell behind the upload"));
+                        return;
+                    }
+                    notFull.await();
+                }
+                if (!closed && aborted == null) {
+                    queue.add(chunk);
+                    notEmpty.signal();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted feeding upload stages");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void end() {
+            lock.lock();
+            try {
+                ended = true;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void abort(Throwable cause) {
+            lock.lock();
+            try {
+                if (aborted == null) {
+                    aborted = cause;
+                }
+                queue.clear();
+                notEmpty.signal();
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void skip(Throwable cause) {
+            close();
+            result.completeExceptionally(cause);
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                closed = true;
+                queue.clear();
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Chunk take() throws IOException {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !ended && aborted == null) {
+                    notEmpty.await();
+                }
+                if (aborted != null) {
+                    throw new IOException("Upload aborted", aborted);
+                }
+                // Null once the source has ended and the queue is drained
+                Chunk chunk = queue.poll();
+                notFull.signal();
+                return chunk;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for upload data");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * The lane's queue as a stream; closing it tells the reader the stage wants no more
+         */
+        private final class Input extends InputStream {
+
+            private Chunk current;
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                return fill() ? current.data()[position++] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                Objects.checkFromIndexSize(off, len, b.length);
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, current.length() - position);
+                System.arraycopy(current.data(), position, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public long transferTo(OutputStream out) throws IOException {
+                long transferred = 0;
+                while (fill()) {
+                    int n = current.length() - position;
+                    out.write(current.data(), position, n);
+                    position += n;
+                    transferred += n;
+                }
+                return transferred;
+            }
+
+            @Override
+            public int available() {
+                return current != null ? current.length() - position : 0;
+            }
+
+            @Override
+            public void close() {
+                Lane.this.close();
+            }
+
+            private boolean fill() throws IOException {
+                if (current != null && position < current.length()) {
+                    return true;
+                }
+                current = take();
+                position = 0;
+                return current != null;
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.safechain.safechain.util;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataSource that caps how many connections are out at once, with a smaller
+ * cap for bulk work.
+ * <p>
+ * Callers take a permit before a connection is borrowed and return it when
+ * the connection is closed. Permits are handed out first come, first served,
+ * and a caller that cannot get one in time fails instead of queueing inside
+ * the pool. The cap matters once requests run on virtual threads, where
+ * nothing else bounds how many are waiting on the database.
+ * <p>
+ * Work marked with {@link #bulk()}, such as downloads, uploads and exports,
+ * needs a bulk permit as well. Since there are fewer bulk permits than
+ * connections, a crowd of long transfers can never take the connections
+ * quick metadata calls need.
+ */
+public class ConcurrencyLimitingDataSource extends DelegatingDataSource {
+
+    private static final ThreadLocal<Boolean> BULK = new ThreadLocal<>();
+
+    private final Semaphore permits;
+    private final Semaphore bulkPermits;
+    private final long timeoutNanos;
+
+    public ConcurrencyLimitingDataSource(DataSource target, int maxConcurrency, int bulkMaxConcurrency,
+                                         Duration acquireTimeout) {
+        super(target);
+        if (bulkMaxConcurrency > maxConcurrency) {
+            throw new IllegalArgumentException("Bulk concurrency cannot exceed the total");
+        }
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.bulkPermits = new Semaphore(bulkMaxConcurrency, true);
+        this.timeoutNanos = acquireTimeout.toNanos();
+    }
+
+    /**
+     * Mark the current thread's database work as bulk until the scope is closed
+     *
+     * @return Scope - restores the previous marking when closed
+     */
+    public static Scope bulk() {
+        Boolean previous = BULK.get();
+        BULK.set(Boolean.TRUE);
+        return () -> {
+            if (previous == null) {
+                BULK.remove();
+            } else {
+                BULK.set(previous);
+            }
+        };
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        boolean bulk = acquire();
+        try {
+            return limited(obtainTargetDataSource().getConnection(), bulk);
+        } catch (SQLException | RuntimeException e) {
+            release(bulk);
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        boolean bulk = acquire();
+        try {
+            return limited(obtainTargetDataSource().getConnection(username, password), bulk);
+        } catch (SQLException | RuntimeException e) {
+            release(bulk);
+            throw e;
+        }
+    }
+
+    /**
+     * @return int - connections that can be borrowed right now
+     */
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * @return int - connections bulk work can borrow right now
+     */
+    public int availableBulkPermits() {
+        return bulkPermits.availablePermits();
+    }
+
+    private boolean acquire() throws SQLException {
+        boolean bulk = BULK.get() != null;
+        long deadline = System.nanoTime() + timeoutNanos;
+        try {
+            if (bulk && !bulkPermits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw busy();
+            }
+            if (!permits.tryAcquire(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                if (bulk) {
+                    bulkPermits.release();
+                }
+                throw busy();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted waiting for a database connection", e);
+        }
+        return bulk;
+    }
+
+    private void release(boolean bulk) {
+        permits.release();
+        if (bulk) {
+            bulkPermits.release();
+        }
+    }
+
+    private SQLTransientConnectionException busy() {
+        return new SQLTransientConnectionException("Database busy: no connection available within "
+                + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+    }
+
+    private Connection limited(Connection target, boolean bulk) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new PermitReleasingHandler(target, bulk));
+    }
+
+    /**
+     * Closes a scope from {@link #bulk()}; unlike AutoCloseable, without a checked exception
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Passes every call through to the pooled connection and gives the
+     * permits back on the first close
+     */
+    private final class PermitReleasingHandler implements InvocationHandler {
+
+        private final Connection target;
+        private final boolean bulk;
+        private boolean closed;
+
+        PermitReleasingHandler(Connection target, boolean bulk) {
+            this.target = target;
+            this.bulk = bulk;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (closed) {
+                        return null;
+                    }
+                    closed = true;
+                    try {
+                        target.close();
+                    } finally {
+                        release(bulk);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed || target.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Limited " + target;
+                }
+                default -> {
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                }
+            }
+        }
+    }
+}
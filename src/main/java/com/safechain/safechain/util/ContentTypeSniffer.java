@@ -0,0 +1,104 @@
+package com.safechain.safechain.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Works out the type of content a client sent without a specific one, from
+ * its first bytes. A declared type is trusted as it is; only a missing type
+ * or {@code application/octet-stream} is sniffed, and content that matches
+ * nothing keeps what was declared.
+ */
+public final class ContentTypeSniffer {
+
+    /** How many leading bytes {@link #sniff} looks at */
+    public static final int HEAD_SIZE = 1024;
+
+    private static final String GENERIC_TYPE = "application/octet-stream";
+
+    private static final Signature[] SIGNATURES = {
+            new Signature(0, "%PDF-", "application/pdf"),
+            new Signature(0, new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, "image/png"),
+            new Signature(0, new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, "image/jpeg"),
+            new Signature(0, "GIF87a", "image/gif"),
+            new Signature(0, "GIF89a", "image/gif"),
+            new Signature(8, "WEBP", "image/webp"),
+            new Signature(4, "ftyp", "video/mp4"),
+            new Signature(0, new byte[]{0x1F, (byte) 0x8B}, "application/gzip"),
+            new Signature(0, new byte[]{'P', 'K', 3, 4}, "application/zip"),
+            new Signature(0, new byte[]{'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C}, "application/x-7z-compressed"),
+    };
+
+    private ContentTypeSniffer() {
+    }
+
+    /**
+     * @param declared the type the client sent, possibly null
+     * @param head     the first bytes of the content, up to {@link #HEAD_SIZE}
+     * @return String - the declared type, or what the content looks like when the declared type says nothing
+     */
+    public static String sniff(String declared, byte[] head) {
+        if (!isGeneric(declared) || head.length == 0) {
+            return declared;
+        }
+        for (Signature signature : SIGNATURES) {
+            if (signature.matches(head)) {
+                return signature.type();
+            }
+        }
+        return isText(head) ? "text/plain" : declared;
+    }
+
+    /**
+     * @param declared the type the client sent, possibly null
+     * @param path     a file holding the content
+     * @return String - the declared type, or what the content looks like when the declared type says nothing
+     */
+    public static String sniff(String declared, Path path) throws IOException {
+        if (!isGeneric(declared)) {
+            return declared;
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            return sniff(declared, in.readNBytes(HEAD_SIZE));
+        }
+    }
+
+    private static boolean isGeneric(String type) {
+        return type == null || type.isBlank() || type.toLowerCase(Locale.ROOT).startsWith(GENERIC_TYPE);
+    }
+
+    private static boolean isText(byte[] head) {
+        for (byte b : head) {
+            // Control characters other than tab, line breaks, form feed and escape mean binary
+            if ((b >= 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1B) || b == 0x7F) {
+                return false;
+            }
+        }
+        // The head may end partway through a character, which is not an error here
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        return !decoder.decode(ByteBuffer.wrap(head), CharBuffer.allocate(head.length), false).isError();
+    }
+
+    private record Signature(int offset, byte[] magic, String type) {
+
+        Signature(int offset, String magic, String type) {
+            this(offset, magic.getBytes(StandardCharsets.ISO_8859_1), type);
+        }
+
+        boolean matches(byte[] head) {
+            return head.length >= offset + magic.length
+                    && Arrays.equals(head, offset, offset + magic.length, magic, 0, magic.length);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.safechain.safechain.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Incremental SHA-256 Merkle root (RFC 6962 shape) over a stream of leaf
+ * hashes, in O(log n) memory. Leaves and inner nodes are hashed with
+ * different prefixes, so a leaf can never pass for a subtree.
+ */
+public final class MerkleRoot {
+
+    /** Root of an empty tree */
+    public static final byte[] EMPTY = new byte[32];
+
+    private final Deque<byte[]> subtrees = new ArrayDeque<>();
+    private final Deque<Integer> heights = new ArrayDeque<>();
+
+    /**
+     * @param leaf the next leaf hash
+     */
+    public void add(byte[] leaf) {
+        add(leaf, 0, leaf.length);
+    }
+
+    /**
+     * @param leaves array holding the leaf hash
+     * @param offset where the hash starts
+     * @param length length of the hash
+     */
+    public void add(byte[] leaves, int offset, int length) {
+        MessageDigest digest = newDigest();
+        digest.update((byte) 0);
+        digest.update(leaves, offset, length);
+        byte[] node = digest.digest();
+        int height = 0;
+        // Merge equal-sized subtrees, like carrying in a binary counter
+        while (!heights.isEmpty() && heights.peek() == height) {
+            heights.pop();
+            node = node(subtrees.pop(), node);
+            height++;
+        }
+        subtrees.push(node);
+        heights.push(height);
+    }
+
+    /**
+     * @return byte[] - root over the leaves added so far, {@link #EMPTY} if there are none
+     */
+    public byte[] root() {
+        if (subtrees.isEmpty()) {
+            return EMPTY.clone();
+        }
+        byte[] root = null;
+        for (byte[] subtree : subtrees) {
+            root = root == null ? subtree : node(subtree, root);
+        }
+        return root;
+    }
+
+    private static byte[] node(byte[] left, byte[] right) {
+        MessageDigest digest = newDigest();
+        digest.update((byte) 1);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
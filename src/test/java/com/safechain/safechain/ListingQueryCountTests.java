@@ -0,0 +1,163 @@
+package com.safechain.safechain;
+
+import com.safechain.safechain.entity.ActivityLog;
+import com.safechain.safechain.entity.File;
+import com.safechain.safechain.entity.FileShare;
+import com.safechain.safechain.entity.User;
+import com.safechain.safechain.repository.ActivityLogRepository;
+import com.safechain.safechain.repository.FileRepository;
+import com.safechain.safechain.repository.FileShareRepository;
+import com.safechain.safechain.repository.UserRepository;
+import com.safechain.safechain.service.ActivityLogService;
+import com.safechain.safechain.service.FileService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Guards the listing endpoints against N+1 regressions: every listing must
+ * cost a fixed number of SQL statements no matter how many rows it returns.
+ */
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class ListingQueryCountTests {
+
+	private static final int ROWS = 5;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private FileRepository fileRepository;
+
+	@Autowired
+	private FileShareRepository fileShareRepository;
+
+	@Autowired
+	private ActivityLogRepository activityLogRepository;
+
+	@Autowired
+	private FileService fileService;
+
+	@Autowired
+	private ActivityLogService activityLogService;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+	private User owner;
+	private User recipient;
+	private File firstFile;
+
+	@BeforeEach
+	void setUp() {
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		owner = saveUser("owner", User.Role.ADMIN);
+		recipient = saveUser("recipient", User.Role.USER);
+
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++) {
+			File file = new File();
+			file.setFileName("file-" + i + ".txt");
+			file.setFilePath("/tmp/file-" + i);
+			file.setFileType("text/plain");
+			file.setFileSize(10L);
+			file.setUploadedBy(owner);
+			files.add(fileRepository.save(file));
+		}
+		firstFile = files.get(0);
+
+		for (File file : files) {
+			FileShare share = new FileShare();
+			share.setFile(file);
+			share.setSharedWithUser(recipient);
+			share.setSharedByUser(owner);
+			fileShareRepository.save(share);
+
+			ActivityLog log = new ActivityLog();
+			log.setEventType(ActivityLog.EventType.UPLOAD);
+			log.setUser(owner);
+			log.setFile(file);
+			log.setDetails("seed");
+			activityLogRepository.save(log);
+		}
+		for (int i = 1; i < ROWS; i++) {
+			FileShare share = new FileShare();
+			share.setFile(firstFile);
+			share.setSharedWithUser(saveUser("extra-" + i, User.Role.USER));
+			share.setSharedByUser(owner);
+			fileShareRepository.save(share);
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		SecurityContextHolder.clearContext();
+	}
+
+	@Test
+	void myFilesIsOneStatement() {
+		authenticate(owner);
+		assertStatements(1, () -> fileService.getMyFiles(null, null).getItems());
+	}
+
+	@Test
+	void sharedFilesIsOneStatement() {
+		authenticate(recipient);
+		assertStatements(1, () -> fileService.getSharedFiles(null, null).getItems());
+	}
+
+	@Test
+	void sharedUsersIsOwnershipCheckPlusOneStatement() {
+		authenticate(owner);
+		assertStatements(2, () -> fileService.listSharedUsers(firstFile.getId()));
+	}
+
+	@Test
+	void activityLogsAreOneStatement() {
+		authenticate(owner);
+		assertStatements(1, () -> activityLogService.getMyLogs(null, null, null, null).getItems());
+		assertStatements(1, () -> activityLogService.getAllLogs(null, null, null, null).getItems());
+	}
+
+	private void assertStatements(long expected, Supplier<List<?>> listing) {
+		statistics.clear();
+		List<?> rows = listing.get();
+		assertTrue(rows.size() >= ROWS, "fixture rows missing from listing");
+		rows.forEach(Object::toString);
+		assertEquals(expected, statistics.getPrepareStatementCount());
+	}
+
+	private User saveUser(String prefix, User.Role role) {
+		User user = new User();
+		user.setFullName(prefix);
+		user.setEmail(prefix + "-" + UUID.randomUUID() + "@test.local");
+		user.setPassword("x");
+		user.setRole(role);
+		return userRepository.save(user);
+	}
+
+	private void authenticate(User user) {
+		SecurityContextHolder.getContext().setAuthentication(
+				new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+	}
+
+}
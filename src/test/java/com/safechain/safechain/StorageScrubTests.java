@@ -0,0 +1,79 @@
+package com.safechain.safechain;
+
+import com.safechain.safechain.dto.StorageScrubStatusResponse;
+import com.safechain.safechain.service.BlobIntegrityService;
+import com.safechain.safechain.service.BlobStorageService;
+import com.safechain.safechain.storage.StorageBackend;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A scrub pass must record what is wrong with a blob whose content is gone,
+ * so it is listed as corrupt and not picked again on every following pass.
+ */
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest(properties = {"integrity.scrub.enabled=false", "encryption.enabled=false",
+		"file.upload-dir=target/scrub-test-uploads"})
+class StorageScrubTests {
+
+	@Autowired
+	private BlobStorageService blobStorageService;
+
+	@Autowired
+	private BlobIntegrityService blobIntegrityService;
+
+	@Autowired
+	private StorageBackend storageBackend;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void recordsMissingContent() throws Exception {
+		String intact = store(1);
+		String missing = store(2);
+		assertTrue(storageBackend.delete(missing));
+
+		StorageScrubStatusResponse status = scrub();
+
+		assertEquals("content is missing", blobRow(missing).get("integrity_error"));
+		assertNotNull(blobRow(missing).get("verified_at"));
+		assertNull(blobRow(intact).get("integrity_error"));
+		assertTrue(status.getCorrupt().contains(missing + ": content is missing"), status.getCorrupt().toString());
+		assertEquals(0, status.getLastRun().getFailures());
+	}
+
+	private String store(long seed) throws Exception {
+		byte[] content = new byte[10_000];
+		new Random(seed).nextBytes(content);
+		return blobStorageService.store(new ByteArrayInputStream(content), "application/octet-stream").digest();
+	}
+
+	private StorageScrubStatusResponse scrub() throws InterruptedException {
+		StorageScrubStatusResponse status = blobIntegrityService.requestScrub();
+		for (int i = 0; i < 100 && status.isScrubbing(); i++) {
+			TimeUnit.MILLISECONDS.sleep(100);
+			status = blobIntegrityService.status();
+		}
+		assertFalse(status.isScrubbing(), "scrub pass did not finish");
+		return status;
+	}
+
+	private Map<String, Object> blobRow(String digest) {
+		return jdbcTemplate.queryForMap("SELECT integrity_error, verified_at FROM blobs WHERE digest = ?", digest);
+	}
+}
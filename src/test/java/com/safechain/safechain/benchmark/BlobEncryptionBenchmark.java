@@ -0,0 +1,157 @@
+package com.safechain.safechain.benchmark;
+
+import com.safechain.safechain.storage.SegmentedAesGcm;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of blob encryption against the disk write it sits in front of.
+ * <p>
+ * A 64 MB blob is written in 1 MB chunks, as the upload path does: as plain
+ * bytes to a file ({@code plainWriteToDisk}, the baseline), encrypted to a
+ * file ({@code encryptToDisk}), and encrypted or decrypted in memory to
+ * measure the cipher on its own. {@code decryptRange} reads 1 MB from the
+ * middle, the cost of a typical Range request. The {@code bytes} counter is
+ * reported per second, so it reads directly as bytes/s.
+ * Warmup is long because the cipher only reaches its intrinsics once
+ * compiled, which takes a while when each call covers a large segment.
+ * <p>
+ * The JDK intrinsifies AES/GCM; to see what that is worth, rerun with
+ * {@code -XX:-UseAESIntrinsics -XX:-UseAESCTRIntrinsics -XX:-UseGHASHIntrinsics}
+ * added through {@code jvmArgsAppend}.
+ * <p>
+ * Run with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.safechain.safechain.benchmark.BlobEncryptionBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class BlobEncryptionBenchmark {
+
+    private static final int BLOB_SIZE = 64 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    @Param({"16384", "65536", "1048576"})
+    public int segmentSize;
+
+    private byte[] plaintext;
+    private byte[] ciphertext;
+    private SecretKey key;
+    private SegmentedAesGcm reader;
+    private Path file;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class ByteCounter {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GeneralSecurityException {
+        plaintext = new byte[BLOB_SIZE];
+        new Random(42).nextBytes(plaintext);
+
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        key = generator.generateKey();
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream(BLOB_SIZE + BLOB_SIZE / 1024);
+        try (OutputStream out = SegmentedAesGcm.create(key, segmentSize).encrypt(encrypted)) {
+            writeChunked(out);
+        }
+        ciphertext = encrypted.toByteArray();
+        reader = SegmentedAesGcm.open(key, this::ciphertextRange);
+
+        file = Files.createTempFile("encryption-bench", ".bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void plainWriteToDisk(ByteCounter counter) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            writeChunked(out);
+        }
+        counter.bytes += BLOB_SIZE;
+    }
+
+    @Benchmark
+    public void encryptToDisk(ByteCounter counter) throws IOException {
+        try (OutputStream out = SegmentedAesGcm.create(key, segmentSize).encrypt(Files.newOutputStream(file))) {
+            writeChunked(out);
+        }
+        counter.bytes += BLOB_SIZE;
+    }
+
+    @Benchmark
+    public void encrypt(ByteCounter counter) throws IOException {
+        try (OutputStream out = SegmentedAesGcm.create(key, segmentSize).encrypt(OutputStream.nullOutputStream())) {
+            writeChunked(out);
+        }
+        counter.bytes += BLOB_SIZE;
+    }
+
+    @Benchmark
+    public long decrypt(ByteCounter counter) throws IOException {
+        long read = drain(reader.decrypt(this::ciphertextRange, ciphertext.length, 0, BLOB_SIZE));
+        counter.bytes += read;
+        return read;
+    }
+
+    @Benchmark
+    public long decryptRange(ByteCounter counter) throws IOException {
+        long read = drain(reader.decrypt(this::ciphertextRange, ciphertext.length, BLOB_SIZE / 2 + 12345, CHUNK_SIZE));
+        counter.bytes += read;
+        return read;
+    }
+
+    private void writeChunked(OutputStream out) throws IOException {
+        for (int offset = 0; offset < BLOB_SIZE; offset += CHUNK_SIZE) {
+            out.write(plaintext, offset, CHUNK_SIZE);
+        }
+    }
+
+    private InputStream ciphertextRange(long offset, long length) {
+        return new ByteArrayInputStream(ciphertext, (int) offset, (int) length);
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long total = 0;
+        try (in) {
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BlobEncryptionBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
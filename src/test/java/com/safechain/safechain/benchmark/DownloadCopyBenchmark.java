@@ -0,0 +1,132 @@
+package com.safechain.safechain.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.UrlResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old download path (UrlResource stream copied through a heap
+ * buffer, as the servlet resource writer does) with FileChannel.transferTo,
+ * which the kernel turns into sendfile when the target is a socket.
+ * <p>
+ * Both variants send a 64 MB file over a loopback socket to a draining reader.
+ * Besides throughput, the {@code cpuNanos} and {@code bytes} counters report
+ * sender-thread CPU time, so CPU per GB is {@code cpuNanos / bytes}.
+ * <p>
+ * Run with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.safechain.safechain.benchmark.DownloadCopyBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class DownloadCopyBenchmark {
+
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private Path file;
+    private ServerSocketChannel server;
+    private Thread drainer;
+    private SocketChannel socket;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class CpuCounters {
+        public long cpuNanos;
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("download-bench", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) (i * 31);
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < FILE_SIZE / block.length; i++) {
+                out.write(block);
+            }
+        }
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        drainer = new Thread(() -> {
+            try (SocketChannel peer = server.accept()) {
+                ByteBuffer sink = ByteBuffer.allocateDirect(1024 * 1024);
+                while (peer.read(sink) != -1) {
+                    sink.clear();
+                }
+            } catch (IOException ignored) {
+                // socket closed at tear-down
+            }
+        }, "download-bench-drain");
+        drainer.setDaemon(true);
+        drainer.start();
+        socket = SocketChannel.open(server.getLocalAddress());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        socket.close();
+        drainer.join(5000);
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long urlResourceStreamCopy(CpuCounters counters) throws IOException {
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        long copied;
+        try (InputStream in = new UrlResource(file.toUri()).getInputStream()) {
+            copied = StreamUtils.copy(in, Channels.newOutputStream(socket));
+        }
+        counters.cpuNanos += THREADS.getCurrentThreadCpuTime() - cpuStart;
+        counters.bytes += copied;
+        return copied;
+    }
+
+    @Benchmark
+    public long fileChannelTransferTo(CpuCounters counters) throws IOException {
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        long position = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (position < FILE_SIZE) {
+                position += channel.transferTo(position, FILE_SIZE - position, socket);
+            }
+        }
+        counters.cpuNanos += THREADS.getCurrentThreadCpuTime() - cpuStart;
+        counters.bytes += position;
+        return position;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DownloadCopyBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,200 @@
+package com.safechain.safechain.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load test for a running server: quick metadata calls while many slow
+ * downloads are in flight.
+ * <p>
+ * Uploads one file, then keeps {@code slowDownloads} downloads of it open,
+ * each read at {@value #SLOW_READ_RATE} bytes/s, the way clients on poor
+ * links hold server threads and whatever those threads hold. Once they are
+ * all running, {@code metadataClients} clients call {@code GET /api/files/my}
+ * back to back for {@code seconds}, and their throughput and latency
+ * percentiles are reported. Failed calls and calls slower than the 30-second
+ * client timeout count as errors.
+ * <p>
+ * Compare execution modes by restarting the server between runs, e.g. with
+ * platform threads and then with {@code --spring.threads.virtual.enabled=true}
+ * on Java 21, and with {@code --db.limiter.enabled} on and off.
+ * <p>
+ * Run against a started server with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.safechain.safechain.benchmark.DownloadLoadBenchmark
+ * -Dexec.args="http://localhost:8080 400 16 30"}
+ */
+public class DownloadLoadBenchmark {
+
+    private static final int FILE_SIZE = 8 * 1024 * 1024;
+    private static final int SLOW_READ_RATE = 64 * 1024;
+    private static final int READ_CHUNK = 16 * 1024;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final Pattern TOKEN = Pattern.compile("\"token\":\"([^\"]+)\"");
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int slowDownloads = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        int metadataClients = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+
+        ExecutorService threads = Executors.newCachedThreadPool();
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(TIMEOUT)
+                .executor(threads)
+                .build();
+
+        String token = login(client, baseUrl, "loadtest@example.com");
+        long fileId = upload(client, baseUrl, token);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong downloaded = new AtomicLong();
+        AtomicLong downloadErrors = new AtomicLong();
+        for (int i = 0; i < slowDownloads; i++) {
+            threads.execute(() -> slowDownloads(client, baseUrl, token, fileId, stop, downloaded, downloadErrors));
+        }
+        // Let every download get its response started, and its server thread busy
+        Thread.sleep(5000);
+
+        List<List<Long>> latencies = new ArrayList<>();
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < metadataClients; i++) {
+            List<Long> own = new ArrayList<>();
+            latencies.add(own);
+            Thread caller = new Thread(() -> metadataCalls(client, baseUrl, token, deadline, own, errors));
+            caller.start();
+            callers.add(caller);
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        stop.set(true);
+
+        List<Long> all = new ArrayList<>();
+        latencies.forEach(all::addAll);
+        Collections.sort(all);
+        System.out.printf("slow downloads: %d (%d MB read, %d errors)%n",
+                slowDownloads, downloaded.get() / (1024 * 1024), downloadErrors.get());
+        System.out.printf("metadata calls: %d ok, %d errors, %.1f req/s%n", all.size(), errors.get(),
+                all.size() / (double) seconds);
+        if (!all.isEmpty()) {
+            System.out.printf("latency ms: p50 %.1f  p99 %.1f  max %.1f%n",
+                    percentile(all, 0.50), percentile(all, 0.99), all.get(all.size() - 1) / 1e6);
+        }
+        threads.shutdownNow();
+        System.exit(0);
+    }
+
+    private static void slowDownloads(HttpClient client, String baseUrl, String token, long fileId,
+                                      AtomicBoolean stop, AtomicLong downloaded, AtomicLong errors) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/files/" + fileId + "/download"))
+                .header("Authorization", "Bearer " + token)
+                .build();
+        byte[] buffer = new byte[READ_CHUNK];
+        while (!stop.get()) {
+            try {
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                    response.body().close();
+                    Thread.sleep(1000);
+                    continue;
+                }
+                try (InputStream body = response.body()) {
+                    for (int read; !stop.get() && (read = body.read(buffer)) != -1; ) {
+                        downloaded.addAndGet(read);
+                        Thread.sleep(1000L * read / SLOW_READ_RATE);
+                    }
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void metadataCalls(HttpClient client, String baseUrl, String token, long deadline,
+                                      List<Long> latencies, AtomicLong errors) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/files/my?limit=20"))
+                .header("Authorization", "Bearer " + token)
+                .timeout(TIMEOUT)
+                .build();
+        while (System.nanoTime() < deadline) {
+            long started = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) {
+                    latencies.add(System.nanoTime() - started);
+                } else {
+                    errors.incrementAndGet();
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static String login(HttpClient client, String baseUrl, String email) throws Exception {
+        String credentials = "{\"fullName\":\"Load Test\",\"email\":\"" + email + "\",\"password\":\"password123\"}";
+        // Registering again fails harmlessly once the user exists
+        client.send(json(baseUrl + "/api/auth/register", credentials), HttpResponse.BodyHandlers.discarding());
+        String body = client.send(json(baseUrl + "/api/auth/login", credentials),
+                HttpResponse.BodyHandlers.ofString()).body();
+        Matcher matcher = TOKEN.matcher(body);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Login failed: " + body);
+        }
+        return matcher.group(1);
+    }
+
+    private static long upload(HttpClient client, String baseUrl, String token) throws Exception {
+        byte[] content = new byte[FILE_SIZE];
+        new Random().nextBytes(content);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/files/upload/stream?fileName=load.bin"))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                .build();
+        String body = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        Matcher matcher = ID.matcher(body);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Upload failed: " + body);
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static HttpRequest json(String url, String body) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static double percentile(List<Long> sorted, double fraction) {
+        int index = (int) Math.min(sorted.size() - 1, Math.ceil(fraction * sorted.size()) - 1);
+        return sorted.get(Math.max(index, 0)) / 1e6;
+    }
+}
@@ -0,0 +1,142 @@
+package com.safechain.safechain.benchmark;
+
+import com.safechain.safechain.storage.ChunkTree;
+import com.safechain.safechain.storage.SegmentedAesGcm;
+import com.safechain.safechain.storage.UploadPipeline;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Upload latency with the storage work done in one pass on the request
+ * thread against the same work teed through an {@link UploadPipeline}.
+ * <p>
+ * A 64 MB upload is encrypted to a file, gzip-encoded first when
+ * {@code gzip} is set, while its SHA-256 and 1 MB chunk hashes are computed:
+ * chained as in a single pass ({@code serial}), and as three pipeline stages
+ * ({@code pipelined}). Content is half random and half repeated text, so
+ * gzip has something to do. With enough cores the pipelined upload costs
+ * about as much as its slowest stage; on a single core it shows the cost of
+ * handing buffers between threads.
+ * <p>
+ * Run with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.safechain.safechain.benchmark.UploadPipelineBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UploadPipelineBenchmark {
+
+    private static final int UPLOAD_SIZE = 64 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DEPTH = 16;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private byte[] content;
+    private SecretKey key;
+    private Path file;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GeneralSecurityException {
+        content = new byte[UPLOAD_SIZE];
+        Random random = new Random(42);
+        random.nextBytes(content);
+        byte[] text = "the quick brown fox jumps over the lazy dog ".getBytes();
+        for (int i = UPLOAD_SIZE / 2; i < UPLOAD_SIZE; i++) {
+            content[i] = text[i % text.length];
+        }
+
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        key = generator.generateKey();
+
+        file = Files.createTempFile("pipeline-bench", ".bin");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public byte[] serial() throws IOException {
+        MessageDigest digest = newDigest();
+        ChunkTree.Hasher hasher = ChunkTree.hashing(new DigestInputStream(new ByteArrayInputStream(content), digest),
+                CHUNK_SIZE);
+        write(hasher);
+        return hasher.tree().getRoot();
+    }
+
+    @Benchmark
+    public byte[] pipelined() throws IOException {
+        UploadPipeline pipeline = new UploadPipeline(executor, BUFFER_SIZE, DEPTH);
+        pipeline.add(this::write);
+        CompletableFuture<byte[]> digest = pipeline.add(in -> {
+            MessageDigest sha256 = newDigest();
+            in.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), sha256));
+            return sha256.digest();
+        });
+        CompletableFuture<ChunkTree> tree = pipeline.add(in -> {
+            ChunkTree.Builder builder = new ChunkTree.Builder(CHUNK_SIZE);
+            in.transferTo(builder.asOutputStream());
+            return builder.build();
+        });
+        pipeline.run(new ByteArrayInputStream(content));
+        digest.join();
+        return tree.join().getRoot();
+    }
+
+    private long write(InputStream in) throws IOException {
+        OutputStream encrypted = SegmentedAesGcm.create(key, SEGMENT_SIZE).encrypt(Files.newOutputStream(file));
+        try (OutputStream out = gzip ? new GZIPOutputStream(encrypted, BUFFER_SIZE) : encrypted) {
+            return in.transferTo(out);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(UploadPipelineBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
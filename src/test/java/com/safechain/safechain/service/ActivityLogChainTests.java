@@ -0,0 +1,237 @@
+package com.safechain.safechain.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * The activity-log chain must catch every way of tampering with the rows or
+ * their checkpoints: altered, missing and duplicated rows, checkpoints cut
+ * loose from their predecessor, and checkpoints whose MAC was stripped or
+ * forged.
+ */
+class ActivityLogChainTests {
+
+	private static final LocalDate DAY = LocalDate.of(2026, 3, 14);
+	private static final short SHARD = 3;
+	private static final byte[] GENESIS = new byte[32];
+
+	private final MasterKeyService keys = masterKeys(true);
+
+	@Test
+	void rowHashCoversEveryField() {
+		LocalDateTime at = DAY.atTime(12, 0, 0, 123_000);
+		byte[] hash = ActivityLogChain.rowHash(GENESIS, DAY, SHARD, 1, "UPLOAD", 7L, 9L, "a", at);
+
+		assertArrayEquals(hash, ActivityLogChain.rowHash(GENESIS, DAY, SHARD, 1, "UPLOAD", 7L, 9L, "a", at));
+		assertDiffers(hash, ActivityLogChain.rowHash(new byte[]{1}, DAY, SHARD, 1, "UPLOAD", 7L, 9L, "a", at));
+		assertDiffers(hash, ActivityLogChain.rowHash(GENESIS, DAY.plusDays(1), SHARD, 1, "UPLOAD", 7L, 9L, "a", at));
+		assertDiffers(hash, ActivityLogChain.rowHash(GENESIS, DAY, (short) 4, 1, "UPLOAD", 7L, 9L, "a", at));
+		assertDiffers(hash, ActivityLogChain.rowHash(GENESIS, DAY, SHARD, 2, "UPLOAD", 7L, 9L, "a", at));
+		assertDiffers(hash, ActivityLogChain.rowHash(GENESIS, DAY, SHARD, 1, "DELETE", 7L, 9L, "a", at));
+		assertDiffers(hash, ActivityLogChain.rowHash(GENESIS, DAY, SHARD, 1, "UPLOAD", null, 9L, "a", at));
+		assertDiffers(hash, ActivityLogChain.rowHash(GENESIS, DAY, SHARD, 1, "UPLOAD", 7L, 9L, null, at));
+		assertDiffers(hash, ActivityLogChain.rowHash(GENESIS, DAY, SHARD, 1, "UPLOAD", 7L, 9L, "a",
+				at.plusNanos(1000)));
+		// Length prefixes keep fields from trading bytes
+		assertDiffers(ActivityLogChain.rowHash(GENESIS, DAY, SHARD, 1, "UPLOADa", 7L, 9L, "", at),
+				ActivityLogChain.rowHash(GENESIS, DAY, SHARD, 1, "UPLOAD", 7L, 9L, "a", at));
+	}
+
+	@Test
+	void walkComputesTheMerkleRootOfTheRowHashes() {
+		List<Row> rows = chain(3);
+		ActivityLogChain.Range range = walk(rows, 3);
+
+		assertNull(range.failure());
+		assertEquals(3, range.rows());
+		assertArrayEquals(rows.get(2).hash(), range.lastHash());
+		// RFC 6962 over three leaves: H(1 || H(1 || leaf0 || leaf1) || leaf2), leaves hashed as H(0 || row hash)
+		byte[] expected = node(node(leaf(rows.get(0).hash()), leaf(rows.get(1).hash())), leaf(rows.get(2).hash()));
+		assertArrayEquals(expected, range.merkleRoot());
+	}
+
+	@Test
+	void walkCatchesAnAlteredRow() {
+		List<Row> rows = chain(3);
+		Row row = rows.get(1);
+		rows.set(1, new Row(row.seq(), row.eventType(), row.userId(), row.fileId(), "rewritten", row.createdAt(),
+				row.hash()));
+
+		assertEquals("row 2 has been altered", walk(rows, 3).failure());
+	}
+
+	@Test
+	void walkCatchesAMissingRow() {
+		List<Row> rows = chain(4);
+		rows.remove(1);
+		assertEquals("row 2 is missing", walk(rows, 4).failure());
+
+		List<Row> truncated = chain(4).subList(0, 2);
+		assertEquals("rows 3-4 are missing", walk(truncated, 4).failure());
+	}
+
+	@Test
+	void walkCatchesADuplicatedRow() {
+		List<Row> rows = chain(3);
+		rows.add(2, rows.get(1));
+
+		assertEquals("row 2 appears more than once", walk(rows, 3).failure());
+	}
+
+	@Test
+	void checkpointHoldsOverItsRows() throws IOException {
+		ActivityLogChain.Range range = walk(chain(3), 3);
+
+		assertNull(ActivityLogChain.check(seal(range, GENESIS, keys.getActiveKeyId()), GENESIS, range, keys));
+	}
+
+	@Test
+	void checkpointMustLinkToThePreviousOne() throws IOException {
+		ActivityLogChain.Range range = walk(chain(3), 3);
+		ActivityLogChain.Checkpoint checkpoint = seal(range, GENESIS, keys.getActiveKeyId());
+
+		byte[] otherPrevious = new byte[32];
+		otherPrevious[0] = 1;
+		assertEquals("checkpoint does not link to the previous one",
+				ActivityLogChain.check(checkpoint, otherPrevious, range, keys));
+	}
+
+	@Test
+	void checkpointMustMatchItsRows() throws IOException {
+		ActivityLogChain.Range range = walk(chain(3), 3);
+		ActivityLogChain.Checkpoint checkpoint = seal(range, GENESIS, keys.getActiveKeyId());
+		ActivityLogChain.Range shorter = walk(chain(2), 2);
+
+		assertEquals("rows do not match the checkpoint", ActivityLogChain.check(checkpoint, GENESIS, shorter, keys));
+	}
+
+	@Test
+	void checkpointWithAStrippedMacFailsWhenAKeyIsConfigured() throws IOException {
+		ActivityLogChain.Range range = walk(chain(3), 3);
+		ActivityLogChain.Checkpoint signed = seal(range, GENESIS, keys.getActiveKeyId());
+		ActivityLogChain.Checkpoint stripped = withMac(signed, null, null);
+		ActivityLogChain.Checkpoint keyOnly = withMac(signed, signed.keyId(), null);
+
+		assertEquals("checkpoint is not signed", ActivityLogChain.check(stripped, GENESIS, range, keys));
+		assertEquals("checkpoint is not signed", ActivityLogChain.check(keyOnly, GENESIS, range, keys));
+	}
+
+	@Test
+	void checkpointWithAForgedMacFails() throws IOException {
+		ActivityLogChain.Range range = walk(chain(3), 3);
+		ActivityLogChain.Checkpoint signed = seal(range, GENESIS, keys.getActiveKeyId());
+		byte[] forged = signed.mac().clone();
+		forged[0] ^= 1;
+
+		assertEquals("checkpoint signature is invalid",
+				ActivityLogChain.check(withMac(signed, signed.keyId(), forged), GENESIS, range, keys));
+		// Signed under a key this instance does not have
+		MasterKeyService other = masterKeys(true);
+		assertNotNull(ActivityLogChain.check(seal(range, GENESIS, other.getActiveKeyId(), other), GENESIS, range, keys));
+	}
+
+	@Test
+	void unsignedCheckpointPassesOnlyWithoutAKey() throws IOException {
+		MasterKeyService none = masterKeys(false);
+		ActivityLogChain.Range range = walk(chain(3), 3);
+		ActivityLogChain.Checkpoint unsigned = seal(range, GENESIS, null, none);
+
+		assertNull(ActivityLogChain.check(unsigned, GENESIS, range, none));
+		assertEquals("checkpoint is not signed", ActivityLogChain.check(unsigned, GENESIS, range, keys));
+	}
+
+	private static List<Row> chain(int length) {
+		List<Row> rows = new ArrayList<>();
+		byte[] previous = GENESIS;
+		for (long seq = 1; seq <= length; seq++) {
+			LocalDateTime at = DAY.atTime(9, 0).plusSeconds(seq);
+			byte[] hash = ActivityLogChain.rowHash(previous, DAY, SHARD, seq, "DOWNLOAD", 5L, 100 + seq,
+					"event " + seq, at);
+			rows.add(new Row(seq, "DOWNLOAD", 5L, 100 + seq, "event " + seq, at, hash));
+			previous = hash;
+		}
+		return rows;
+	}
+
+	private static ActivityLogChain.Range walk(List<Row> rows, long to) {
+		ActivityLogChain.RangeWalker walker = new ActivityLogChain.RangeWalker(DAY, SHARD, 0, GENESIS);
+		for (Row row : rows) {
+			walker.row(row.seq(), row.eventType(), row.userId(), row.fileId(), row.details(), row.createdAt(),
+					row.hash());
+		}
+		return walker.range(to);
+	}
+
+	private ActivityLogChain.Checkpoint seal(ActivityLogChain.Range range, byte[] previous, String keyId)
+			throws IOException {
+		return seal(range, previous, keyId, keys);
+	}
+
+	private static ActivityLogChain.Checkpoint seal(ActivityLogChain.Range range, byte[] previous, String keyId,
+													MasterKeyService keys) throws IOException {
+		byte[] hash = ActivityLogChain.checkpointHash(previous, DAY, SHARD, 1, range.rows(), range.lastHash(),
+				range.merkleRoot());
+		return new ActivityLogChain.Checkpoint(1, DAY, SHARD, 1, range.rows(), range.lastHash(), range.merkleRoot(),
+				hash, keyId, keyId != null ? keys.mac(keyId, hash) : null);
+	}
+
+	private static ActivityLogChain.Checkpoint withMac(ActivityLogChain.Checkpoint c, String keyId, byte[] mac) {
+		return new ActivityLogChain.Checkpoint(c.id(), c.day(), c.shard(), c.fromSeq(), c.toSeq(), c.lastRowHash(),
+				c.merkleRoot(), c.checkpointHash(), keyId, mac);
+	}
+
+	private static MasterKeyService masterKeys(boolean withKey) {
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		try {
+			return new MasterKeyService(false, withKey ? Base64.getEncoder().encodeToString(key) : "",
+					"/nonexistent/master.key", List.of());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] leaf(byte[] hash) {
+		MessageDigest digest = sha256();
+		digest.update((byte) 0);
+		return digest.digest(hash);
+	}
+
+	private static byte[] node(byte[] left, byte[] right) {
+		MessageDigest digest = sha256();
+		digest.update((byte) 1);
+		digest.update(left);
+		return digest.digest(right);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void assertDiffers(byte[] expected, byte[] actual) {
+		assertFalse(MessageDigest.isEqual(expected, actual));
+	}
+
+	private record Row(long seq, String eventType, Long userId, Long fileId, String details, LocalDateTime createdAt,
+					   byte[] hash) {
+	}
+}
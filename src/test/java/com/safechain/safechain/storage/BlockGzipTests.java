@@ -0,0 +1,90 @@
+package com.safechain.safechain.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Block-encoded gzip must stay plain gzip to anyone reading it whole, and
+ * decode correctly from any block to anyone reading it through the index.
+ */
+class BlockGzipTests {
+
+	private static final int BLOCK_SIZE = 4096;
+
+	@Test
+	void decodesAsOrdinaryGzip() throws IOException {
+		for (int length : new int[]{0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 5 * BLOCK_SIZE + 17}) {
+			byte[] content = content(length);
+			Encoded encoded = encode(content);
+			try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded.bytes()))) {
+				assertArrayEquals(content, in.readAllBytes(), "length " + length);
+			}
+			assertEquals((length + BLOCK_SIZE - 1) / BLOCK_SIZE * BlockGzip.OFFSET_SIZE,
+					encoded.index().getOffsets().length, "length " + length);
+		}
+	}
+
+	@Test
+	void decodesFromAnyPosition() throws IOException {
+		byte[] content = content(7 * BLOCK_SIZE + 123);
+		Encoded encoded = encode(content);
+		BlockGzip index = encoded.index();
+		for (long position : new long[]{0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, 3 * BLOCK_SIZE + 5, content.length - 1}) {
+			long offset = index.encodedOffset(position);
+			long blockStart = index.blockStart(position);
+			assertEquals(position / BLOCK_SIZE * BLOCK_SIZE, blockStart);
+			try (InputStream in = BlockGzip.inflate(new ByteArrayInputStream(encoded.bytes(), (int) offset,
+					encoded.bytes().length - (int) offset))) {
+				assertArrayEquals(Arrays.copyOfRange(content, (int) blockStart, content.length), in.readAllBytes(),
+						"position " + position);
+			}
+		}
+	}
+
+	@Test
+	void encodesOneByteAtATimeTheSame() throws IOException {
+		byte[] content = content(2 * BLOCK_SIZE + 9);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BlockGzip.Encoder encoder = BlockGzip.encoder(out, BLOCK_SIZE);
+		try (encoder) {
+			for (byte b : content) {
+				encoder.write(b);
+			}
+		}
+		Encoded whole = encode(content);
+		assertArrayEquals(whole.bytes(), out.toByteArray());
+		assertArrayEquals(whole.index().getOffsets(), encoder.index().getOffsets());
+	}
+
+	private static Encoded encode(byte[] content) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BlockGzip.Encoder encoder = BlockGzip.encoder(out, BLOCK_SIZE);
+		try (encoder) {
+			encoder.write(content);
+		}
+		return new Encoded(out.toByteArray(), encoder.index());
+	}
+
+	// Half random, half repetitive, so blocks compress by different amounts
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		new Random(length).nextBytes(content);
+		for (int i = length / 2; i < length; i++) {
+			content[i] = (byte) ('a' + i % 7);
+		}
+		return content;
+	}
+
+	private record Encoded(byte[] bytes, BlockGzip index) {
+	}
+}
@@ -0,0 +1,132 @@
+package com.safechain.safechain.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Chunk hashes must cover every byte, a short last chunk included, and a
+ * verified read must never hand out a byte of a chunk that fails its hash.
+ */
+class ChunkTreeTests {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private final byte[] content = content(3 * CHUNK_SIZE + 17);
+	private final ChunkTree tree = tree(content);
+
+	@Test
+	void hashesAShortLastChunkOnItsOwn() throws IOException, NoSuchAlgorithmException {
+		assertEquals(4 * ChunkTree.HASH_SIZE, tree.getHashes().length);
+		byte[] last = MessageDigest.getInstance("SHA-256")
+				.digest(Arrays.copyOfRange(content, 3 * CHUNK_SIZE, content.length));
+		assertArrayEquals(last, Arrays.copyOfRange(tree.getHashes(), 3 * ChunkTree.HASH_SIZE, 4 * ChunkTree.HASH_SIZE));
+		assertArrayEquals(ChunkTree.merkleRoot(tree.getHashes()), tree.getRoot());
+
+		assertArrayEquals(content, read(whole(), 0, content.length));
+	}
+
+	@Test
+	void hashesTheSameWhicheverWayTheBytesArrive() throws IOException {
+		ChunkTree.Builder builder = new ChunkTree.Builder(CHUNK_SIZE);
+		for (int offset = 0; offset < content.length; offset += 100) {
+			builder.update(content, offset, Math.min(100, content.length - offset));
+		}
+		assertArrayEquals(tree.getHashes(), builder.build().getHashes());
+
+		ChunkTree.Builder written = new ChunkTree.Builder(CHUNK_SIZE);
+		try (OutputStream out = written.asOutputStream()) {
+			out.write(content[0]);
+			out.write(content, 1, content.length - 1);
+		}
+		assertArrayEquals(tree.getHashes(), written.build().getHashes());
+
+		ChunkTree.Hasher hasher = ChunkTree.hashing(new ByteArrayInputStream(content), CHUNK_SIZE);
+		hasher.skip(CHUNK_SIZE + 5);
+		hasher.readAllBytes();
+		assertArrayEquals(tree.getHashes(), hasher.tree().getHashes());
+	}
+
+	@Test
+	void narrowsToTheChunksARangeTouches() throws IOException {
+		// Ends exactly on a chunk boundary: the next chunk is not needed
+		ChunkTree.Slice one = whole().narrow(CHUNK_SIZE, CHUNK_SIZE);
+		assertEquals(1, one.firstChunk());
+		assertEquals(ChunkTree.HASH_SIZE, one.hashes().length);
+		assertArrayEquals(Arrays.copyOfRange(content, CHUNK_SIZE, 2 * CHUNK_SIZE), read(one, one.start(), CHUNK_SIZE));
+
+		// Two bytes straddling a boundary need both chunks
+		ChunkTree.Slice two = whole().narrow(CHUNK_SIZE - 1, 2);
+		assertEquals(0, two.firstChunk());
+		assertEquals(2 * ChunkTree.HASH_SIZE, two.hashes().length);
+		assertArrayEquals(Arrays.copyOfRange(content, 0, 2 * CHUNK_SIZE), read(two, two.start(), 2 * CHUNK_SIZE));
+
+		// The short last chunk on its own
+		ChunkTree.Slice tail = whole().narrow(content.length - 1, 1);
+		assertEquals(3, tail.firstChunk());
+		assertArrayEquals(Arrays.copyOfRange(content, 3 * CHUNK_SIZE, content.length),
+				read(tail, tail.start(), content.length - 3 * CHUNK_SIZE));
+	}
+
+	@Test
+	void failsACorruptChunkBeforeReturningAnyOfIt() throws IOException {
+		byte[] damaged = content.clone();
+		damaged[2 * CHUNK_SIZE + 500] ^= 1;
+
+		// Every byte handed out must be the original; none may come from the corrupt chunk
+		int[] returned = {0};
+		try (InputStream in = whole().verify(new ByteArrayInputStream(damaged))) {
+			IntegrityException e = assertThrows(IntegrityException.class, () -> {
+				for (int b; (b = in.read()) != -1; ) {
+					assertEquals(content[returned[0]] & 0xff, b);
+					returned[0]++;
+				}
+			});
+			assertEquals("Content failed verification at chunk 2", e.getMessage());
+		}
+		assertEquals(2 * CHUNK_SIZE, returned[0]);
+	}
+
+	@Test
+	void failsATruncatedSource() throws IOException {
+		// Short inside the last chunk, and short by the whole of it
+		for (int length : new int[]{content.length - 1, 3 * CHUNK_SIZE, 2 * CHUNK_SIZE + 10}) {
+			try (InputStream in = whole().verify(new ByteArrayInputStream(content, 0, length))) {
+				assertThrows(IntegrityException.class, in::readAllBytes, "length " + length);
+			}
+		}
+	}
+
+	private ChunkTree.Slice whole() {
+		return new ChunkTree.Slice(CHUNK_SIZE, 0, tree.getHashes());
+	}
+
+	private byte[] read(ChunkTree.Slice slice, long start, int length) throws IOException {
+		try (InputStream in = slice.verify(new ByteArrayInputStream(content, (int) start, content.length - (int) start))) {
+			return in.readNBytes(length);
+		}
+	}
+
+	private static ChunkTree tree(byte[] content) {
+		ChunkTree.Builder builder = new ChunkTree.Builder(CHUNK_SIZE);
+		builder.update(content, 0, content.length);
+		return builder.build();
+	}
+
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		new Random(11).nextBytes(content);
+		return content;
+	}
+}
@@ -0,0 +1,148 @@
+package com.safechain.safechain.storage;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The encrypted blob format must round-trip any length, decrypt any range
+ * on its own, and refuse every kind of tampering with an
+ * {@link IntegrityException} rather than returning altered plaintext.
+ */
+class SegmentedAesGcmTests {
+
+	private static final int SEGMENT_SIZE = 64;
+	private static final int STRIDE = SEGMENT_SIZE + SegmentedAesGcm.TAG_SIZE;
+
+	private final Random random = new Random(7);
+	private final SecretKey key = newKey();
+
+	@Test
+	void roundTripsAroundSegmentBoundaries() throws IOException {
+		for (int length : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 3 * SEGMENT_SIZE}) {
+			byte[] plaintext = bytes(length);
+			byte[] stored = encrypt(plaintext);
+
+			SegmentedAesGcm cipher = SegmentedAesGcm.create(key, SEGMENT_SIZE);
+			assertEquals(cipher.ciphertextLength(length), stored.length, "length " + length);
+			assertEquals(length, cipher.plaintextLength(stored.length), "length " + length);
+			assertArrayEquals(plaintext, decrypt(stored, 0, length), "length " + length);
+		}
+	}
+
+	@Test
+	void decryptsRandomRanges() throws IOException {
+		byte[] plaintext = bytes(10 * SEGMENT_SIZE + 13);
+		byte[] stored = encrypt(plaintext);
+		for (int i = 0; i < 200; i++) {
+			int offset = random.nextInt(plaintext.length + 1);
+			int length = random.nextInt(plaintext.length - offset + 1);
+			assertArrayEquals(Arrays.copyOfRange(plaintext, offset, offset + length),
+					decrypt(stored, offset, length), "range " + offset + "+" + length);
+		}
+	}
+
+	@Test
+	void rejectsAFlippedCiphertextByte() throws IOException {
+		byte[] plaintext = bytes(3 * SEGMENT_SIZE);
+		byte[] stored = encrypt(plaintext);
+		stored[SegmentedAesGcm.HEADER_SIZE + STRIDE + 5] ^= 1;
+
+		assertThrows(IntegrityException.class, () -> decrypt(stored, 0, plaintext.length));
+		assertThrows(IntegrityException.class, () -> decrypt(stored, SEGMENT_SIZE + 10, 1));
+		// Segments are authenticated on their own, so the others still read
+		assertArrayEquals(Arrays.copyOfRange(plaintext, 0, SEGMENT_SIZE), decrypt(stored, 0, SEGMENT_SIZE));
+	}
+
+	@Test
+	void rejectsTruncationAtASegmentBoundary() throws IOException {
+		byte[] plaintext = bytes(3 * SEGMENT_SIZE);
+		byte[] stored = encrypt(plaintext);
+		byte[] truncated = Arrays.copyOf(stored, SegmentedAesGcm.HEADER_SIZE + 2 * STRIDE);
+
+		// Cut where a segment ends, the blob looks whole, but its new last segment was not sealed as the last
+		assertThrows(IntegrityException.class, () -> decrypt(truncated, 0, 2 * SEGMENT_SIZE));
+		// A source that ends before the recorded length is caught as well
+		assertThrows(IOException.class, () -> {
+			try (InputStream in = open(truncated).decrypt(source(truncated), stored.length, 0, plaintext.length)) {
+				in.readAllBytes();
+			}
+		});
+	}
+
+	@Test
+	void rejectsSwappedSegments() throws IOException {
+		byte[] plaintext = bytes(3 * SEGMENT_SIZE);
+		byte[] stored = encrypt(plaintext);
+		byte[] first = Arrays.copyOfRange(stored, SegmentedAesGcm.HEADER_SIZE, SegmentedAesGcm.HEADER_SIZE + STRIDE);
+		System.arraycopy(stored, SegmentedAesGcm.HEADER_SIZE + STRIDE, stored, SegmentedAesGcm.HEADER_SIZE, STRIDE);
+		System.arraycopy(first, 0, stored, SegmentedAesGcm.HEADER_SIZE + STRIDE, STRIDE);
+
+		assertThrows(IntegrityException.class, () -> decrypt(stored, 0, SEGMENT_SIZE));
+		assertThrows(IntegrityException.class, () -> decrypt(stored, SEGMENT_SIZE, SEGMENT_SIZE));
+	}
+
+	@Test
+	void rejectsTheWrongKey() throws IOException {
+		byte[] plaintext = bytes(2 * SEGMENT_SIZE + 1);
+		byte[] stored = encrypt(plaintext);
+		SegmentedAesGcm cipher = SegmentedAesGcm.open(newKey(), source(stored));
+
+		assertThrows(IntegrityException.class, () -> {
+			try (InputStream in = cipher.decrypt(source(stored), stored.length, 0, plaintext.length)) {
+				in.readAllBytes();
+			}
+		});
+	}
+
+	private byte[] encrypt(byte[] plaintext) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream encrypted = SegmentedAesGcm.create(key, SEGMENT_SIZE).encrypt(out)) {
+			encrypted.write(plaintext);
+		}
+		return out.toByteArray();
+	}
+
+	private byte[] decrypt(byte[] stored, long offset, long length) throws IOException {
+		try (InputStream in = open(stored).decrypt(source(stored), stored.length, offset, length)) {
+			return in.readAllBytes();
+		}
+	}
+
+	private SegmentedAesGcm open(byte[] stored) throws IOException {
+		return SegmentedAesGcm.open(key, source(stored));
+	}
+
+	private static SegmentedAesGcm.RangeSource source(byte[] stored) {
+		return (offset, length) -> new ByteArrayInputStream(stored, (int) offset, (int) length);
+	}
+
+	private byte[] bytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static SecretKey newKey() {
+		try {
+			KeyGenerator generator = KeyGenerator.getInstance("AES");
+			generator.init(256);
+			return generator.generateKey();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
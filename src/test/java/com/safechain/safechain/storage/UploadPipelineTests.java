@@ -0,0 +1,228 @@
+package com.safechain.safechain.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every stage must see the whole upload, the first failure must stop all of
+ * them and reach the caller, a stage that falls behind as a tap must not
+ * hold the reader back, and no stage thread may be left waiting afterwards.
+ */
+@Timeout(30)
+class UploadPipelineTests {
+
+	private static final int BUFFER_SIZE = 1024;
+	private static final int DEPTH = 2;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void feedsEveryStageTheWholeUpload() throws Exception {
+		byte[] content = new byte[50 * BUFFER_SIZE + 7];
+		new Random(3).nextBytes(content);
+		UploadPipeline pipeline = new UploadPipeline(executor, BUFFER_SIZE, DEPTH);
+		CompletableFuture<byte[]> bulk = pipeline.add(InputStream::readAllBytes);
+		CompletableFuture<byte[]> single = pipeline.add(in -> {
+			byte[] read = new byte[content.length + 1];
+			int length = 0;
+			for (int b; (b = in.read()) != -1; ) {
+				read[length++] = (byte) b;
+			}
+			return Arrays.copyOf(read, length);
+		});
+
+		pipeline.run(new ByteArrayInputStream(content));
+
+		assertArrayEquals(content, bulk.get());
+		assertArrayEquals(content, single.get());
+	}
+
+	@Test
+	void failingStageAbortsTheOthersAndIsRethrown() throws Exception {
+		IOException failure = new IOException("stage failed");
+		UploadPipeline pipeline = new UploadPipeline(executor, BUFFER_SIZE, DEPTH);
+		CompletableFuture<Long> draining = pipeline.add(in -> in.transferTo(OutputStream.nullOutputStream()));
+		CompletableFuture<Void> failing = pipeline.add(in -> {
+			in.readNBytes(3 * BUFFER_SIZE);
+			throw failure;
+		});
+
+		// The source never ends, so only the abort can stop the draining stage
+		assertSame(failure, assertThrows(IOException.class, () -> pipeline.run(endless(new AtomicLong()))));
+
+		assertSame(failure, cause(failing));
+		assertEquals("Upload aborted", cause(draining).getMessage());
+		assertSame(failure, cause(draining).getCause());
+	}
+
+	@Test
+	void failingSourceAbortsEveryStage() throws Exception {
+		IOException failure = new IOException("source failed");
+		InputStream source = new InputStream() {
+			private final InputStream content = endless(new AtomicLong());
+			private int reads;
+
+			@Override
+			public int read() throws IOException {
+				return content.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (++reads > 10) {
+					throw failure;
+				}
+				return content.read(b, off, len);
+			}
+		};
+		UploadPipeline pipeline = new UploadPipeline(executor, BUFFER_SIZE, DEPTH);
+		CompletableFuture<Long> first = pipeline.add(in -> in.transferTo(OutputStream.nullOutputStream()));
+		CompletableFuture<Long> second = pipeline.add(in -> in.transferTo(OutputStream.nullOutputStream()));
+
+		assertSame(failure, assertThrows(IOException.class, () -> pipeline.run(source)));
+
+		for (CompletableFuture<Long> result : Arrays.asList(first, second)) {
+			assertSame(failure, cause(result).getCause());
+		}
+	}
+
+	@Test
+	void rejectedStartLeavesTheSourceUnread() throws Exception {
+		// Room for the first stage only
+		AtomicInteger started = new AtomicInteger();
+		UploadPipeline pipeline = new UploadPipeline(command -> {
+			if (started.getAndIncrement() > 0) {
+				throw new RejectedExecutionException("no thread");
+			}
+			executor.execute(command);
+		}, BUFFER_SIZE, DEPTH);
+		CompletableFuture<Long> running = pipeline.add(in -> in.transferTo(OutputStream.nullOutputStream()));
+		CompletableFuture<Long> unstarted = pipeline.add(in -> in.transferTo(OutputStream.nullOutputStream()));
+		AtomicLong read = new AtomicLong();
+
+		assertThrows(RejectedExecutionException.class, () -> pipeline.run(endless(read)));
+
+		assertEquals(0, read.get());
+		assertInstanceOf(IOException.class, cause(running));
+		assertInstanceOf(RejectedExecutionException.class, cause(unstarted));
+	}
+
+	@Test
+	void slowTapIsDroppedWithoutStallingTheReader() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		UploadPipeline pipeline = new UploadPipeline(executor, BUFFER_SIZE, DEPTH);
+		CompletableFuture<Long> required = pipeline.add(in -> in.transferTo(OutputStream.nullOutputStream()));
+		UploadPipeline.Tap<Long> tap = new UploadPipeline.Tap<>(in -> {
+			await(release);
+			return in.transferTo(OutputStream.nullOutputStream());
+		});
+		pipeline.tap(tap);
+
+		// Far more than the tap's queue holds, while it reads nothing at all
+		pipeline.run(new ByteArrayInputStream(new byte[100 * DEPTH * BUFFER_SIZE]));
+		assertEquals(100L * DEPTH * BUFFER_SIZE, required.get());
+		release.countDown();
+
+		assertEquals("Stage fell behind the upload", cause(tap.result()).getCause().getMessage());
+	}
+
+	@Test
+	void leavesNoStageThreadWaitingAfterAnAbort() throws Exception {
+		IOException failure = new IOException("stage failed");
+		CountDownLatch reading = new CountDownLatch(2);
+		UploadPipeline pipeline = new UploadPipeline(executor, BUFFER_SIZE, DEPTH);
+		// The stage asleep keeps its queue full, so the reader and the others are all waiting when it fails
+		pipeline.add(in -> in.transferTo(OutputStream.nullOutputStream()));
+		pipeline.add(in -> {
+			reading.countDown();
+			return in.readNBytes(Integer.MAX_VALUE);
+		});
+		pipeline.add(in -> {
+			reading.countDown();
+			sleep(200);
+			return in.transferTo(OutputStream.nullOutputStream());
+		});
+		pipeline.tap(new UploadPipeline.Tap<>(in -> in.transferTo(OutputStream.nullOutputStream())));
+		pipeline.add(in -> {
+			await(reading);
+			in.readNBytes(BUFFER_SIZE);
+			throw failure;
+		});
+
+		assertSame(failure, assertThrows(IOException.class, () -> pipeline.run(endless(new AtomicLong()))));
+
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS), "a stage thread is still waiting");
+	}
+
+	private static Throwable cause(CompletableFuture<?> result) {
+		return assertThrows(ExecutionException.class, result::get).getCause();
+	}
+
+	private static void await(CountDownLatch latch) throws InterruptedIOException {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * @param read counts the bytes handed out
+	 */
+	private static InputStream endless(AtomicLong read) {
+		return new InputStream() {
+			@Override
+			public int read() {
+				read.incrementAndGet();
+				return 0;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				read.addAndGet(len);
+				return len;
+			}
+		};
+	}
+}